@@ -0,0 +1,435 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logging backend that moves formatting and output off the calling thread.
+ * <p>
+ * Callers claim a slot of a preallocated ring with a CAS and only store the message, its
+ * arguments and a timestamp. A single consumer thread formats the records and hands them to
+ * the {@link Sink}s in batches, calling {@link Sink#flush()} whenever the ring runs empty or a
+ * batch is full. When the ring is full records are dropped rather than blocking the caller, only
+ * errors wait a few milliseconds for a free slot first. The number dropped is reported through
+ * the sinks once there is room again.
+ * <p>
+ * Arguments are formatted later on the consumer thread, so mutable objects passed as arguments
+ * are rendered in whatever state they are in by then.
+ */
+public class AsyncLogger {
+    private static final String TAG = AsyncLogger.class.getSimpleName();
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_CACHED_TAGS = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Output of formatted records, only ever called from the consumer thread.
+     */
+    public interface Sink {
+        /**
+         * The record is reused once this returns and must not be kept.
+         */
+        void write(Record record);
+
+        /**
+         * End of a batch, buffered output should be written out.
+         */
+        void flush();
+
+        void close();
+    }
+
+    /**
+     * A log call captured in a ring slot. Formatting happens on first access of
+     * {@link #getMessage()} and is shared by all sinks.
+     */
+    public static final class Record {
+        volatile long sequence = -1;
+        int level;
+        String tag;
+        String message;
+        Object[] args;
+        Throwable throwable;
+        long timeMillis;
+        long threadId;
+        String fullTag;
+        private String formatted;
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the tag including the logger prefix
+         */
+        public String getTag() {
+            return fullTag;
+        }
+
+        public String getMessage() {
+            if (formatted == null) {
+                if (args == null || args.length == 0 || message == null) {
+                    formatted = String.valueOf(message);
+                } else {
+                    try {
+                        formatted = String.format(message, args);
+                    } catch (RuntimeException e) {
+                        formatted = message + " (format failed: " + e + ")";
+                    }
+                }
+            }
+            return formatted;
+        }
+
+        /**
+         * @return the unformatted message, for sinks that store arguments instead of text
+         */
+        public String getFormat() {
+            return message;
+        }
+
+        public Object[] getArgs() {
+            return args;
+        }
+
+        public Throwable getThrowable() {
+            return throwable;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * Appends the record as one logcat style line, e.g.
+         * {@code 10-18 12:00:00.123  42 D LogUtils/Tag: message}, followed by the stack trace if
+         * there is one.
+         */
+        public void appendTo(StringBuilder builder) {
+            sLineFormat.get().appendTime(builder, timeMillis);
+            builder.append(' ').append(threadId).append(' ').append(levelChar(level)).append(' ')
+                    .append(fullTag).append(": ").append(getMessage()).append('\n');
+            if (throwable != null) {
+                builder.append(Log.getStackTraceString(throwable)).append('\n');
+            }
+        }
+
+        void clear() {
+            tag = null;
+            message = null;
+            args = null;
+            throwable = null;
+            fullTag = null;
+            formatted = null;
+        }
+    }
+
+    private static final ThreadLocal<LineFormat> sLineFormat = new ThreadLocal<LineFormat>() {
+        @Override
+        protected LineFormat initialValue() {
+            return new LineFormat();
+        }
+    };
+
+    /**
+     * Date part formatting cached per second, records of the same second only append millis.
+     */
+    private static class LineFormat {
+        private final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
+        private long second = -1;
+        private String prefix;
+
+        void appendTime(StringBuilder builder, long timeMillis) {
+            long s = timeMillis / 1000;
+            if (s != second) {
+                second = s;
+                prefix = format.format(new Date(s * 1000));
+            }
+            int millis = (int) (timeMillis - s * 1000);
+            builder.append(prefix).append('.');
+            if (millis < 100) {
+                builder.append('0');
+            }
+            if (millis < 10) {
+                builder.append('0');
+            }
+            builder.append(millis);
+        }
+    }
+
+    public static char levelChar(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+
+    private final Record[] ring;
+    private final int mask;
+    private final String tagPrefix;
+    private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Map<String, String> fullTags = new HashMap<>();
+    private final Record droppedRecord = new Record();
+    private volatile long consumed = 0;
+    private volatile long flushed = 0;
+    private volatile boolean running = false;
+    private volatile boolean consumerWaiting = false;
+    private volatile Thread consumer;
+
+    public AsyncLogger(String tagPrefix) {
+        this(tagPrefix, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param tagPrefix prepended as "prefix/tag" to every tag, and used alone for records
+     *                  without a tag
+     * @param capacity  number of ring slots, rounded up to a power of two
+     */
+    public AsyncLogger(String tagPrefix, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Record[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Record();
+        }
+        this.mask = size - 1;
+        this.tagPrefix = tagPrefix;
+    }
+
+    public AsyncLogger addSink(Sink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    public AsyncLogger removeSink(Sink sink) {
+        sinks.remove(sink);
+        return this;
+    }
+
+    public synchronized AsyncLogger start() {
+        if (!running) {
+            running = true;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            consumer = thread;
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops the consumer after it wrote out every record logged so far, then closes the sinks.
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+        Thread thread = consumer;
+        if (!running || thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        consumer = null;
+    }
+
+    /**
+     * Captures a log call without formatting it.
+     *
+     * @return false if the ring was full and the record dropped
+     */
+    public boolean log(int level, String tag, String message, Object[] args, Throwable throwable) {
+        long sequence;
+        long deadline = 0;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed < ring.length) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+                continue;
+            }
+            // errors are worth a short wait for the consumer, everything else is dropped
+            if (level >= Log.ERROR && running) {
+                if (deadline == 0) {
+                    deadline = System.nanoTime() + FULL_WAIT_NANOS;
+                }
+                if (System.nanoTime() < deadline) {
+                    LockSupport.unpark(consumer);
+                    Thread.yield();
+                    continue;
+                }
+            }
+            dropped.incrementAndGet();
+            return false;
+        }
+        Record record = ring[(int) sequence & mask];
+        record.level = level;
+        record.tag = tag;
+        record.message = message;
+        record.args = args;
+        record.throwable = throwable;
+        record.timeMillis = System.currentTimeMillis();
+        record.threadId = Thread.currentThread().getId();
+        record.sequence = sequence;
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every record logged before this call reached the sinks and they were flushed.
+     *
+     * @return false on timeout or if the logger is not running
+     */
+    public boolean flush(long timeoutMillis) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (flushed < target) {
+            Thread thread = consumer;
+            if (!running || thread == null || System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, FLUSH_POLL_NANOS);
+        }
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void consume() {
+        int batch = 0;
+        while (true) {
+            long next = consumed;
+            Record record = ring[(int) next & mask];
+            if (record.sequence != next) {
+                if (dropped.get() > 0) {
+                    reportDropped();
+                    batch++;
+                }
+                if (batch > 0) {
+                    flushSinks();
+                    batch = 0;
+                }
+                flushed = next;
+                if (!running && claimed.get() == next) {
+                    break;
+                }
+                consumerWaiting = true;
+                if (record.sequence != next && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                } else if (record.sequence != next) {
+                    // a claimed slot is still being filled by its producer
+                    Thread.yield();
+                }
+                consumerWaiting = false;
+                continue;
+            }
+            reportDropped();
+            record.fullTag = fullTag(record.tag);
+            dispatch(record);
+            record.clear();
+            consumed = next + 1;
+            if (++batch >= MAX_BATCH) {
+                flushSinks();
+                batch = 0;
+            }
+        }
+        for (Sink sink : sinks) {
+            try {
+                sink.close();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "sink close failed", e);
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) {
+            droppedRecord.level = Log.WARN;
+            droppedRecord.fullTag = tagPrefix;
+            droppedRecord.message = count + " log records dropped, ring buffer full";
+            droppedRecord.timeMillis = System.currentTimeMillis();
+            droppedRecord.threadId = Thread.currentThread().getId();
+            dispatch(droppedRecord);
+            droppedRecord.clear();
+        }
+    }
+
+    private void dispatch(Record record) {
+        for (Sink sink : sinks) {
+            try {
+                sink.write(record);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "sink write failed", e);
+            }
+        }
+    }
+
+    private void flushSinks() {
+        for (Sink sink : sinks) {
+            try {
+                sink.flush();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "sink flush failed", e);
+            }
+        }
+    }
+
+    private String fullTag(String tag) {
+        if (tag == null) {
+            return tagPrefix;
+        }
+        String fullTag = fullTags.get(tag);
+        if (fullTag == null) {
+            if (fullTags.size() >= MAX_CACHED_TAGS) {
+                fullTags.clear();
+            }
+            fullTag = tagPrefix + "/" + tag;
+            fullTags.put(tag, fullTag);
+        }
+        return fullTag;
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.commonutils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Renders logs written by {@link BinaryLogSink} back to text. Only depends on java.*, so it
+ * runs on a desktop:
+ * <pre>
+ * java -cp classes com.example.commonutils.BinaryLogDecoder app.blog [more.blog.gz ...]
+ * </pre>
+ * Layout, big endian, varints are unsigned LEB128 and signed values zigzag encoded:
+ * <pre>
+ * header: int magic "BLOG", byte version, long start time millis
+ * define: byte 1, varint id, string
+ * event:  byte 2 (3 with throwable), byte level, varint tag id, varint format id,
+ *         signed varlong millis since previous event, varlong thread id, varint arg count,
+ *         args as byte type + value, [string stack trace]
+ * string: varint length, UTF-8 bytes
+ * </pre>
+ */
+public class BinaryLogDecoder {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: BinaryLogDecoder <file.blog[.gz]>...");
+            System.exit(1);
+        }
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, UTF8));
+        try {
+            for (String path : args) {
+                InputStream in = new FileInputStream(path);
+                if (path.endsWith(".gz")) {
+                    in = new GZIPInputStream(in);
+                }
+                try {
+                    decode(in, out);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes one line per event in the format of {@link AsyncLogger.Record#appendTo}. A record
+     * cut short at the end of the stream, e.g. by a crash, ends decoding quietly.
+     *
+     * @return number of events decoded
+     */
+    public static int decode(InputStream input, Writer out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != BinaryLogSink.MAGIC) {
+            throw new IOException("not a binary log");
+        }
+        int version = in.readUnsignedByte();
+        if (version != BinaryLogSink.VERSION) {
+            throw new IOException("unsupported binary log version " + version);
+        }
+        long time = in.readLong();
+        List<String> strings = new ArrayList<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder line = new StringBuilder(256);
+        int events = 0;
+        try {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                if (type == BinaryLogSink.RECORD_DEFINE) {
+                    int id = readVarInt(in);
+                    String value = readString(in);
+                    if (id == 0) {
+                        strings.clear();
+                    }
+                    while (strings.size() <= id) {
+                        strings.add(null);
+                    }
+                    strings.set(id, value);
+                    continue;
+                }
+                if (type != BinaryLogSink.RECORD_EVENT && type != BinaryLogSink.RECORD_EVENT_WITH_THROWABLE) {
+                    throw new IOException("corrupt record type " + type);
+                }
+                int level = in.readUnsignedByte();
+                String tag = lookup(strings, readVarInt(in));
+                String format = lookup(strings, readVarInt(in));
+                time += unzigzag(readVarLong(in));
+                long threadId = readVarLong(in);
+                Object[] args = new Object[readVarInt(in)];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = readArg(in);
+                }
+                String stackTrace = type == BinaryLogSink.RECORD_EVENT_WITH_THROWABLE ? readString(in) : null;
+
+                line.setLength(0);
+                line.append(dateFormat.format(new Date(time))).append(' ').append(threadId).append(' ')
+                        .append(levelChar(level)).append(' ').append(tag).append(": ")
+                        .append(render(format, args)).append('\n');
+                if (stackTrace != null) {
+                    line.append(stackTrace).append('\n');
+                }
+                out.write(line.toString());
+                events++;
+            }
+        } catch (EOFException e) {
+            // truncated tail
+        }
+        return events;
+    }
+
+    private static String render(String format, Object[] args) {
+        if (args.length == 0) {
+            return format;
+        }
+        try {
+            return String.format(format, args);
+        } catch (RuntimeException e) {
+            StringBuilder builder = new StringBuilder(format).append(" (format failed:");
+            for (Object arg : args) {
+                builder.append(' ').append(arg);
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    private static Object readArg(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case BinaryLogSink.ARG_NULL:
+                return null;
+            case BinaryLogSink.ARG_INT:
+                return (int) unzigzag(readVarLong(in));
+            case BinaryLogSink.ARG_LONG:
+                return unzigzag(readVarLong(in));
+            case BinaryLogSink.ARG_FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case BinaryLogSink.ARG_DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case BinaryLogSink.ARG_FALSE:
+                return Boolean.FALSE;
+            case BinaryLogSink.ARG_TRUE:
+                return Boolean.TRUE;
+            case BinaryLogSink.ARG_STRING:
+                return readString(in);
+            case BinaryLogSink.ARG_CHAR:
+                return (char) readVarInt(in);
+            case BinaryLogSink.ARG_BYTE:
+                return in.readByte();
+            case BinaryLogSink.ARG_SHORT:
+                return (short) unzigzag(readVarLong(in));
+            default:
+                throw new IOException("corrupt argument type " + type);
+        }
+    }
+
+    private static String lookup(List<String> strings, int id) throws IOException {
+        if (id >= strings.size() || strings.get(id) == null) {
+            throw new IOException("undefined string id " + id);
+        }
+        return strings.get(id);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("varint out of range");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupt varint");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Same letters as {@link AsyncLogger#levelChar(int)}, without touching android.util.Log.
+     */
+    private static char levelChar(int level) {
+        switch (level) {
+            case 2:
+                return 'V';
+            case 3:
+                return 'D';
+            case 4:
+                return 'I';
+            case 5:
+                return 'W';
+            case 6:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link AsyncLogger} records in a compact binary form instead of formatted text.
+ * <p>
+ * Format strings and tags are written once per file as a definition and referred to by id
+ * afterwards, so an event is only the level, tag and format ids, a timestamp delta, the thread
+ * id and the typed arguments. No String.format happens on the device; the file is rendered back
+ * to text with {@link BinaryLogDecoder}, which also documents the layout.
+ */
+public class BinaryLogSink implements AsyncLogger.Sink {
+    private static final String TAG = BinaryLogSink.class.getSimpleName();
+
+    static final int MAGIC = 0x424C4F47; // BLOG
+    static final int VERSION = 1;
+
+    static final int RECORD_DEFINE = 1;
+    static final int RECORD_EVENT = 2;
+    static final int RECORD_EVENT_WITH_THROWABLE = 3;
+
+    static final int ARG_NULL = 0;
+    static final int ARG_INT = 1;
+    static final int ARG_LONG = 2;
+    static final int ARG_FLOAT = 3;
+    static final int ARG_DOUBLE = 4;
+    static final int ARG_FALSE = 5;
+    static final int ARG_TRUE = 6;
+    static final int ARG_STRING = 7;
+    static final int ARG_CHAR = 8;
+    static final int ARG_BYTE = 9;
+    static final int ARG_SHORT = 10;
+
+    static final int MAX_STRING_IDS = 64 * 1024;
+
+    private final File file;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private byte[] buffer = new byte[16 * 1024];
+    private int length = 0;
+    private FileOutputStream out;
+    private long lastTime;
+    // bytes of the file written out in whole batches, -1 until it was first opened
+    private long written = -1;
+    private long writtenTime;
+
+    /**
+     * @param file replaced by a new log, string ids are only valid within one file
+     */
+    public BinaryLogSink(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(AsyncLogger.Record record) {
+        if (out == null && !open()) {
+            return;
+        }
+        if (ids.size() > MAX_STRING_IDS - 2) {
+            // runaway dynamic messages, e.g. concatenated instead of formatted. Reset before the
+            // event defines its strings, the decoder drops its table on the next definition of 0
+            ids.clear();
+        }
+        int tagId = intern(record.getTag());
+        int formatId = intern(record.getFormat());
+        Throwable throwable = record.getThrowable();
+        writeByte(throwable == null ? RECORD_EVENT : RECORD_EVENT_WITH_THROWABLE);
+        writeByte(record.getLevel());
+        writeVarInt(tagId);
+        writeVarInt(formatId);
+        writeVarLong(zigzag(record.getTimeMillis() - lastTime));
+        lastTime = record.getTimeMillis();
+        writeVarLong(record.getThreadId());
+        Object[] args = record.getArgs();
+        int count = args == null ? 0 : args.length;
+        writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            writeArg(args[i]);
+        }
+        if (throwable != null) {
+            writeString(Log.getStackTraceString(throwable));
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (out == null || length == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, length);
+            written += length;
+            writtenTime = lastTime;
+        } catch (IOException e) {
+            // e.g. out of space; the next write reopens the file after the last whole batch
+            Log.w(TAG, "failed to write binary log", e);
+            FileUtils.closeQuietly(out);
+            out = null;
+        }
+        length = 0;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        FileUtils.closeQuietly(out);
+        out = null;
+    }
+
+    /**
+     * Replaces the file on the first call. Later calls, after a failed write or close(), append
+     * to it from the end of the last whole batch, dropping a batch written in part.
+     */
+    private boolean open() {
+        boolean resume = written > 0 && file.length() >= written;
+        try {
+            if (resume) {
+                out = new FileOutputStream(file, true);
+                out.getChannel().truncate(written);
+            } else {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                    throw new IOException("cannot create " + parent);
+                }
+                out = new FileOutputStream(file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open binary log " + file, e);
+            FileUtils.closeQuietly(out);
+            out = null;
+            return false;
+        }
+        // definitions of the dropped batch are gone, the decoder drops its table on the next
+        // definition of 0
+        ids.clear();
+        if (resume) {
+            lastTime = writtenTime;
+            return true;
+        }
+        written = 0;
+        lastTime = System.currentTimeMillis();
+        writeInt(MAGIC);
+        writeByte(VERSION);
+        writeLong(lastTime);
+        return true;
+    }
+
+    private int intern(String value) {
+        String key = value == null ? "null" : value;
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = ids.size();
+            ids.put(key, id);
+            writeByte(RECORD_DEFINE);
+            writeVarInt(id);
+            writeString(key);
+        }
+        return id;
+    }
+
+    private void writeArg(Object arg) {
+        if (arg == null) {
+            writeByte(ARG_NULL);
+        } else if (arg instanceof Integer) {
+            writeByte(ARG_INT);
+            writeVarLong(zigzag((Integer) arg));
+        } else if (arg instanceof Long) {
+            writeByte(ARG_LONG);
+            writeVarLong(zigzag((Long) arg));
+        } else if (arg instanceof Float) {
+            writeByte(ARG_FLOAT);
+            writeInt(Float.floatToIntBits((Float) arg));
+        } else if (arg instanceof Double) {
+            writeByte(ARG_DOUBLE);
+            writeLong(Double.doubleToLongBits((Double) arg));
+        } else if (arg instanceof Boolean) {
+            writeByte((Boolean) arg ? ARG_TRUE : ARG_FALSE);
+        } else if (arg instanceof Character) {
+            writeByte(ARG_CHAR);
+            writeVarInt((Character) arg);
+        } else if (arg instanceof Byte) {
+            writeByte(ARG_BYTE);
+            writeByte((Byte) arg);
+        } else if (arg instanceof Short) {
+            writeByte(ARG_SHORT);
+            writeVarLong(zigzag((Short) arg));
+        } else {
+            writeByte(ARG_STRING);
+            writeString(String.valueOf(arg));
+        }
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(FileUtils.UTF8);
+        writeVarInt(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeByte(int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensure(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void ensure(int count) {
+        if (length + count > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
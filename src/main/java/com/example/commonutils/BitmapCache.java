@@ -0,0 +1,584 @@
+package com.example.commonutils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decoded and transformed images, e.g. a page loaded at thumbnail size, rotated and turned grey,
+ * keyed by their source file, as identified by path, length and mtime, and the transform chain
+ * applied to it.
+ * <p>
+ * Results live in an in-memory {@link LruCache} sized in bytes and are also written encoded to
+ * a disk directory within a byte budget, least recently used files deleted first, so a result
+ * evicted from memory or lost with the process is decoded again instead of recomputed.
+ * Concurrent requests for the same key share a single load. Cached bitmaps may be on screen and
+ * must not be recycled or modified by callers.
+ */
+public class BitmapCache {
+    private static final String TAG = BitmapCache.class.getSimpleName();
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+
+    private static final String DISK_SUFFIX = ".bmc";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * One step of a transform chain.
+     */
+    public interface Transform {
+        /**
+         * @return identifies the transform and its parameters within cache keys
+         */
+        String getKey();
+
+        /**
+         * @return the transformed bitmap, allocated from pool if not null; bitmap itself if
+         * transformed in place
+         */
+        Bitmap apply(Bitmap bitmap, BitmapPool pool);
+    }
+
+    /**
+     * Receives the result on the thread that loaded it, null if it could not be loaded.
+     */
+    public interface Callback {
+        void onBitmap(Request request, Bitmap bitmap);
+    }
+
+    /**
+     * An image file, loaded at a size and transformed.
+     */
+    public static class Request {
+        private final String path;
+        private int reqWidth = 0;
+        private int reqHeight = 0;
+        private final List<Transform> transforms = new ArrayList<>();
+
+        public Request(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Loads the image subsampled for this size, see
+         * {@link BitmapUtil#loadBitmap(String, int, int)}; the default 0 loads it whole.
+         */
+        public Request resize(int reqWidth, int reqHeight) {
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            return this;
+        }
+
+        public Request transform(Transform transform) {
+            transforms.add(transform);
+            return this;
+        }
+
+        public Request rotate(int degrees) {
+            return transform(BitmapCache.rotate(degrees));
+        }
+
+        public Request blackWhite() {
+            return transform(BitmapCache.blackWhite());
+        }
+
+        public Request convert(Bitmap.Config config) {
+            return transform(BitmapCache.convert(config));
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the cache key, which changes with the source file's length and mtime
+         */
+        public String getKey() {
+            File file = new File(path);
+            StringBuilder key = new StringBuilder(path)
+                    .append('|').append(file.length())
+                    .append('|').append(file.lastModified())
+                    .append('|').append(reqWidth).append('x').append(reqHeight);
+            for (Transform transform : transforms) {
+                key.append('|').append(transform.getKey());
+            }
+            return key.toString();
+        }
+    }
+
+    private final LruCache<String, Bitmap> memory;
+    private final File diskDir;
+    private final long maxDiskSize;
+    // disk file name to its length, least recently used first; null until first read
+    private LinkedHashMap<String, Long> diskEntries;
+    private long diskSize = 0;
+    private final ConcurrentHashMap<String, Load> loads = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private BitmapPool pool;
+    private Bitmap.CompressFormat diskFormat = Bitmap.CompressFormat.PNG;
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger sourceLoads = new AtomicInteger();
+
+    /**
+     * @param diskDir null to only cache in memory
+     */
+    public BitmapCache(int maxMemoryBytes, File diskDir, long maxDiskBytes) {
+        this(maxMemoryBytes, diskDir, maxDiskBytes, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * @param threadCount images loaded at the same time, each may need a full decoded source
+     */
+    public BitmapCache(int maxMemoryBytes, File diskDir, long maxDiskBytes, int threadCount) {
+        this.memory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        this.diskDir = diskDir;
+        this.maxDiskSize = maxDiskBytes;
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sources and intermediate results of transform chains are allocated from and returned to
+     * pool, and disk entries decoded into its bitmaps.
+     */
+    public BitmapCache setBitmapPool(BitmapPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @param format PNG by default, lossless and so the same result as a fresh load
+     */
+    public BitmapCache setDiskFormat(Bitmap.CompressFormat format) {
+        this.diskFormat = format;
+        return this;
+    }
+
+    /**
+     * @return the result if it is in memory, without touching the disk
+     */
+    public Bitmap getFromMemory(Request request) {
+        return memory.get(request.getKey());
+    }
+
+    /**
+     * Loads the result on the calling thread, or waits for a load of it already running.
+     *
+     * @return null if it could not be loaded
+     */
+    public Bitmap get(Request request) {
+        String key = request.getKey();
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        Load load = new Load(request, key);
+        Load running = loads.putIfAbsent(key, load);
+        if (running == null) {
+            load.run();
+        } else {
+            load = running;
+        }
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the result on a thread of the cache, joining a load of it already running. A result
+     * in memory is passed to callback right away on the calling thread.
+     *
+     * @param callback may be null
+     * @return the load, shared with the other requests of the same key so cancelling it cancels
+     * theirs too
+     */
+    public Future<Bitmap> getAsync(Request request, Callback callback) {
+        String key = request.getKey();
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            if (callback != null) {
+                callback.onBitmap(request, bitmap);
+            }
+            return new Done(bitmap);
+        }
+        Load load = new Load(request, key);
+        Load running = loads.putIfAbsent(key, load);
+        if (running == null) {
+            load.addCallback(request, callback);
+            executor.execute(load);
+            return load;
+        }
+        running.addCallback(request, callback);
+        return running;
+    }
+
+    /**
+     * Drops the results in memory, without recycling them.
+     */
+    public void evictMemory() {
+        memory.evictAll();
+    }
+
+    public synchronized void clearDisk() {
+        if (diskDir == null) {
+            return;
+        }
+        File[] files = diskDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(DISK_SUFFIX) || file.getName().endsWith(TEMP_SUFFIX)) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }
+        diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+        diskSize = 0;
+    }
+
+    public int getMemoryHitCount() {
+        return memory.hitCount();
+    }
+
+    public int getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return results loaded from their source and transformed, i.e. found in neither tier
+     */
+    public int getSourceLoadCount() {
+        return sourceLoads.get();
+    }
+
+    private Bitmap load(Request request, String key) {
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        String diskName = diskDir == null ? null : FileUtils.hexToString(
+                FileHasher.hash(key.getBytes(FileUtils.UTF8), FileHasher.Algorithm.MD5)) + DISK_SUFFIX;
+        if (diskName != null) {
+            bitmap = readDisk(diskName);
+            if (bitmap != null) {
+                diskHits.incrementAndGet();
+                memory.put(key, bitmap);
+                return bitmap;
+            }
+        }
+        bitmap = BitmapUtil.loadBitmap(request.path, request.reqWidth, request.reqHeight, pool);
+        if (bitmap == null) {
+            Log.w(TAG, "cannot decode " + request.path);
+            return null;
+        }
+        sourceLoads.incrementAndGet();
+        for (Transform transform : request.transforms) {
+            Bitmap transformed = transform.apply(bitmap, pool);
+            if (transformed != bitmap) {
+                release(bitmap);
+            }
+            bitmap = transformed;
+        }
+        memory.put(key, bitmap);
+        if (diskName != null) {
+            final Bitmap result = bitmap;
+            final String name = diskName;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeDisk(name, result);
+                }
+            });
+        }
+        return bitmap;
+    }
+
+    private void release(Bitmap bitmap) {
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private Bitmap readDisk(String name) {
+        synchronized (this) {
+            if (getDiskEntries().get(name) == null) {
+                return null;
+            }
+        }
+        File file = new File(diskDir, name);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            // unbuffered, so the image is decoded from right after the config
+            Bitmap.Config config = Bitmap.Config.valueOf(new DataInputStream(in).readUTF());
+            Bitmap bitmap = BitmapUtil.decodeFileDescriptor(in.getFD(), config, pool);
+            if (bitmap != null) {
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+            Log.w(TAG, "cannot decode " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read " + file, e);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "unknown config in " + file, e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        synchronized (this) {
+            removeDiskEntry(name);
+        }
+        return null;
+    }
+
+    private void writeDisk(String name, Bitmap bitmap) {
+        if (bitmap.isRecycled() || bitmap.getConfig() == null) {
+            return;
+        }
+        File temp = new File(diskDir, name + TEMP_SUFFIX);
+        File file = new File(diskDir, name);
+        DataOutputStream out = null;
+        try {
+            diskDir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeUTF(bitmap.getConfig().name());
+            if (!bitmap.compress(diskFormat, 100, out)) {
+                throw new IOException("cannot encode as " + diskFormat);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write " + file, e);
+            FileUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+            return;
+        }
+        synchronized (this) {
+            Map<String, Long> entries = getDiskEntries();
+            Long previous = entries.put(name, file.length());
+            diskSize += file.length() - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (diskSize > maxDiskSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                FileUtils.deleteQuietly(new File(diskDir, eldest.getKey()));
+                diskSize -= eldest.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void removeDiskEntry(String name) {
+        Long length = getDiskEntries().remove(name);
+        if (length != null) {
+            diskSize -= length;
+            FileUtils.deleteQuietly(new File(diskDir, name));
+        }
+    }
+
+    /**
+     * @return the files in the disk directory, read on first use ordered by mtime
+     */
+    private LinkedHashMap<String, Long> getDiskEntries() {
+        if (diskEntries == null) {
+            diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+            diskSize = 0;
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                final Map<File, Long> modified = new LinkedHashMap<>();
+                for (File file : files) {
+                    if (file.getName().endsWith(DISK_SUFFIX)) {
+                        modified.put(file, file.lastModified());
+                    } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+                        // left behind by a process killed while writing
+                        FileUtils.deleteQuietly(file);
+                    }
+                }
+                List<File> sorted = new ArrayList<>(modified.keySet());
+                Collections.sort(sorted, new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        long diff = modified.get(a) - modified.get(b);
+                        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                    }
+                });
+                for (File file : sorted) {
+                    diskEntries.put(file.getName(), file.length());
+                    diskSize += file.length();
+                }
+            }
+        }
+        return diskEntries;
+    }
+
+    public static Transform rotate(final int degrees) {
+        return new Transform() {
+            @Override
+            public String getKey() {
+                return "rotate:" + degrees;
+            }
+
+            @Override
+            public Bitmap apply(Bitmap bitmap, BitmapPool pool) {
+                return PicUtils.rotateBmp(bitmap, degrees, pool);
+            }
+        };
+    }
+
+    public static Transform blackWhite() {
+        return new Transform() {
+            @Override
+            public String getKey() {
+                return "blackWhite";
+            }
+
+            @Override
+            public Bitmap apply(Bitmap bitmap, BitmapPool pool) {
+                return PicUtils.convertToBlackWhite(bitmap, pool);
+            }
+        };
+    }
+
+    public static Transform convert(final Bitmap.Config config) {
+        return new Transform() {
+            @Override
+            public String getKey() {
+                return "convert:" + config;
+            }
+
+            @Override
+            public Bitmap apply(Bitmap bitmap, BitmapPool pool) {
+                return BitmapUtil.convert(bitmap, config, pool);
+            }
+        };
+    }
+
+    /**
+     * A load of one key, run once however many requests wait for it.
+     */
+    private class Load extends FutureTask<Bitmap> {
+        private final String key;
+        // requests of the key waiting for a callback; null once delivered
+        private List<Waiting> callbacks = new ArrayList<>();
+
+        Load(final Request request, final String key) {
+            super(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    return load(request, key);
+                }
+            });
+            this.key = key;
+        }
+
+        void addCallback(Request request, Callback callback) {
+            if (callback == null) {
+                return;
+            }
+            synchronized (this) {
+                if (callbacks != null) {
+                    callbacks.add(new Waiting(request, callback));
+                    return;
+                }
+            }
+            callback.onBitmap(request, result());
+        }
+
+        @Override
+        protected void done() {
+            loads.remove(key, this);
+            List<Waiting> delivering;
+            synchronized (this) {
+                delivering = callbacks;
+                callbacks = null;
+            }
+            Bitmap bitmap = result();
+            for (Waiting waiting : delivering) {
+                waiting.callback.onBitmap(waiting.request, bitmap);
+            }
+        }
+
+        private Bitmap result() {
+            try {
+                return isCancelled() ? null : get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.w(TAG, "failed to load " + key, e.getCause());
+                return null;
+            }
+        }
+    }
+
+    private static class Waiting {
+        final Request request;
+        final Callback callback;
+
+        Waiting(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * The result of a request found in memory.
+     */
+    private static class Done extends FutureTask<Bitmap> {
+        Done(Bitmap bitmap) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, bitmap);
+            run();
+        }
+    }
+}
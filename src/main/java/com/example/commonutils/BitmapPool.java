@@ -0,0 +1,207 @@
+package com.example.commonutils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps bitmaps that are no longer displayed, so decoding and transforming can reuse their memory
+ * instead of allocating new bitmaps and churning the heap.
+ * <p>
+ * Bitmaps are grouped by config. From KitKat on a bitmap is reused for any request that fits in
+ * its allocation and is reconfigured to the requested size, before that only for the same width
+ * and height, matching what {@link android.graphics.BitmapFactory.Options#inBitmap} accepts on
+ * each version. Once the pooled bytes exceed the budget the least recently returned bitmaps are
+ * recycled.
+ */
+public class BitmapPool {
+    // a pooled bitmap is not handed out for a request much smaller than itself
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final boolean reconfigurable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    // per config, bitmaps by allocation size from KitKat on, else by width and height
+    private final Map<Config, TreeMap<Long, ArrayDeque<Bitmap>>> groups = new HashMap<>();
+    // every pooled bitmap, least recently returned first
+    private final LinkedHashMap<Bitmap, Long> lru = new LinkedHashMap<>();
+    private long maxSize;
+    private long size = 0;
+    private int hits = 0;
+    private int misses = 0;
+
+    public BitmapPool(long maxSizeBytes) {
+        this.maxSize = maxSizeBytes;
+    }
+
+    /**
+     * Pools bitmap for reuse, or recycles it if it cannot be reused. The caller must not touch it
+     * afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || lru.containsKey(bitmap)) {
+            return;
+        }
+        long bytes = byteCount(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bytes > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        long key = key(bitmap);
+        TreeMap<Long, ArrayDeque<Bitmap>> group = groups.get(bitmap.getConfig());
+        if (group == null) {
+            group = new TreeMap<>();
+            groups.put(bitmap.getConfig(), group);
+        }
+        ArrayDeque<Bitmap> bitmaps = group.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            group.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        lru.put(bitmap, key);
+        size += bytes;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return a bitmap of exactly this size and config, cleared to transparent, pooled or new
+     */
+    public Bitmap get(int width, int height, Config config) {
+        Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * @return a pooled bitmap of exactly this size and config with its old pixels, null if none fits
+     */
+    public Bitmap getDirty(int width, int height, Config config) {
+        Bitmap bitmap = takeReusable(width, height, config);
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return a pooled bitmap {@link android.graphics.BitmapFactory.Options#inBitmap} can decode
+     * an image of this size and config into, which the decoder reconfigures itself; null if none
+     */
+    public synchronized Bitmap takeReusable(int width, int height, Config config) {
+        TreeMap<Long, ArrayDeque<Bitmap>> group = config == null ? null : groups.get(config);
+        if (group != null) {
+            Long key;
+            if (reconfigurable) {
+                long needed = (long) width * height * bytesPerPixel(config);
+                key = group.ceilingKey(needed);
+                if (key != null && key > needed * MAX_SIZE_MULTIPLE) {
+                    key = null;
+                }
+            } else {
+                key = sizeKey(width, height);
+                if (!group.containsKey(key)) {
+                    key = null;
+                }
+            }
+            if (key != null) {
+                Bitmap bitmap = remove(group, key);
+                hits++;
+                return bitmap;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Recycles pooled bitmaps, least recently returned first, until at most maxSizeBytes remain.
+     */
+    public synchronized void trimToSize(long maxSizeBytes) {
+        Iterator<Map.Entry<Bitmap, Long>> iterator = lru.entrySet().iterator();
+        while (size > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<Bitmap, Long> eldest = iterator.next();
+            Bitmap bitmap = eldest.getKey();
+            TreeMap<Long, ArrayDeque<Bitmap>> group = groups.get(bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = group.get(eldest.getValue());
+            bitmaps.remove(bitmap);
+            if (bitmaps.isEmpty()) {
+                group.remove(eldest.getValue());
+            }
+            iterator.remove();
+            size -= byteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized void setMaxSize(long maxSizeBytes) {
+        this.maxSize = maxSizeBytes;
+        trimToSize(maxSizeBytes);
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    private Bitmap remove(TreeMap<Long, ArrayDeque<Bitmap>> group, Long key) {
+        ArrayDeque<Bitmap> bitmaps = group.get(key);
+        // most recently returned first, its memory is the most likely to be still cached
+        Bitmap bitmap = bitmaps.pollLast();
+        if (bitmaps.isEmpty()) {
+            group.remove(key);
+        }
+        lru.remove(bitmap);
+        size -= byteCount(bitmap);
+        return bitmap;
+    }
+
+    private long key(Bitmap bitmap) {
+        return reconfigurable ? byteCount(bitmap) : sizeKey(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private long byteCount(Bitmap bitmap) {
+        return reconfigurable ? bitmap.getAllocationByteCount() : (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static long sizeKey(int width, int height) {
+        return (long) width << 32 | (height & 0xFFFFFFFFL);
+    }
+
+    static int bytesPerPixel(Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                // RGBA_F16 is only known from API 26 on
+                return "RGBA_F16".equals(config.name()) ? 8 : 4;
+        }
+    }
+}
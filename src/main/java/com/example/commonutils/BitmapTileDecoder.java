@@ -0,0 +1,131 @@
+package com.example.commonutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decodes regions of a jpeg or png image, e.g. the tiles of a page scan too large to decode as a
+ * whole, without decoding the rest of it.
+ * <p>
+ * The image is opened once and every region is read from the same {@link BitmapRegionDecoder},
+ * which is safe to use from several threads though they decode one at a time. Regions are
+ * subsampled like {@link BitmapUtil#loadBitmap(String, int, int)} and a jpeg is decoded as
+ * RGB_565.
+ */
+public class BitmapTileDecoder implements Closeable {
+    private final BitmapRegionDecoder decoder;
+    private final Bitmap.Config config;
+
+    private BitmapTileDecoder(BitmapRegionDecoder decoder, Bitmap.Config config) {
+        this.decoder = decoder;
+        this.config = config;
+    }
+
+    /**
+     * @throws IOException if the image cannot be read or its format does not support regions
+     */
+    public static BitmapTileDecoder open(String path) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, bounds);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+        if (decoder == null) {
+            throw new IOException("cannot decode regions of " + path);
+        }
+        return new BitmapTileDecoder(decoder, BitmapUtil.preferredConfig(bounds.outMimeType));
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @param region in image pixels, clipped to the image
+     * @param pool   the region is decoded into a bitmap of, from KitKat on; null to allocate it
+     * @return the region, at least reqWidth x reqHeight unless it is smaller; null if it is
+     * outside of the image or cannot be decoded
+     */
+    public Bitmap decodeRegion(Rect region, int reqWidth, int reqHeight, BitmapPool pool) {
+        Rect clipped = new Rect(Math.max(0, region.left), Math.max(0, region.top),
+                Math.min(getWidth(), region.right), Math.min(getHeight(), region.bottom));
+        if (clipped.width() <= 0 || clipped.height() <= 0) {
+            return null;
+        }
+        return decode(clipped, BitmapUtil.calculateInSampleSize(clipped.width(), clipped.height(), reqWidth, reqHeight),
+                pool);
+    }
+
+    /**
+     * Decodes the tile at column and row of a grid of tileSize squares laid over the image, the
+     * last ones cut to the image.
+     *
+     * @param sampleSize power of two the tile is subsampled by, the same for every tile of a
+     *                   zoom level so that they line up
+     */
+    public Bitmap decodeTile(int column, int row, int tileSize, int sampleSize, BitmapPool pool) {
+        Rect tile = new Rect(column * tileSize, row * tileSize,
+                Math.min(getWidth(), (column + 1) * tileSize), Math.min(getHeight(), (row + 1) * tileSize));
+        if (tile.width() <= 0 || tile.height() <= 0) {
+            return null;
+        }
+        return decode(tile, sampleSize, pool);
+    }
+
+    /**
+     * @return tiles needed across the image for tileSize
+     */
+    public int getColumnCount(int tileSize) {
+        return (getWidth() + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @return tiles needed down the image for tileSize
+     */
+    public int getRowCount(int tileSize) {
+        return (getHeight() + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public void close() {
+        decoder.recycle();
+    }
+
+    private Bitmap decode(Rect region, int sampleSize, BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        options.inSampleSize = Math.max(1, sampleSize);
+        Bitmap reusable = null;
+        if (pool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // sized to match first, the region decoder draws into inBitmap as it is
+            int width = (region.width() + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (region.height() + options.inSampleSize - 1) / options.inSampleSize;
+            reusable = pool.getDirty(width, height, config);
+            options.inBitmap = reusable;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            bitmap = decoder.decodeRegion(region, options);
+        }
+        if (reusable != null && bitmap != reusable) {
+            pool.put(reusable);
+        }
+        return bitmap;
+    }
+}
@@ -7,16 +7,21 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.MemoryFile;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class BitmapUtil {
     private static final String TAG = "BitmapUtil";
@@ -81,25 +86,57 @@ public class BitmapUtil {
     }
 
     public static Bitmap createBitmap(byte[] pixelsInByte, int width, int height) {
-        Bitmap bmp = Bitmap.createBitmap(width, height, Config.RGB_565);
+        return createBitmap(pixelsInByte, width, height, null);
+    }
+
+    /**
+     * @param pool the RGB_565 bitmap is taken from, null to allocate it
+     */
+    public static Bitmap createBitmap(byte[] pixelsInByte, int width, int height, BitmapPool pool) {
+        return createBitmap(pixelsInByte, obtain(pool, width, height, Config.RGB_565));
+    }
+
+    /**
+     * Copies the pixels into destination, in its config and as many as it holds.
+     *
+     * @return destination
+     */
+    public static Bitmap createBitmap(byte[] pixelsInByte, Bitmap destination) {
         ByteBuffer byte_buf = ByteBuffer.wrap(pixelsInByte);
-        bmp.copyPixelsFromBuffer(byte_buf);
+        destination.copyPixelsFromBuffer(byte_buf);
 
-        return bmp;
+        return destination;
     }
 
     public static Bitmap convert(Bitmap bitmap, Config config) {
+        return convert(bitmap, config, null);
+    }
+
+    /**
+     * @param pool the converted bitmap is taken from, null to allocate it
+     */
+    public static Bitmap convert(Bitmap bitmap, Config config, BitmapPool pool) {
+        return convert(bitmap, obtain(pool, bitmap.getWidth(), bitmap.getHeight(), config));
+    }
+
+    /**
+     * Draws bitmap into destination, which is cleared first, converting it to the destination's
+     * config.
+     *
+     * @return destination
+     */
+    public static Bitmap convert(Bitmap bitmap, Bitmap destination) {
         try {
             ProfileUtil.start(TAG, "convert");
-            Bitmap converted = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), config);
+            destination.eraseColor(Color.TRANSPARENT);
 
-            Canvas canvas = new Canvas(converted);
+            Canvas canvas = new Canvas(destination);
             Paint paint = new Paint();
             canvas.drawBitmap(bitmap, 0, 0, paint);
 
-            return converted;
+            return destination;
         } finally {
-            ProfileUtil.start(TAG, "convert");
+            ProfileUtil.end(TAG, "convert");
         }
     }
 
@@ -140,9 +177,19 @@ public class BitmapUtil {
     }
 
     public static Bitmap decompressMemoryFile(ParcelFileDescriptor fd) {
+        return decompressMemoryFile(fd, null);
+    }
+
+    /**
+     * @param pool the image is decoded into a bitmap of, if one fits; null to allocate it
+     */
+    public static Bitmap decompressMemoryFile(ParcelFileDescriptor fd, BitmapPool pool) {
         try {
             ProfileUtil.start(TAG, "decompressMemoryFile");
-            return BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor());
+            return decode(new FileDescriptorDecoder(fd.getFileDescriptor()), Config.ARGB_8888, pool);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception", e);
+            return null;
         } finally {
             ProfileUtil.end(TAG, "decompressMemoryFile");
         }
@@ -191,6 +238,13 @@ public class BitmapUtil {
     }
 
     public static Bitmap readLosslessMemoryFile(ParcelFileDescriptor fd) {
+        return readLosslessMemoryFile(fd, null);
+    }
+
+    /**
+     * @param pool the bitmap is taken from, null to allocate it
+     */
+    public static Bitmap readLosslessMemoryFile(ParcelFileDescriptor fd, BitmapPool pool) {
         FileInputStream fis = null;
         try {
             ProfileUtil.start(TAG, "readLosslessMemoryFile");
@@ -210,7 +264,7 @@ public class BitmapUtil {
             n = fis.read(data);
             Log.d(TAG, "data length: " + n);
 
-            return BitmapUtil.createBitmap(data, width, height);
+            return BitmapUtil.createBitmap(data, width, height, pool);
         } catch (IOException e) {
             Log.e(TAG, "Exception", e);
         } finally {
@@ -229,9 +283,206 @@ public class BitmapUtil {
 
 
     public static Bitmap loadBitmap(final String path) {
+        return loadBitmap(path, null);
+    }
+
+    /**
+     * @param pool the image is decoded into a bitmap of, if one fits; null to allocate it
+     */
+    public static Bitmap loadBitmap(final String path, BitmapPool pool) {
+        try {
+            return decode(new FileDecoder(path), Config.ARGB_8888, pool);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception", e);
+            return null;
+        }
+    }
+
+    public static Bitmap loadBitmap(String path, int reqWidth, int reqHeight) {
+        return loadBitmap(path, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * Decodes the image no larger than needed to show it at reqWidth x reqHeight: only the header
+     * is read first, then the image is subsampled by {@link #calculateInSampleSize} while
+     * decoding, and a jpeg, which has no alpha, is decoded as RGB_565. A 4000px scan shown at
+     * 1000px takes 1/16 of the memory, and 1/32 as a jpeg.
+     *
+     * @param pool the image is decoded into a bitmap of, if one fits; null to allocate it
+     * @return the image, at least reqWidth x reqHeight unless it is smaller; null if it cannot be
+     * decoded
+     */
+    public static Bitmap loadBitmap(String path, int reqWidth, int reqHeight, BitmapPool pool) {
+        try {
+            Decoder decoder = new FileDecoder(path);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (!decodeBounds(decoder, options)) {
+                return null;
+            }
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+            options.inPreferredConfig = preferredConfig(options.outMimeType);
+            return decodeReusing(decoder, options, pool);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception", e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes only part of the image, e.g. a crop or a tile of a page scan too large to decode as
+     * a whole, subsampled for reqWidth x reqHeight like {@link #loadBitmap(String, int, int)}.
+     * To decode several regions of the same image, open a {@link BitmapTileDecoder} once instead.
+     *
+     * @param region in image pixels, clipped to the image
+     */
+    public static Bitmap loadBitmapRegion(String path, Rect region, int reqWidth, int reqHeight, BitmapPool pool) {
+        BitmapTileDecoder decoder = null;
+        try {
+            decoder = BitmapTileDecoder.open(path);
+            return decoder.decodeRegion(region, reqWidth, reqHeight, pool);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception", e);
+            return null;
+        } finally {
+            FileUtils.closeQuietly(decoder);
+        }
+    }
+
+    /**
+     * @return the largest power of two keeping a width x height image subsampled by it at least
+     * reqWidth x reqHeight, 1 if either requested size is 0 or less
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * @return RGB_565 for formats without alpha, which halves the memory, else ARGB_8888
+     */
+    static Config preferredConfig(String mimeType) {
+        return "image/jpeg".equals(mimeType) ? Config.RGB_565 : Config.ARGB_8888;
+    }
+
+    /**
+     * Decodes the image starting at the descriptor's position in config, into a pooled bitmap
+     * if one fits.
+     */
+    static Bitmap decodeFileDescriptor(FileDescriptor fd, Config config, BitmapPool pool) throws IOException {
+        return decode(new FileDescriptorDecoder(fd), config, pool);
+    }
+
+    /**
+     * @return a bitmap of this size and config with undefined pixels, from pool if it has one
+     */
+    static Bitmap obtain(BitmapPool pool, int width, int height, Config config) {
+        Bitmap bitmap = pool == null ? null : pool.getDirty(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Decodes the whole image in config, into a pooled bitmap if pool has one the decoder accepts
+     * as {@link BitmapFactory.Options#inBitmap}. That needs the size first, so the source is
+     * decoded once more with {@link BitmapFactory.Options#inJustDecodeBounds}, which only reads
+     * the header.
+     */
+    private static Bitmap decode(Decoder decoder, Config config, BitmapPool pool) throws IOException {
         BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inPreferredConfig = Config.ARGB_8888;
-        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        options.inPreferredConfig = config;
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return decoder.decode(options);
+        }
+        if (!decodeBounds(decoder, options)) {
+            return null;
+        }
+        return decodeReusing(decoder, options, pool);
+    }
+
+    /**
+     * Reads the size and mime type of the image into options.
+     *
+     * @return false if it is not an image
+     */
+    private static boolean decodeBounds(Decoder decoder, BitmapFactory.Options options) throws IOException {
+        options.inJustDecodeBounds = true;
+        decoder.decode(options);
+        options.inJustDecodeBounds = false;
+        return options.outWidth > 0 && options.outHeight > 0;
+    }
+
+    /**
+     * Decodes with options holding the bounds, config and sample size, into a pooled bitmap if
+     * the decoder accepts one: from KitKat on any large enough, before that only one of the same
+     * size and without subsampling.
+     */
+    private static Bitmap decodeReusing(Decoder decoder, BitmapFactory.Options options, BitmapPool pool)
+            throws IOException {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        Bitmap reusable = null;
+        if (pool != null && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                || Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && sampleSize == 1)) {
+            options.inMutable = true;
+            // rounded up, some decoders do
+            reusable = pool.takeReusable((options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+            options.inBitmap = reusable;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decode(options);
+        } catch (IllegalArgumentException e) {
+            // a format the decoder cannot reuse for, e.g. gif before KitKat
+            options.inBitmap = null;
+            bitmap = decoder.decode(options);
+        }
+        if (reusable != null && bitmap != reusable) {
+            pool.put(reusable);
+        }
         return bitmap;
     }
+
+    private interface Decoder {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    private static class FileDecoder implements Decoder {
+        private final String path;
+
+        FileDecoder(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * Decodes from where the descriptor is positioned on creation, every time.
+     */
+    private static class FileDescriptorDecoder implements Decoder {
+        private final FileDescriptor fd;
+        // not closed, that would close fd
+        private final FileChannel channel;
+        private final long start;
+
+        FileDescriptorDecoder(FileDescriptor fd) throws IOException {
+            this.fd = fd;
+            this.channel = new FileInputStream(fd).getChannel();
+            this.start = channel.position();
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) throws IOException {
+            channel.position(start);
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package com.example.commonutils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers in power of two size classes, for channel I/O that would
+ * otherwise allocate a fresh buffer per call.
+ * <p>
+ * Buffers are handed out cleared with their limit set to the requested size and must be given
+ * back with {@link #release(ByteBuffer)} once the caller is done with them.
+ */
+public class ByteBufferPool {
+    private static final int MIN_SIZE_SHIFT = 12; // 4 KB
+    private static final int MAX_SIZE_SHIFT = 26; // 64 MB
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+
+    private static final ByteBufferPool sDefault = new ByteBufferPool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] sizeClasses;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final long maxRetainedBytes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ByteBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        sizeClasses = new ConcurrentLinkedQueue[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public static ByteBufferPool getDefault() {
+        return sDefault;
+    }
+
+    public ByteBuffer acquire(int size) {
+        int index = sizeClassIndex(size);
+        if (index < 0) {
+            // too large to be worth keeping around
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = sizeClasses[index].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << (index + MIN_SIZE_SHIFT));
+        } else {
+            retainedBytes.addAndGet(-buffer.capacity());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int index = sizeClassIndex(capacity);
+        if (index < 0 || (1 << (index + MIN_SIZE_SHIFT)) != capacity) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        sizeClasses[index].offer(buffer);
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    private static int sizeClassIndex(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        shift = Math.max(shift, MIN_SIZE_SHIFT);
+        if (shift > MAX_SIZE_SHIFT) {
+            return -1;
+        }
+        return shift - MIN_SIZE_SHIFT;
+    }
+}
@@ -0,0 +1,367 @@
+package com.example.commonutils;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checksums keyed by (path, length, lastModified), so a file that did not change is not read
+ * again to compute its digest.
+ * <p>
+ * Recently used checksums live in an in-memory LRU. Every computed checksum is also appended to
+ * a log file, of which only the record offsets are kept in memory; the log is rewritten without
+ * its stale records once they outnumber the live ones. An entry whose file length or mtime no
+ * longer matches is dropped on lookup and the checksum recomputed.
+ * <p>
+ * A cache installed with {@link #setDefault(ChecksumCache)} is used by
+ * {@link FileUtils#computeFullMD5Checksum(File)}.
+ */
+public class ChecksumCache implements Closeable {
+    private static final String TAG = ChecksumCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x4353554D; // CSUM
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int DEFAULT_MEMORY_ENTRIES = 512;
+    private static final int MIN_DEAD_RECORDS_TO_COMPACT = 256;
+
+    private static volatile ChecksumCache sDefault;
+
+    private static class Record {
+        final FileHasher.Algorithm algorithm;
+        final String path;
+        final long length;
+        final long lastModified;
+        final String checksum;
+
+        Record(FileHasher.Algorithm algorithm, String path, long length, long lastModified, String checksum) {
+            this.algorithm = algorithm;
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        boolean matches(long length, long lastModified) {
+            return this.length == length && this.lastModified == lastModified;
+        }
+    }
+
+    private final File logFile;
+    private final LruCache<String, Record> memory;
+    private final Map<String, Long> offsets = new HashMap<>();
+    private RandomAccessFile log;
+    private int deadRecords = 0;
+
+    private long memoryHits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    public ChecksumCache(File logFile) {
+        this(logFile, DEFAULT_MEMORY_ENTRIES);
+    }
+
+    public ChecksumCache(File logFile, int memoryEntries) {
+        this.logFile = logFile;
+        this.memory = new LruCache<>(memoryEntries);
+    }
+
+    public static void setDefault(ChecksumCache cache) {
+        sDefault = cache;
+    }
+
+    public static ChecksumCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Reads the record offsets of the log. Must be called before the disk tier is used.
+     */
+    public synchronized void open() throws IOException {
+        offsets.clear();
+        deadRecords = 0;
+        if (logFile.exists()) {
+            scanLog();
+        }
+        log = new RandomAccessFile(logFile, "rw");
+        if (log.length() < HEADER_SIZE) {
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            log.writeInt(VERSION);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        FileUtils.closeQuietly(log);
+        log = null;
+    }
+
+    /**
+     * @return the checksum of file, computed only if no valid entry is cached
+     */
+    public String getChecksum(File file, FileHasher.Algorithm algorithm) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        String cached = lookup(algorithm, path, length, lastModified);
+        if (cached != null) {
+            return cached;
+        }
+        String checksum = FileHasher.hashToString(file, algorithm);
+        if (file.length() == length && file.lastModified() == lastModified) {
+            // only remember it when the file did not change while being read
+            store(new Record(algorithm, path, length, lastModified, checksum));
+        }
+        return checksum;
+    }
+
+    public synchronized void invalidate(File file) {
+        String path = file.getAbsolutePath();
+        for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+            String key = key(algorithm, path);
+            memory.remove(key);
+            if (offsets.remove(key) != null) {
+                deadRecords++;
+            }
+        }
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int getDiskEntryCount() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{memoryHits=" + memoryHits + ", diskHits=" + diskHits + ", misses=" + misses
+                + ", invalidations=" + invalidations + ", diskEntries=" + offsets.size() + "}";
+    }
+
+    private synchronized String lookup(FileHasher.Algorithm algorithm, String path, long length, long lastModified) {
+        String key = key(algorithm, path);
+        Record record = memory.get(key);
+        if (record != null) {
+            if (record.matches(length, lastModified)) {
+                memoryHits++;
+                return record.checksum;
+            }
+            memory.remove(key);
+        }
+        Long offset = offsets.get(key);
+        if (offset != null) {
+            record = readRecord(offset);
+            if (record != null && record.matches(length, lastModified)) {
+                diskHits++;
+                memory.put(key, record);
+                return record.checksum;
+            }
+            offsets.remove(key);
+            deadRecords++;
+        }
+        if (record != null) {
+            invalidations++;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void store(Record record) {
+        String key = key(record.algorithm, record.path);
+        memory.put(key, record);
+        if (log == null) {
+            return;
+        }
+        try {
+            long offset = log.length();
+            log.seek(offset);
+            log.write(encode(record));
+            if (offsets.put(key, offset) != null) {
+                deadRecords++;
+            }
+            if (deadRecords >= MIN_DEAD_RECORDS_TO_COMPACT && deadRecords > offsets.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to append checksum", e);
+        }
+    }
+
+    private Record readRecord(long offset) {
+        if (log == null) {
+            return null;
+        }
+        try {
+            log.seek(offset);
+            int size = log.readInt();
+            if (size < 0 || size > log.length() - offset - 4) {
+                throw new IOException("bad record size " + size + " at " + offset);
+            }
+            byte[] payload = new byte[size];
+            log.readFully(payload);
+            return decode(payload);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read checksum record", e);
+            return null;
+        }
+    }
+
+    private void scanLog() throws IOException {
+        long length = logFile.length();
+        long offset = HEADER_SIZE;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    Log.w(TAG, "discard incompatible checksum log: " + logFile);
+                    FileUtils.deleteQuietly(logFile);
+                    return;
+                }
+            } catch (EOFException e) {
+                // shorter than the header, rewritten by open()
+                return;
+            }
+            while (offset < length) {
+                int size = in.readInt();
+                if (size < 0 || size > length - offset - 4) {
+                    Log.w(TAG, "bad checksum record size " + size + " at " + offset);
+                    break;
+                }
+                byte[] payload = new byte[size];
+                in.readFully(payload);
+                Record record;
+                try {
+                    record = decode(payload);
+                } catch (IOException e) {
+                    Log.w(TAG, "corrupt checksum record at " + offset, e);
+                    break;
+                }
+                if (offsets.put(key(record.algorithm, record.path), offset) != null) {
+                    deadRecords++;
+                }
+                offset += 4 + size;
+            }
+        } catch (EOFException e) {
+            // the size of the last record was cut short
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        // a record cut short by a crash, or garbage, is dropped along with anything after it
+        if (offset < length) {
+            truncate(offset);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(logFile.getPath() + ".tmp");
+        Map<String, Long> compacted = new HashMap<>();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long offset = HEADER_SIZE;
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                Record record = readRecord(entry.getValue());
+                if (record == null) {
+                    continue;
+                }
+                byte[] bytes = encode(record);
+                out.write(bytes);
+                compacted.put(entry.getKey(), offset);
+                offset += bytes.length;
+            }
+        } finally {
+            out.close();
+        }
+        log.close();
+        log = null;
+        if (!temp.renameTo(logFile)) {
+            Log.w(TAG, "failed to replace checksum log: " + logFile);
+            FileUtils.deleteQuietly(temp);
+            open();
+            return;
+        }
+        log = new RandomAccessFile(logFile, "rw");
+        offsets.clear();
+        offsets.putAll(compacted);
+        deadRecords = 0;
+    }
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(record.algorithm.ordinal());
+        out.writeUTF(record.path);
+        out.writeLong(record.length);
+        out.writeLong(record.lastModified);
+        out.writeUTF(record.checksum);
+        out.close();
+        byte[] result = bytes.toByteArray();
+        int size = result.length - 4;
+        result[0] = (byte) (size >>> 24);
+        result[1] = (byte) (size >>> 16);
+        result[2] = (byte) (size >>> 8);
+        result[3] = (byte) size;
+        return result;
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int ordinal = in.readUnsignedByte();
+        FileHasher.Algorithm[] algorithms = FileHasher.Algorithm.values();
+        if (ordinal >= algorithms.length) {
+            throw new IOException("unknown algorithm " + ordinal);
+        }
+        FileHasher.Algorithm algorithm = algorithms[ordinal];
+        String path = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        String checksum = in.readUTF();
+        return new Record(algorithm, path, length, lastModified, checksum);
+    }
+
+    private static String key(FileHasher.Algorithm algorithm, String path) {
+        return algorithm.ordinal() + ":" + path;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zip entry source that runs a shell command and streams its stdout and stderr.
+ * <p>
+ * A shared watchdog destroys the process once it runs longer than the timeout, which ends the
+ * stream with a note instead of an error. A command that cannot be started yields the reason as
+ * its content.
+ */
+public class CommandSource implements ParallelZipCompressor.Source {
+    private static final String TAG = CommandSource.class.getSimpleName();
+
+    private final String name;
+    private final String command;
+    private final long timeout;
+
+    /**
+     * @param timeoutMillis 0 or less to wait for the command however long it runs
+     */
+    public CommandSource(String name, String command, long timeoutMillis) {
+        this.name = name;
+        this.command = command;
+        this.timeout = timeoutMillis;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public long getLastModified() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        Process process;
+        try {
+            // exec so that destroying the shell kills the command itself
+            process = new ProcessBuilder(ShellUtils.COMMAND_SH, "-c", "exec " + command)
+                    .redirectErrorStream(true)
+                    .start();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to start: " + command, e);
+            return new ByteArrayInputStream(("failed to start: " + e + "\n").getBytes(FileUtils.UTF8));
+        }
+        return new CommandOutputStream(process);
+    }
+
+    class CommandOutputStream extends FilterInputStream {
+        private final Process process;
+        private final ScheduledFuture<?> timeoutFuture;
+        private volatile boolean timedOut = false;
+        private InputStream trailer;
+
+        CommandOutputStream(final Process process) {
+            super(process.getInputStream());
+            this.process = process;
+            FileUtils.closeQuietly(process.getOutputStream());
+            if (timeout > 0) {
+                timeoutFuture = ShellCommand.getWatchdog().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timedOut = true;
+                        process.destroy();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            } else {
+                timeoutFuture = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (trailer != null) {
+                return trailer.read(buffer, offset, length);
+            }
+            int read;
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                if (!timedOut) {
+                    throw e;
+                }
+                read = -1;
+            }
+            if (read < 0 && timedOut) {
+                Log.w(TAG, "timed out: " + command);
+                trailer = new ByteArrayInputStream(("\n[killed after " + timeout + " ms]\n").getBytes(FileUtils.UTF8));
+                return trailer.read(buffer, offset, length);
+            }
+            return read;
+        }
+
+        /**
+         * @return whether the watchdog killed the command, valid once the stream ended
+         */
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            process.destroy();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.commonutils;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * A compression format that can be framed by {@link CompressionCodecs}, which prefixes the
+ * payload with {@link #getId()} so the matching codec is found again on decompression.
+ */
+public interface CompressionCodec {
+    byte getId();
+
+    byte[] compress(byte[] data, int offset, int length);
+
+    /**
+     * @throws DataFormatException if data is corrupt or truncated
+     */
+    byte[] decompress(byte[] data, int offset, int length) throws DataFormatException;
+}
@@ -0,0 +1,63 @@
+package com.example.commonutils;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Registry of {@link CompressionCodec}s and the one byte framing that lets
+ * {@link #decompress(byte[])} pick the codec a payload was compressed with.
+ */
+public class CompressionCodecs {
+    public static final byte ID_DEFLATE = 1;
+    public static final byte ID_RAW_DEFLATE = 2;
+    public static final byte ID_GZIP = 3;
+    public static final byte ID_LZ4 = 4;
+    public static final byte ID_DICTIONARY_DEFLATE = 5;
+
+    private static final CompressionCodec[] sCodecs = new CompressionCodec[256];
+
+    static {
+        register(new DeflateCodec());
+        register(new DeflateCodec(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, true));
+        register(new GzipCodec());
+        register(new Lz4Codec());
+        register(DictionaryDeflateCodec.getDecoder());
+    }
+
+    /**
+     * Makes codec the decoder for payloads framed with its id.
+     */
+    public static synchronized void register(CompressionCodec codec) {
+        sCodecs[codec.getId() & 0xFF] = codec;
+    }
+
+    public static synchronized CompressionCodec get(byte id) {
+        return sCodecs[id & 0xFF];
+    }
+
+    /**
+     * @return the codec id followed by the compressed data
+     */
+    public static byte[] compress(byte[] data, CompressionCodec codec) {
+        byte[] body = codec.compress(data, 0, data.length);
+        byte[] framed = new byte[body.length + 1];
+        framed[0] = codec.getId();
+        System.arraycopy(body, 0, framed, 1, body.length);
+        return framed;
+    }
+
+    /**
+     * Decompresses a payload produced by {@link #compress(byte[], CompressionCodec)}, with the
+     * codec named by its first byte.
+     */
+    public static byte[] decompress(byte[] framed) throws DataFormatException {
+        if (framed == null || framed.length == 0) {
+            throw new DataFormatException("missing codec header");
+        }
+        CompressionCodec codec = get(framed[0]);
+        if (codec == null) {
+            throw new DataFormatException("unknown codec " + (framed[0] & 0xFF));
+        }
+        return codec.decompress(framed, 1, framed.length - 1);
+    }
+}
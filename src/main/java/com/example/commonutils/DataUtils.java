@@ -1,51 +1,62 @@
 package com.example.commonutils;
 
-import java.io.ByteArrayOutputStream;
+import android.util.Log;
+
 import java.util.Random;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 public class DataUtils {
+    private static final String TAG = DataUtils.class.getSimpleName();
+
     static public final String UTF8_TAG = "utf-8";
 
+    private static final DeflateCodec sBestCompressionCodec = new DeflateCodec(Deflater.BEST_COMPRESSION);
+    private static final DeflateCodec sDefaultCodec = new DeflateCodec();
+
     public static byte[] compress(final byte[] data) {
-        ByteArrayOutputStream baos = null;
-        Deflater dfl = new Deflater();
-        dfl.setLevel(Deflater.BEST_COMPRESSION);
-        dfl.setInput(data);
-        dfl.finish();
-        baos = new ByteArrayOutputStream();
-        byte[] tmp = new byte[4 * 1024];
+        return sBestCompressionCodec.compress(data);
+    }
+
+    /**
+     * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 - 9
+     */
+    public static byte[] compress(final byte[] data, int level) {
+        return new DeflateCodec(level).compress(data);
+    }
+
+    /**
+     * Compresses data with codec, prefixed by the codec id for {@link #decompressAny(byte[])}.
+     */
+    public static byte[] compress(final byte[] data, CompressionCodec codec) {
+        return CompressionCodecs.compress(data, codec);
+    }
+
+    /**
+     * Decompresses data produced by {@link #compress(byte[], CompressionCodec)} with whichever
+     * codec it names.
+     *
+     * @return null if data is corrupt, truncated or of an unknown codec
+     */
+    public static byte[] decompressAny(final byte[] data) {
         try {
-            while (!dfl.finished()) {
-                int size = dfl.deflate(tmp);
-                baos.write(tmp, 0, size);
-            }
-        } catch (Exception ex) {
-
-        } finally {
-            FileUtils.closeQuietly(baos);
+            return CompressionCodecs.decompress(data);
+        } catch (DataFormatException e) {
+            Log.w(TAG, "decompress failed", e);
+            return null;
         }
-        return baos.toByteArray();
     }
 
+    /**
+     * @return null if data is corrupt or truncated
+     */
     public static byte[] decompress(final byte[] data) {
-        ByteArrayOutputStream baos = null;
-        Inflater iflr = new Inflater();
-        iflr.setInput(data);
-        baos = new ByteArrayOutputStream();
-        byte[] tmp = new byte[4 * 1024];
         try {
-            while (!iflr.finished()) {
-                int size = iflr.inflate(tmp);
-                baos.write(tmp, 0, size);
-            }
-        } catch (Exception ex) {
-
-        } finally {
-            FileUtils.closeQuietly(baos);
+            return sDefaultCodec.decompress(data);
+        } catch (DataFormatException e) {
+            Log.w(TAG, "decompress failed", e);
+            return null;
         }
-        return baos.toByteArray();
     }
 
     public static int randInt(int min, int max) {
@@ -0,0 +1,416 @@
+package com.example.commonutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib (or raw deflate with nowrap) codec reusing one Deflater and one Inflater per thread.
+ * <p>
+ * A Deflater/Inflater holds native zlib state that is only freed by end(). Creating one per call
+ * and leaving it to the finalizer leaks that memory under load, so instances are reset and
+ * reused instead. If the pooled instance of a thread is already in use, e.g. by a stream handed
+ * into another call, a temporary one is created and ended right after.
+ * <p>
+ * Truncated or corrupt input fails with a {@link DataFormatException} instead of spinning.
+ */
+public class DeflateCodec implements CompressionCodec {
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private static final ThreadLocal<Pooled> sPooled = new ThreadLocal<Pooled>() {
+        @Override
+        protected Pooled initialValue() {
+            return new Pooled();
+        }
+    };
+
+    private static class Pooled {
+        final Deflater[] deflaters = new Deflater[2];
+        final Inflater[] inflaters = new Inflater[2];
+        final boolean[] deflaterInUse = new boolean[2];
+        final boolean[] inflaterInUse = new boolean[2];
+        final byte[] inputChunk = new byte[CHUNK_SIZE];
+        final byte[] outputChunk = new byte[CHUNK_SIZE];
+        boolean chunksInUse = false;
+    }
+
+    private final int level;
+    private final int strategy;
+    private final boolean nowrap;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false);
+    }
+
+    public DeflateCodec(int level) {
+        this(level, Deflater.DEFAULT_STRATEGY, false);
+    }
+
+    /**
+     * @param level    {@link Deflater#DEFAULT_COMPRESSION} or 0 - 9
+     * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     *                 {@link Deflater#HUFFMAN_ONLY}
+     * @param nowrap   raw deflate without the zlib header and checksum
+     */
+    public DeflateCodec(int level, int strategy, boolean nowrap) {
+        this.level = level;
+        this.strategy = strategy;
+        this.nowrap = nowrap;
+    }
+
+    @Override
+    public byte getId() {
+        return nowrap ? CompressionCodecs.ID_RAW_DEFLATE : CompressionCodecs.ID_DEFLATE;
+    }
+
+    /**
+     * Upper bound of the compressed size of length bytes, as zlib's compressBound().
+     */
+    public static int maxCompressedLength(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    public byte[] compress(byte[] data) {
+        return compress(data, 0, data.length);
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        byte[] output = new byte[maxCompressedLength(length)];
+        Deflater deflater = acquireDeflater();
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                written += deflater.deflate(output, written, output.length - written);
+            }
+            byte[] result = new byte[written];
+            System.arraycopy(output, 0, result, 0, written);
+            return result;
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    public byte[] decompress(byte[] data) throws DataFormatException {
+        return decompress(data, 0, data.length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length * 4));
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && !inflater.finished()) {
+                    checkProgress(inflater);
+                }
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Fast path for a known decompressed size: inflates straight into dest.
+     *
+     * @return number of bytes written into dest
+     * @throws DataFormatException if the data is corrupt or does not fit into dest
+     */
+    public int decompress(byte[] data, int offset, int length, byte[] dest, int destOffset, int destLength)
+            throws DataFormatException {
+        Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(data, offset, length);
+            int written = 0;
+            while (!inflater.finished()) {
+                if (written == destLength) {
+                    finishExhausted(inflater, null, null, destLength);
+                    break;
+                }
+                int read = inflater.inflate(dest, destOffset + written, destLength - written);
+                if (read == 0 && !inflater.finished()) {
+                    checkProgress(inflater);
+                }
+                written += read;
+            }
+            return written;
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Compresses the remaining bytes of src into dst, which should have room for
+     * {@link #maxCompressedLength(int)} bytes.
+     *
+     * @return number of bytes written into dst
+     * @throws BufferOverflowException if dst fills up
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        Pooled pooled = sPooled.get();
+        boolean ownChunks = !pooled.chunksInUse;
+        pooled.chunksInUse = true;
+        byte[] in = ownChunks ? pooled.inputChunk : new byte[CHUNK_SIZE];
+        byte[] out = ownChunks ? pooled.outputChunk : new byte[CHUNK_SIZE];
+        Deflater deflater = acquireDeflater();
+        int start = dst.position();
+        try {
+            while (src.hasRemaining()) {
+                if (src.hasArray()) {
+                    deflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+                    src.position(src.limit());
+                } else {
+                    int length = Math.min(src.remaining(), in.length);
+                    src.get(in, 0, length);
+                    deflater.setInput(in, 0, length);
+                }
+                while (!deflater.needsInput()) {
+                    drain(deflater, out, dst);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(deflater, out, dst);
+            }
+            return dst.position() - start;
+        } finally {
+            releaseDeflater(deflater);
+            if (ownChunks) {
+                pooled.chunksInUse = false;
+            }
+        }
+    }
+
+    /**
+     * Decompresses the remaining bytes of src into dst.
+     *
+     * @return number of bytes written into dst
+     * @throws DataFormatException if the data is corrupt, truncated or does not fit into dst
+     */
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws DataFormatException {
+        Pooled pooled = sPooled.get();
+        boolean ownChunks = !pooled.chunksInUse;
+        pooled.chunksInUse = true;
+        byte[] in = ownChunks ? pooled.inputChunk : new byte[CHUNK_SIZE];
+        byte[] out = ownChunks ? pooled.outputChunk : new byte[CHUNK_SIZE];
+        Inflater inflater = acquireInflater();
+        int start = dst.position();
+        try {
+            while (!inflater.finished()) {
+                if (!dst.hasRemaining()) {
+                    finishExhausted(inflater, src, in, dst.position() - start);
+                    break;
+                }
+                if (inflater.needsInput() && src.hasRemaining()) {
+                    feed(inflater, src, in);
+                }
+                int read;
+                if (dst.hasArray()) {
+                    read = inflater.inflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                    dst.position(dst.position() + read);
+                } else {
+                    read = inflater.inflate(out, 0, Math.min(out.length, dst.remaining()));
+                    dst.put(out, 0, read);
+                }
+                if (read == 0 && !inflater.finished() && dst.hasRemaining() && !src.hasRemaining()) {
+                    checkProgress(inflater);
+                }
+            }
+            // give back input the inflater did not need
+            src.position(src.position() - inflater.getRemaining());
+            return dst.position() - start;
+        } finally {
+            releaseInflater(inflater);
+            if (ownChunks) {
+                pooled.chunksInUse = false;
+            }
+        }
+    }
+
+    /**
+     * @return number of compressed bytes written to out
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException {
+        byte[] input = new byte[CHUNK_SIZE];
+        byte[] output = new byte[CHUNK_SIZE];
+        Deflater deflater = acquireDeflater();
+        try {
+            long written = 0;
+            int read;
+            while ((read = in.read(input)) >= 0) {
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    int length = deflater.deflate(output);
+                    out.write(output, 0, length);
+                    written += length;
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(output);
+                out.write(output, 0, length);
+                written += length;
+            }
+            return written;
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    /**
+     * @return number of decompressed bytes written to out
+     */
+    public long decompress(InputStream in, OutputStream out) throws IOException {
+        byte[] input = new byte[CHUNK_SIZE];
+        byte[] output = new byte[CHUNK_SIZE];
+        Inflater inflater = acquireInflater();
+        try {
+            long written = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    int read = in.read(input);
+                    if (read < 0) {
+                        throw new IOException(new DataFormatException("unexpected end of compressed data"));
+                    }
+                    inflater.setInput(input, 0, read);
+                }
+                int length = inflater.inflate(output);
+                if (length == 0 && inflater.needsDictionary()) {
+                    throw new IOException(new DataFormatException("preset dictionary required"));
+                }
+                out.write(output, 0, length);
+                written += length;
+            }
+            return written;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private static void drain(Deflater deflater, byte[] out, ByteBuffer dst) {
+        int length = deflater.deflate(out);
+        if (length > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        dst.put(out, 0, length);
+    }
+
+    private static void feed(Inflater inflater, ByteBuffer src, byte[] in) {
+        if (src.hasArray()) {
+            inflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        } else {
+            int length = Math.min(src.remaining(), in.length);
+            src.get(in, 0, length);
+            inflater.setInput(in, 0, length);
+        }
+    }
+
+    /**
+     * The destination is full: the rest of the stream, e.g. a trailer in input of src not fed
+     * yet, must end it without producing another byte.
+     *
+     * @param src null if all input was set already
+     */
+    private static void finishExhausted(Inflater inflater, ByteBuffer src, byte[] in, int capacity)
+            throws DataFormatException {
+        byte[] probe = new byte[1];
+        while (!inflater.finished()) {
+            if (inflater.needsInput() && src != null && src.hasRemaining()) {
+                feed(inflater, src, in);
+            }
+            if (inflater.inflate(probe) > 0) {
+                throw new DataFormatException("decompressed data larger than " + capacity);
+            }
+            if (!inflater.finished() && !(inflater.needsInput() && src != null && src.hasRemaining())) {
+                checkProgress(inflater);
+            }
+        }
+    }
+
+    private static void checkProgress(Inflater inflater) throws DataFormatException {
+        if (inflater.needsDictionary()) {
+            throw new DataFormatException("preset dictionary required");
+        }
+        if (inflater.needsInput()) {
+            throw new DataFormatException("unexpected end of compressed data");
+        }
+    }
+
+    Deflater acquireDeflater() {
+        Pooled pooled = sPooled.get();
+        int slot = nowrap ? 1 : 0;
+        Deflater deflater;
+        if (pooled.deflaterInUse[slot]) {
+            deflater = new Deflater(level, nowrap);
+        } else {
+            deflater = pooled.deflaters[slot];
+            if (deflater == null) {
+                deflater = new Deflater(level, nowrap);
+                pooled.deflaters[slot] = deflater;
+            } else {
+                deflater.reset();
+                deflater.setLevel(level);
+            }
+            pooled.deflaterInUse[slot] = true;
+        }
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+    void releaseDeflater(Deflater deflater) {
+        Pooled pooled = sPooled.get();
+        int slot = nowrap ? 1 : 0;
+        if (pooled.deflaters[slot] == deflater) {
+            pooled.deflaterInUse[slot] = false;
+        } else {
+            deflater.end();
+        }
+    }
+
+    Inflater acquireInflater() {
+        Pooled pooled = sPooled.get();
+        int slot = nowrap ? 1 : 0;
+        if (pooled.inflaterInUse[slot]) {
+            return new Inflater(nowrap);
+        }
+        Inflater inflater = pooled.inflaters[slot];
+        if (inflater == null) {
+            inflater = new Inflater(nowrap);
+            pooled.inflaters[slot] = inflater;
+        } else {
+            inflater.reset();
+        }
+        pooled.inflaterInUse[slot] = true;
+        return inflater;
+    }
+
+    void releaseInflater(Inflater inflater) {
+        Pooled pooled = sPooled.get();
+        int slot = nowrap ? 1 : 0;
+        if (pooled.inflaters[slot] == inflater) {
+            pooled.inflaterInUse[slot] = false;
+        } else {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.commonutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Runs diagnostic commands concurrently and zips their output, one entry per command.
+ * <p>
+ * Commands run on a bounded pool of {@link ParallelZipCompressor} workers, each deflating the
+ * output of its command while the command is still writing it, so there are no intermediate
+ * text files and no full copy of an output in memory. A command that runs longer than the
+ * timeout is killed and its entry ends with a note saying so; the rest of the bundle is not held
+ * up by it.
+ */
+public class DiagnosticCollector {
+    public static final int DEFAULT_THREAD_COUNT = 4;
+    public static final long DEFAULT_COMMAND_TIMEOUT = 20 * 1000;
+
+    private static final String ENTRY_EXTENSION = ".txt";
+    private static final int MAX_ENTRY_NAME_LENGTH = 64;
+
+    private final List<ParallelZipCompressor.Source> sources = new ArrayList<>();
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private long commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    public DiagnosticCollector setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        return this;
+    }
+
+    /**
+     * Applies to the commands added after this call.
+     */
+    public DiagnosticCollector setCommandTimeout(long commandTimeoutMillis) {
+        this.commandTimeout = commandTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 - 9
+     */
+    public DiagnosticCollector setLevel(int level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Adds each command as an entry under a directory named after prefix, e.g. "dumpsys_"
+     * gives dumpsys/0_dumpsys.txt.
+     */
+    public DiagnosticCollector addCommandSet(String prefix, String[] commands) {
+        String directory = prefix.endsWith("_") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        for (int i = 0; i < commands.length; i++) {
+            addCommand(directory + "/" + i + "_" + toEntryName(commands[i]) + ENTRY_EXTENSION, commands[i]);
+        }
+        return this;
+    }
+
+    public DiagnosticCollector addCommand(String entryName, String command) {
+        sources.add(new CommandSource(entryName, command, commandTimeout));
+        return this;
+    }
+
+    public DiagnosticCollector addFile(File file, String entryName) {
+        sources.add(ParallelZipCompressor.fileSource(file, entryName));
+        return this;
+    }
+
+    public DiagnosticCollector addSource(ParallelZipCompressor.Source source) {
+        sources.add(source);
+        return this;
+    }
+
+    /**
+     * Runs the commands and writes every entry to zipFile, which is deleted again on failure.
+     */
+    public void collect(File zipFile) throws IOException {
+        new ParallelZipCompressor()
+                .setThreadCount(threadCount)
+                .setLevel(level)
+                .compressSources(sources, zipFile);
+    }
+
+    /**
+     * "/system/bin/dumpsys battery" becomes "dumpsys_battery".
+     */
+    static String toEntryName(String command) {
+        String[] parts = command.trim().split("\\s+");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            String part = i == 0 ? parts[i].substring(parts[i].lastIndexOf('/') + 1) : parts[i];
+            if (builder.length() > 0) {
+                builder.append('_');
+            }
+            for (int j = 0; j < part.length(); j++) {
+                char c = part.charAt(j);
+                builder.append(Character.isLetterOrDigit(c) || c == '-' || c == '.' ? c : '_');
+            }
+        }
+        if (builder.length() > MAX_ENTRY_NAME_LENGTH) {
+            builder.setLength(MAX_ENTRY_NAME_LENGTH);
+        }
+        return builder.toString();
+    }
+}
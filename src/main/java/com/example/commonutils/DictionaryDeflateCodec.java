@@ -0,0 +1,229 @@
+package com.example.commonutils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib with a preset dictionary, for many small payloads that share structure, e.g. JSON
+ * reports, where plain deflate has too little history to find matches.
+ * <p>
+ * zlib stores the Adler-32 of the dictionary in the stream, so decompression looks it up among
+ * the dictionaries of every codec created in this process. Build a dictionary from
+ * representative payloads with {@link #train(List, int)} and ship it with the app, the same
+ * dictionary has to be available wherever the data is decompressed.
+ */
+public class DictionaryDeflateCodec implements CompressionCodec {
+    /**
+     * Deflate only looks back 32KB, a larger dictionary is of no use.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int GRAM_LENGTH = 8;
+    private static final int SEGMENT_LENGTH = 64;
+
+    private static final Map<Integer, byte[]> sDictionaries = new HashMap<>();
+    private static final DictionaryDeflateCodec sDecoder = new DictionaryDeflateCodec();
+
+    private final byte[] dictionary;
+    private final DeflateCodec deflate;
+
+    public DictionaryDeflateCodec(byte[] dictionary) {
+        this(dictionary, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DictionaryDeflateCodec(byte[] dictionary, int level) {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("empty dictionary");
+        }
+        this.dictionary = dictionary.clone();
+        this.deflate = new DeflateCodec(level);
+        Adler32 adler = new Adler32();
+        adler.update(this.dictionary);
+        synchronized (sDictionaries) {
+            sDictionaries.put((int) adler.getValue(), this.dictionary);
+        }
+    }
+
+    private DictionaryDeflateCodec() {
+        dictionary = null;
+        deflate = new DeflateCodec();
+    }
+
+    /**
+     * @return a codec that decompresses with any known dictionary but cannot compress
+     */
+    static DictionaryDeflateCodec getDecoder() {
+        return sDecoder;
+    }
+
+    @Override
+    public byte getId() {
+        return CompressionCodecs.ID_DICTIONARY_DEFLATE;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        if (dictionary == null) {
+            throw new IllegalStateException("no dictionary");
+        }
+        Deflater deflater = deflate.acquireDeflater();
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(DeflateCodec.maxCompressedLength(length));
+            byte[] chunk = new byte[8 * 1024];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflate.releaseDeflater(deflater);
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = deflate.acquireInflater();
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length * 4));
+            byte[] chunk = new byte[8 * 1024];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && !inflater.finished()) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(findDictionary(inflater.getAdler()));
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("unexpected end of compressed data");
+                    }
+                }
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            deflate.releaseInflater(inflater);
+        }
+    }
+
+    private static byte[] findDictionary(int id) throws DataFormatException {
+        byte[] dictionary;
+        synchronized (sDictionaries) {
+            dictionary = sDictionaries.get(id);
+        }
+        if (dictionary == null) {
+            throw new DataFormatException("unknown dictionary " + Integer.toHexString(id));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Builds a dictionary of the segments of samples whose 8 byte substrings occur in the most
+     * samples. Segments are picked greedily, each one only scoring substrings not yet covered,
+     * and the best ones are placed last, where deflate reaches them with the shortest distances.
+     */
+    public static byte[] train(List<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+                Long gram = readGram(sample, i);
+                if (seen.add(gram)) {
+                    Integer count = frequencies.get(gram);
+                    frequencies.put(gram, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        for (byte[] sample : samples) {
+            for (int start = 0; start < sample.length; start += SEGMENT_LENGTH / 2) {
+                Segment segment = new Segment(sample, start, Math.min(SEGMENT_LENGTH, sample.length - start));
+                segment.score = score(segment, frequencies, null);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+
+        Set<Long> covered = new HashSet<>();
+        List<Segment> picked = new ArrayList<>();
+        int size = 0;
+        while (size < maxSize && !queue.isEmpty()) {
+            Segment segment = queue.poll();
+            int score = score(segment, frequencies, covered);
+            if (score <= 0) {
+                continue;
+            }
+            if (score < segment.score && !queue.isEmpty() && score < queue.peek().score) {
+                // scores only drop as grams get covered, re-queue with the current one
+                segment.score = score;
+                queue.add(segment);
+                continue;
+            }
+            for (int i = segment.start; i + GRAM_LENGTH <= segment.start + segment.length; i++) {
+                covered.add(readGram(segment.sample, i));
+            }
+            picked.add(segment);
+            size += segment.length;
+        }
+
+        byte[] dictionary = new byte[Math.min(size, maxSize)];
+        int position = dictionary.length;
+        for (Segment segment : picked) {
+            int length = Math.min(segment.length, position);
+            position -= length;
+            System.arraycopy(segment.sample, segment.start + segment.length - length, dictionary, position, length);
+        }
+        return dictionary;
+    }
+
+    private static int score(Segment segment, Map<Long, Integer> frequencies, Set<Long> covered) {
+        int score = 0;
+        for (int i = segment.start; i + GRAM_LENGTH <= segment.start + segment.length; i++) {
+            Long gram = readGram(segment.sample, i);
+            Integer count = frequencies.get(gram);
+            if (count != null && count > 1 && (covered == null || !covered.contains(gram))) {
+                score += count;
+            }
+        }
+        return score;
+    }
+
+    private static long readGram(byte[] data, int position) {
+        long gram = 0;
+        for (int i = 0; i < GRAM_LENGTH; i++) {
+            gram = gram << 8 | (data[position + i] & 0xFF);
+        }
+        return gram;
+    }
+
+    private static class Segment implements Comparable<Segment> {
+        final byte[] sample;
+        final int start;
+        final int length;
+        int score;
+
+        Segment(byte[] sample, int start, int length) {
+            this.sample = sample;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return other.score < score ? -1 : (other.score == score ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.commonutils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders ARGB images as 1, 2 or 4 bit grey for e-ink panels, dithered with Floyd-Steinberg,
+ * Atkinson or an 8x8 Bayer matrix, into a packed {@link Frame} a quarter to a 32nd of the size
+ * of the ARGB image.
+ * <p>
+ * Transparent pixels are blended over white paper and grey is the fixed point luma of
+ * {@link PixelOps#grayscale()}; everything is integer math. Ordered dithering splits rows into
+ * bands across threads like {@link PixelOps}. Error diffusion carries error to the rows below, so
+ * rows are taken by the threads in order and each waits for the row above to be a few pixels
+ * ahead; rows thus run as a wavefront, several at a time, with the same result as a single
+ * thread.
+ */
+public class EinkDither {
+    private static final String TAG = EinkDither.class.getSimpleName();
+
+    // pixels of a row processed between progress updates, for error diffusion across threads
+    private static final int CHUNK = 256;
+
+    public enum Method {
+        /**
+         * Error diffusion to 4 neighbours, smooth gradients.
+         */
+        FLOYD_STEINBERG,
+        /**
+         * Error diffusion of 3/4 of the error to 6 neighbours, sharper and with cleaner
+         * highlights and shadows, suited to text and line art.
+         */
+        ATKINSON,
+        /**
+         * 8x8 Bayer matrix, a regular pattern that does not crawl between frames.
+         */
+        ORDERED
+    }
+
+    /**
+     * Grey levels packed most significant bits first, rows starting on a byte; level 0 is black
+     * and the highest level white.
+     */
+    public static class Frame {
+        private final int width;
+        private final int height;
+        private final int bitsPerPixel;
+        private final int stride;
+        private final byte[] data;
+
+        public Frame(int width, int height, int bitsPerPixel) {
+            checkBitsPerPixel(bitsPerPixel);
+            this.width = width;
+            this.height = height;
+            this.bitsPerPixel = bitsPerPixel;
+            this.stride = (width * bitsPerPixel + 7) / 8;
+            this.data = new byte[stride * height];
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBitsPerPixel() {
+            return bitsPerPixel;
+        }
+
+        /**
+         * @return bytes per row
+         */
+        public int getStride() {
+            return stride;
+        }
+
+        /**
+         * @return the packed rows, e.g. to hand to a display driver
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getLevel(int x, int y) {
+            int bit = x * bitsPerPixel;
+            int shift = 8 - bitsPerPixel - (bit & 7);
+            return (data[y * stride + (bit >> 3)] >> shift) & ((1 << bitsPerPixel) - 1);
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+
+        /**
+         * Unpacks to opaque grey ARGB, e.g. to preview the frame on a color screen.
+         */
+        public void toArgb(int[] argb, int offset, int argbStride) {
+            int maxLevel = (1 << bitsPerPixel) - 1;
+            int step = 255 / maxLevel;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int grey = getLevel(x, y) * step;
+                    argb[offset + y * argbStride + x] = 0xFF000000 | grey << 16 | grey << 8 | grey;
+                }
+            }
+        }
+
+        boolean fits(int width, int height, int bitsPerPixel) {
+            return this.width == width && this.height == height && this.bitsPerPixel == bitsPerPixel;
+        }
+    }
+
+    /**
+     * Reads one row of ARGB pixels.
+     */
+    private interface RowSource {
+        void read(int y, int[] row);
+    }
+
+    private final int bitsPerPixel;
+    private final Method method;
+    private final int maxLevel;
+    private final int step;
+
+    /**
+     * @param bitsPerPixel 1, 2 or 4
+     */
+    public EinkDither(int bitsPerPixel, Method method) {
+        checkBitsPerPixel(bitsPerPixel);
+        this.bitsPerPixel = bitsPerPixel;
+        this.method = method;
+        this.maxLevel = (1 << bitsPerPixel) - 1;
+        this.step = 255 / maxLevel;
+    }
+
+    public Frame dither(Bitmap bitmap) {
+        return dither(bitmap, null);
+    }
+
+    /**
+     * @param reuse written instead of a new frame if it has the size and depth needed
+     */
+    public Frame dither(final Bitmap bitmap, Frame reuse) {
+        final int width = bitmap.getWidth();
+        return dither(new RowSource() {
+            @Override
+            public void read(int y, int[] row) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            }
+        }, width, bitmap.getHeight(), reuse);
+    }
+
+    /**
+     * @param reuse written instead of a new frame if it has the size and depth needed
+     */
+    public Frame dither(final int[] argb, final int offset, final int stride, final int width, int height, Frame reuse) {
+        return dither(new RowSource() {
+            @Override
+            public void read(int y, int[] row) {
+                System.arraycopy(argb, offset + y * stride, row, 0, width);
+            }
+        }, width, height, reuse);
+    }
+
+    private Frame dither(final RowSource source, final int width, int height, Frame reuse) {
+        final Frame frame = reuse != null && reuse.fits(width, height, bitsPerPixel)
+                ? reuse : new Frame(width, height, bitsPerPixel);
+        if (method == Method.ORDERED) {
+            PixelOps.forEachBand(height, new PixelOps.Band() {
+                @Override
+                public void run(int start, int end) {
+                    int[] row = new int[width];
+                    for (int y = start; y < end; y++) {
+                        source.read(y, row);
+                        orderedRow(row, y, frame);
+                    }
+                }
+            });
+        } else {
+            new Diffusion(source, frame).run();
+        }
+        return frame;
+    }
+
+    private void orderedRow(int[] row, int y, Frame frame) {
+        int bayerRow = (y & 7) << 3;
+        int index = y * frame.stride;
+        int shift = 8 - bitsPerPixel;
+        int packed = 0;
+        for (int x = 0; x < frame.width; x++) {
+            int threshold = PixelOps.BAYER_8X8[bayerRow + (x & 7)];
+            // floor(grey * maxLevel / 255 + (threshold + 0.5) / 64)
+            int level = (paperGrey(row[x]) * maxLevel * 128 + (2 * threshold + 1) * 255) / (255 * 128);
+            packed |= Math.min(level, maxLevel) << shift;
+            shift -= bitsPerPixel;
+            if (shift < 0) {
+                frame.data[index++] = (byte) packed;
+                packed = 0;
+                shift = 8 - bitsPerPixel;
+            }
+        }
+        if (shift != 8 - bitsPerPixel) {
+            frame.data[index] = (byte) packed;
+        }
+    }
+
+    /**
+     * @return the luma of pixel blended over white by its alpha
+     */
+    private static int paperGrey(int pixel) {
+        int grey = PixelOps.luma(pixel);
+        int alpha = pixel >>> 24;
+        return alpha == 0xFF ? grey : 255 - ((255 - grey) * alpha + 127) / 255;
+    }
+
+    private static void checkBitsPerPixel(int bitsPerPixel) {
+        if (bitsPerPixel != 1 && bitsPerPixel != 2 && bitsPerPixel != 4) {
+            throw new IllegalArgumentException("bits per pixel must be 1, 2 or 4: " + bitsPerPixel);
+        }
+    }
+
+    /**
+     * One error diffusion pass over a frame. Error carried to the rows below is kept in a ring
+     * of rows, a row clearing the slot it is first to write into once the row that used it
+     * before is done; error carried along a row stays in locals of its thread.
+     */
+    private class Diffusion {
+        private final RowSource source;
+        private final Frame frame;
+        private final int width;
+        private final int height;
+        // rows below a pixel its error reaches
+        private final int reach;
+        private final int threads;
+        // indexed by column + 2, so the neighbours of the first and last columns are in range
+        private final int[][] errors;
+        private final AtomicInteger nextRow = new AtomicInteger();
+        private final Object lock = new Object();
+        // columns done per row, guarded by lock
+        private final int[] progress;
+        private boolean failed = false;
+
+        Diffusion(RowSource source, Frame frame) {
+            this.source = source;
+            this.frame = frame;
+            this.width = frame.width;
+            this.height = frame.height;
+            this.reach = method == Method.ATKINSON ? 2 : 1;
+            this.threads = Math.max(1, Math.min(PixelOps.THREAD_COUNT, height / PixelOps.MIN_ROWS_PER_TASK));
+            this.errors = new int[threads + reach + 1][width + 4];
+            this.progress = threads > 1 ? new int[height] : null;
+        }
+
+        void run() {
+            if (threads == 1) {
+                work();
+                return;
+            }
+            List<Future<?>> futures = new ArrayList<>(threads - 1);
+            for (int i = 1; i < threads; i++) {
+                futures.add(PixelOps.getExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                }));
+            }
+            // rows are claimed in order, so this finishes the frame even if no worker starts
+            work();
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the workers write into the frame, so they are waited for anyway
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Log.w(TAG, "diffusion failed", e.getCause());
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void work() {
+            int[] row = new int[width];
+            int y;
+            try {
+                while ((y = nextRow.getAndIncrement()) < height) {
+                    diffuseRow(row, y);
+                }
+            } catch (RuntimeException | Error e) {
+                fail();
+                throw e;
+            }
+        }
+
+        private void diffuseRow(int[] row, int y) {
+            source.read(y, row);
+            int ring = errors.length;
+            // the slot first written by this row was last read by the row ring rows above it
+            awaitProgress(y + reach - ring, width);
+            int[] current = errors[y % ring];
+            int[] below = errors[(y + 1) % ring];
+            int[] twoBelow = errors[(y + 2) % ring];
+            Arrays.fill(errors[(y + reach) % ring], 0);
+
+            boolean atkinson = method == Method.ATKINSON;
+            int carry = 0;
+            int carryNext = 0;
+            int index = y * frame.stride;
+            int shift = 8 - bitsPerPixel;
+            int packed = 0;
+            for (int start = 0; start < width; start += CHUNK) {
+                int end = Math.min(width, start + CHUNK);
+                // pixel x has all its error once the row above passed x + 1
+                awaitProgress(y - 1, Math.min(width, end + 1));
+                for (int x = start; x < end; x++) {
+                    int value;
+                    if (atkinson) {
+                        value = paperGrey(row[x]) + ((current[x + 2] + carry + 4) >> 3);
+                    } else {
+                        value = paperGrey(row[x]) + ((current[x + 2] + carry + 8) >> 4);
+                    }
+                    value = value < 0 ? 0 : value > 255 ? 255 : value;
+                    int level = (value * maxLevel + 127) / 255;
+                    int error = value - level * step;
+                    if (atkinson) {
+                        // 1/8 each to x+1, x+2, and x-1, x, x+1 below, and x two rows below
+                        carry = carryNext + error;
+                        carryNext = error;
+                        below[x + 1] += error;
+                        below[x + 2] += error;
+                        below[x + 3] += error;
+                        twoBelow[x + 2] += error;
+                    } else {
+                        // 7/16 to x+1, and 3/16, 5/16, 1/16 to x-1, x, x+1 below
+                        carry = error * 7;
+                        below[x + 1] += error * 3;
+                        below[x + 2] += error * 5;
+                        below[x + 3] += error;
+                    }
+                    packed |= level << shift;
+                    shift -= bitsPerPixel;
+                    if (shift < 0) {
+                        frame.data[index++] = (byte) packed;
+                        packed = 0;
+                        shift = 8 - bitsPerPixel;
+                    }
+                }
+                if (shift != 8 - bitsPerPixel && end == width) {
+                    frame.data[index] = (byte) packed;
+                }
+                publishProgress(y, end);
+            }
+        }
+
+        private void awaitProgress(int y, int columns) {
+            if (progress == null || y < 0) {
+                return;
+            }
+            synchronized (lock) {
+                boolean interrupted = false;
+                while (progress[y] < columns && !failed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // rows below wait for this one, so it is finished anyway
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (failed) {
+                    throw new IllegalStateException("another row failed");
+                }
+            }
+        }
+
+        private void publishProgress(int y, int columns) {
+            if (progress == null) {
+                return;
+            }
+            synchronized (lock) {
+                progress[y] = columns;
+                lock.notifyAll();
+            }
+        }
+
+        private void fail() {
+            if (progress == null) {
+                return;
+            }
+            synchronized (lock) {
+                failed = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a feedback zip that never exceeds a byte budget.
+ * <p>
+ * Sources are compressed one after the other, highest priority first, straight into the zip.
+ * Once the budget is about to run out, the source being written is cut off, keeping its head and
+ * ending it with a note, and sources that no longer fit are skipped. A command killed on timeout
+ * is kept with the output it wrote and reported as timed out. The last entry,
+ * {@link #MANIFEST_NAME}, lists every source with what became of it, e.g.
+ * <pre>
+ * {"budget":1048576,"entries":[
+ * {"name":"logcat/0_logcat.txt","priority":100,"status":"complete","size":482113,"compressedSize":61204},
+ * {"name":"dumpsys/0_dumpsys.txt","priority":10,"status":"truncated","size":3512320,"compressedSize":402817}
+ * ]}
+ * </pre>
+ * Compressed output is only known once the deflater emits it, so the cut is made against a worst
+ * case bound of the input not yet emitted, which can leave part of the budget unused.
+ */
+public class FeedbackBundleBuilder {
+    private static final String TAG = FeedbackBundleBuilder.class.getSimpleName();
+
+    public static final String MANIFEST_NAME = "manifest.json";
+    public static final long DEFAULT_COMMAND_TIMEOUT = DiagnosticCollector.DEFAULT_COMMAND_TIMEOUT;
+
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_ERROR_LENGTH = 80;
+    // deflate stored blocks add 5 bytes per 16 KB, plus lookahead, bit buffer and the trailer note
+    private static final int DEFLATE_BLOCK_SIZE = 16000;
+    private static final int DEFLATE_BLOCK_OVERHEAD = 5;
+    private static final int DEFLATE_SLACK = 1024;
+    // entries left with less room than this are skipped rather than cut to nothing
+    private static final int MIN_ENTRY_DATA = 2 * DEFLATE_SLACK;
+
+    public enum Status {
+        COMPLETE,
+        TRUNCATED,
+        TIMED_OUT,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * Outcome of one source in the bundle.
+     */
+    public static class Entry {
+        private final ParallelZipCompressor.Source source;
+        private final int priority;
+        private Status status = Status.SKIPPED;
+        private long size;
+        private long compressedSize;
+        private String error;
+
+        Entry(ParallelZipCompressor.Source source, int priority) {
+            this.source = source;
+            this.priority = priority;
+        }
+
+        public String getName() {
+            return source.getName();
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return uncompressed bytes included
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return why a {@link Status#FAILED} source failed
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long budget = Long.MAX_VALUE;
+    private long commandTimeout = DEFAULT_COMMAND_TIMEOUT;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * @param budgetBytes upper bound of the size of the zip, manifest included
+     */
+    public FeedbackBundleBuilder setBudget(long budgetBytes) {
+        this.budget = budgetBytes;
+        return this;
+    }
+
+    /**
+     * Applies to the commands added after this call.
+     */
+    public FeedbackBundleBuilder setCommandTimeout(long commandTimeoutMillis) {
+        this.commandTimeout = commandTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 - 9
+     */
+    public FeedbackBundleBuilder setLevel(int level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Adds each command as an entry under a directory named after prefix, named like
+     * {@link DiagnosticCollector#addCommandSet(String, String[])} does.
+     */
+    public FeedbackBundleBuilder addCommandSet(String prefix, String[] commands, int priority) {
+        String directory = prefix.endsWith("_") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        for (int i = 0; i < commands.length; i++) {
+            addCommand(directory + "/" + i + "_" + DiagnosticCollector.toEntryName(commands[i]) + ".txt",
+                    commands[i], priority);
+        }
+        return this;
+    }
+
+    public FeedbackBundleBuilder addCommand(String entryName, String command, int priority) {
+        return addSource(new CommandSource(entryName, command, commandTimeout), priority);
+    }
+
+    public FeedbackBundleBuilder addFile(File file, String entryName, int priority) {
+        return addSource(ParallelZipCompressor.fileSource(file, entryName), priority);
+    }
+
+    /**
+     * @param priority higher is written first, equal priorities keep the order they were added
+     */
+    public FeedbackBundleBuilder addSource(ParallelZipCompressor.Source source, int priority) {
+        entries.add(new Entry(source, priority));
+        return this;
+    }
+
+    /**
+     * Writes the bundle to zipFile, which is deleted again on failure. A source that fails to
+     * read is left out and reported in the manifest, it does not fail the bundle.
+     *
+     * @return every source in the order written, with its outcome
+     * @throws IOException if the budget cannot even hold the manifest, or writing zipFile fails
+     */
+    public List<Entry> build(File zipFile) throws IOException {
+        List<Entry> ordered = new ArrayList<>(entries);
+        Collections.sort(ordered, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.priority > rhs.priority ? -1 : (lhs.priority == rhs.priority ? 0 : 1);
+            }
+        });
+        if (ordered.size() >= ZipWriter.MAX_ZIP32_ENTRIES) {
+            throw new IOException("too many entries: " + ordered.size());
+        }
+
+        // room the manifest and the end of the zip need whatever becomes of the sources
+        long reserved = ZipWriter.END_OF_CENTRAL_DIRECTORY_SIZE + ZipWriter.headerOverhead(MANIFEST_NAME)
+                + manifestHeader().length() + manifestFooter().length();
+        for (Entry entry : ordered) {
+            reserved += maxManifestLine(entry);
+        }
+        if (reserved > budget) {
+            throw new IOException("budget of " + budget + " bytes cannot hold the manifest of "
+                    + ordered.size() + " entries");
+        }
+
+        FileOutputStream out = null;
+        boolean succeed = false;
+        try {
+            out = new FileOutputStream(zipFile);
+            ZipWriter writer = new ZipWriter(out.getChannel());
+            long centralDirectory = 0;
+            byte[] input = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            for (Entry entry : ordered) {
+                long available = budget - reserved - centralDirectory - writer.getPosition()
+                        - ZipWriter.headerOverhead(entry.getName());
+                long size = entry.source.getSize();
+                if (available < (size < 0 ? MIN_ENTRY_DATA : Math.min(MIN_ENTRY_DATA, maxDeflatedSize(size)))) {
+                    continue;
+                }
+                if (write(writer, entry, available, input, output)) {
+                    centralDirectory += ZipWriter.headerOverhead(entry.getName()) - ZipWriter.LOCAL_HEADER_SIZE
+                            - entry.getName().getBytes(UTF8).length;
+                }
+            }
+            writeManifest(writer, ordered);
+            writer.finish();
+            succeed = true;
+        } finally {
+            FileUtils.closeQuietly(out);
+            if (!succeed) {
+                FileUtils.deleteQuietly(zipFile);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Deflates entry into writer, cutting it off before its compressed data exceeds available.
+     *
+     * @return whether the entry was kept in the zip
+     */
+    private boolean write(ZipWriter writer, Entry entry, long available, byte[] input, byte[] output)
+            throws IOException {
+        ZipWriter.Entry zipEntry = new ZipWriter.Entry(entry.getName(), ParallelZipCompressor.METHOD_DEFLATED,
+                entry.source.getLastModified());
+        writer.begin(zipEntry);
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        InputStream in = null;
+        try {
+            in = entry.source.open();
+            long written = 0;
+            // upper bound of the input the deflater holds without having emitted it
+            long pending = 0;
+            boolean truncated = false;
+            int read;
+            while ((read = in.read(input)) >= 0) {
+                long fits = maxInput(available - written) - pending;
+                int accepted = (int) Math.max(0, Math.min(read, fits));
+                crc.update(input, 0, accepted);
+                zipEntry.size += accepted;
+                pending += accepted;
+                deflater.setInput(input, 0, accepted);
+                int count;
+                // drain until zlib holds back nothing it could emit, needsInput() alone does not
+                while ((count = deflater.deflate(output)) > 0 || !deflater.needsInput()) {
+                    writer.write(output, 0, count);
+                    written += count;
+                    if (count > 0) {
+                        // the block just emitted may end anywhere within this chunk
+                        pending = accepted;
+                    }
+                }
+                if (accepted < read) {
+                    truncated = true;
+                    break;
+                }
+            }
+            if (truncated) {
+                byte[] note = ("\n[truncated after " + zipEntry.size + " bytes]\n").getBytes(UTF8);
+                crc.update(note, 0, note.length);
+                zipEntry.size += note.length;
+                deflater.setInput(note);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(output);
+                writer.write(output, 0, count);
+                written += count;
+            }
+            zipEntry.crc = crc.getValue();
+            zipEntry.compressedSize = written;
+            writer.end(zipEntry, true);
+            if (truncated) {
+                entry.status = Status.TRUNCATED;
+            } else if (in instanceof CommandSource.CommandOutputStream
+                    && ((CommandSource.CommandOutputStream) in).isTimedOut()) {
+                entry.status = Status.TIMED_OUT;
+            } else {
+                entry.status = Status.COMPLETE;
+            }
+            entry.size = zipEntry.size;
+            entry.compressedSize = written;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to add " + entry.getName(), e);
+            writer.discard(zipEntry);
+            entry.status = Status.FAILED;
+            entry.error = String.valueOf(e);
+            return false;
+        } finally {
+            deflater.end();
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Largest input whose deflated size, in the worst case, stays within room.
+     */
+    private static long maxInput(long room) {
+        long data = room - DEFLATE_SLACK - DEFLATE_BLOCK_OVERHEAD;
+        if (data <= 0) {
+            return 0;
+        }
+        return data / (DEFLATE_BLOCK_SIZE + DEFLATE_BLOCK_OVERHEAD) * DEFLATE_BLOCK_SIZE
+                + Math.max(0, data % (DEFLATE_BLOCK_SIZE + DEFLATE_BLOCK_OVERHEAD) - DEFLATE_BLOCK_OVERHEAD);
+    }
+
+    /**
+     * Worst case deflated size of length bytes, the inverse of {@link #maxInput(long)}.
+     */
+    private static long maxDeflatedSize(long length) {
+        return length + (length / DEFLATE_BLOCK_SIZE + 2) * DEFLATE_BLOCK_OVERHEAD + DEFLATE_SLACK;
+    }
+
+    private void writeManifest(ZipWriter writer, List<Entry> ordered) throws IOException {
+        StringBuilder builder = new StringBuilder(manifestHeader());
+        for (int i = 0; i < ordered.size(); i++) {
+            Entry entry = ordered.get(i);
+            appendManifestLine(builder, entry.getName(), entry.priority, entry.status, entry.size,
+                    entry.compressedSize, entry.error, i == ordered.size() - 1);
+        }
+        builder.append(manifestFooter());
+        byte[] manifest = builder.toString().getBytes(UTF8);
+
+        ZipWriter.Entry zipEntry = new ZipWriter.Entry(MANIFEST_NAME, ParallelZipCompressor.METHOD_STORED,
+                System.currentTimeMillis());
+        CRC32 crc = new CRC32();
+        crc.update(manifest, 0, manifest.length);
+        zipEntry.crc = crc.getValue();
+        zipEntry.size = manifest.length;
+        zipEntry.compressedSize = manifest.length;
+        writer.begin(zipEntry);
+        writer.write(manifest, 0, manifest.length);
+        writer.end(zipEntry, false);
+    }
+
+    private String manifestHeader() {
+        return "{\"budget\":" + budget + ",\"entries\":[\n";
+    }
+
+    private static String manifestFooter() {
+        return "]}\n";
+    }
+
+    private static int maxManifestLine(Entry entry) {
+        StringBuilder error = new StringBuilder(MAX_ERROR_LENGTH);
+        for (int i = 0; i < MAX_ERROR_LENGTH; i++) {
+            // widest character once encoded, an escaped quote takes 2 bytes
+            error.append('\u4e00');
+        }
+        StringBuilder builder = new StringBuilder();
+        appendManifestLine(builder, entry.getName(), entry.priority, Status.TRUNCATED, Long.MIN_VALUE,
+                Long.MIN_VALUE, error.toString(), false);
+        return builder.toString().getBytes(UTF8).length;
+    }
+
+    private static void appendManifestLine(StringBuilder builder, String name, int priority, Status status,
+                                           long size, long compressedSize, String error, boolean last) {
+        builder.append("{\"name\":");
+        appendJsonString(builder, name);
+        builder.append(",\"priority\":").append(priority)
+                .append(",\"status\":\"").append(status.name().toLowerCase(Locale.US)).append('"')
+                .append(",\"size\":").append(size)
+                .append(",\"compressedSize\":").append(compressedSize);
+        if (error != null) {
+            builder.append(",\"error\":");
+            appendJsonString(builder, error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        }
+        builder.append(last ? "}\n" : "},\n");
+    }
+
+    /**
+     * Escapes quotes and backslashes, control characters become spaces.
+     */
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else {
+                builder.append(c < 0x20 ? ' ' : c);
+            }
+        }
+        builder.append('"');
+    }
+}
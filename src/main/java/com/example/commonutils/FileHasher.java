@@ -0,0 +1,382 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * File and buffer hashing with selectable algorithms.
+ * <p>
+ * MD5 and SHA-256 are for content identity, xxHash64 and CRC32C are much cheaper and meant for
+ * dedup and change detection. Hasher state is kept per thread and reused, large files are read
+ * through memory mapped windows and small ones through a pooled direct buffer.
+ */
+public class FileHasher {
+    private static final String TAG = FileHasher.class.getSimpleName();
+
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    public enum Algorithm {
+        MD5,
+        SHA_256,
+        XXHASH64,
+        CRC32C
+    }
+
+    interface Hasher {
+        void update(ByteBuffer buffer);
+
+        /**
+         * Returns the digest and resets the state for the next use.
+         */
+        byte[] digest();
+
+        void reset();
+    }
+
+    private static final ThreadLocal<Hasher[]> sHashers = new ThreadLocal<Hasher[]>() {
+        @Override
+        protected Hasher[] initialValue() {
+            return new Hasher[Algorithm.values().length];
+        }
+    };
+
+    static Hasher getHasher(Algorithm algorithm) {
+        Hasher[] hashers = sHashers.get();
+        Hasher hasher = hashers[algorithm.ordinal()];
+        if (hasher == null) {
+            hasher = newHasher(algorithm);
+            hashers[algorithm.ordinal()] = hasher;
+        }
+        hasher.reset();
+        return hasher;
+    }
+
+    private static Hasher newHasher(Algorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return new DigestHasher("MD5");
+            case SHA_256:
+                return new DigestHasher("SHA-256");
+            case XXHASH64:
+                return new XxHash64();
+            case CRC32C:
+                return new Crc32c();
+            default:
+                throw new IllegalArgumentException("unknown algorithm " + algorithm);
+        }
+    }
+
+    public static byte[] hash(File file, Algorithm algorithm) throws IOException {
+        Hasher hasher = getHasher(algorithm);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position)));
+                }
+            } else {
+                ByteBufferPool pool = ByteBufferPool.getDefault();
+                ByteBuffer buffer = pool.acquire(READ_CHUNK_SIZE);
+                try {
+                    buffer.clear();
+                    while (channel.read(buffer) >= 0) {
+                        buffer.flip();
+                        hasher.update(buffer);
+                        buffer.clear();
+                    }
+                } finally {
+                    pool.release(buffer);
+                }
+            }
+            return hasher.digest();
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    public static String hashToString(File file, Algorithm algorithm) throws IOException {
+        return FileUtils.hexToString(hash(file, algorithm));
+    }
+
+    /**
+     * Consumes the remaining bytes of buffer.
+     */
+    public static byte[] hash(ByteBuffer buffer, Algorithm algorithm) {
+        Hasher hasher = getHasher(algorithm);
+        hasher.update(buffer);
+        return hasher.digest();
+    }
+
+    public static byte[] hash(byte[] data, Algorithm algorithm) {
+        return hash(ByteBuffer.wrap(data), algorithm);
+    }
+
+    /**
+     * Hashes the files on threadCount threads.
+     *
+     * @return hex digest by absolute path, in the order of files. Files that cannot be read are
+     * left out.
+     */
+    public static Map<String, String> hashToString(List<File> files, final Algorithm algorithm, int threadCount) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (files == null || files.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, files.size())));
+        try {
+            List<Future<String>> futures = new ArrayList<>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return hashToString(file, algorithm);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                File file = files.get(i);
+                try {
+                    result.put(file.getAbsolutePath(), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "hash failed: " + file, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    public static Map<String, String> hashToString(List<File> files, Algorithm algorithm) {
+        return hashToString(files, algorithm, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static class DigestHasher implements Hasher {
+        private final MessageDigest digest;
+
+        DigestHasher(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+
+        @Override
+        public void reset() {
+            digest.reset();
+        }
+    }
+
+    /**
+     * Streaming XXH64 with seed 0, digest in canonical big endian form.
+     */
+    static class XxHash64 implements Hasher {
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME3 = 0x165667B19E3779F9L;
+        private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME5 = 0x27D4EB2F165667C5L;
+        private static final int STRIPE = 32;
+
+        private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+        private long totalLength;
+
+        XxHash64() {
+            reset();
+        }
+
+        @Override
+        public void reset() {
+            v1 = PRIME1 + PRIME2;
+            v2 = PRIME2;
+            v3 = 0;
+            v4 = -PRIME1;
+            totalLength = 0;
+            pending.clear();
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            totalLength += buffer.remaining();
+            if (pending.position() > 0) {
+                while (pending.hasRemaining() && buffer.hasRemaining()) {
+                    pending.put(buffer.get());
+                }
+                if (pending.hasRemaining()) {
+                    buffer.order(order);
+                    return;
+                }
+                pending.flip();
+                stripe(pending);
+                pending.clear();
+            }
+            while (buffer.remaining() >= STRIPE) {
+                stripe(buffer);
+            }
+            pending.put(buffer);
+            buffer.order(order);
+        }
+
+        private void stripe(ByteBuffer buffer) {
+            v1 = round(v1, buffer.getLong());
+            v2 = round(v2, buffer.getLong());
+            v3 = round(v3, buffer.getLong());
+            v4 = round(v4, buffer.getLong());
+        }
+
+        @Override
+        public byte[] digest() {
+            long h;
+            if (totalLength >= STRIPE) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = v3 + PRIME5;
+            }
+            h += totalLength;
+
+            pending.flip();
+            while (pending.remaining() >= 8) {
+                h ^= round(0, pending.getLong());
+                h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            }
+            if (pending.remaining() >= 4) {
+                h ^= (pending.getInt() & 0xFFFFFFFFL) * PRIME1;
+                h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            }
+            while (pending.hasRemaining()) {
+                h ^= (pending.get() & 0xFF) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+            }
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+
+            reset();
+            return ByteBuffer.allocate(8).putLong(h).array();
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * PRIME2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * PRIME1;
+        }
+
+        private static long merge(long acc, long value) {
+            acc ^= round(0, value);
+            return acc * PRIME1 + PRIME4;
+        }
+    }
+
+    /**
+     * CRC32C (Castagnoli) with slicing-by-8 tables, digest in big endian form.
+     * java.util.zip.CRC32C only exists from API 26.
+     */
+    static class Crc32c implements Hasher {
+        private static final int POLYNOMIAL = 0x82F63B78;
+        private static final int[][] TABLES = new int[8][256];
+
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int k = 0; k < 8; k++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+                }
+                TABLES[0][n] = crc;
+            }
+            for (int n = 0; n < 256; n++) {
+                int crc = TABLES[0][n];
+                for (int t = 1; t < 8; t++) {
+                    crc = TABLES[0][crc & 0xFF] ^ (crc >>> 8);
+                    TABLES[t][n] = crc;
+                }
+            }
+        }
+
+        private int crc;
+
+        Crc32c() {
+            reset();
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+            final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+            int c = crc;
+            while (buffer.remaining() >= 8) {
+                long word = buffer.getLong();
+                int low = (int) word ^ c;
+                int high = (int) (word >>> 32);
+                c = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+                        ^ t3[high & 0xFF] ^ t2[(high >>> 8) & 0xFF] ^ t1[(high >>> 16) & 0xFF] ^ t0[high >>> 24];
+            }
+            while (buffer.hasRemaining()) {
+                c = t0[(c ^ buffer.get()) & 0xFF] ^ (c >>> 8);
+            }
+            crc = c;
+            buffer.order(order);
+        }
+
+        @Override
+        public byte[] digest() {
+            int value = ~crc;
+            reset();
+            return ByteBuffer.allocate(4).putInt(value).array();
+        }
+    }
+}
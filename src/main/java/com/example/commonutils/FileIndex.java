@@ -0,0 +1,565 @@
+package com.example.commonutils;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Persistent index of the non hidden files under a root directory, so that repeat
+ * {@link FileUtils#collectFiles} and {@link FileUtils#findFileByKey} calls are answered
+ * from memory instead of walking the disk.
+ * <p>
+ * The index is kept per directory. {@link #refresh()} only lists a directory again when its
+ * mtime changed, and each re-listed directory is appended to a journal next to the snapshot,
+ * which is folded back into the snapshot by {@link #save()}. Since a directory mtime only moves
+ * when entries are added, removed or renamed, sizes and mtimes of files modified in place are
+ * picked up by {@link #refresh(boolean)} with a full rescan, or live while {@link #startWatching()}
+ * is active.
+ * <p>
+ * An index registered through {@link #register(FileIndex)} is used by FileUtils for any
+ * query inside its root.
+ */
+public class FileIndex {
+    private static final String TAG = FileIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x46494458; // FIDX
+    private static final int VERSION = 1;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final byte FLAG_DIRECTORY = 1;
+    // name length, flags, size and mtime of an entry with an empty name
+    private static final int MIN_ENTRY_BYTES = 2 + 1 + 8 + 8;
+
+    // a directory touched within the mtime granularity of the file system may change again
+    // without its mtime moving, so it is not trusted until the next refresh
+    private static final long MTIME_GRANULARITY_MS = 2000;
+    private static final long UNTRUSTED_MTIME = -1;
+
+    // compact once the journal grows past 1 / JOURNAL_COMPACT_RATIO of the snapshot
+    private static final int JOURNAL_COMPACT_RATIO = 2;
+
+    private static final int OBSERVER_MASK = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final List<FileIndex> sRegistry = new CopyOnWriteArrayList<>();
+
+    public static class Entry {
+        public final String path;
+        public final String name;
+        public final String extension;
+        public final long size;
+        public final long lastModified;
+        public final boolean isDirectory;
+
+        Entry(String parent, String name, long size, long lastModified, boolean isDirectory) {
+            this.path = parent.endsWith(File.separator) ? parent + name : parent + File.separator + name;
+            this.name = name;
+            this.extension = isDirectory ? "" : FileUtils.getFileExtension(name);
+            this.size = size;
+            this.lastModified = lastModified;
+            this.isDirectory = isDirectory;
+        }
+
+        public File getFile() {
+            return new File(path);
+        }
+    }
+
+    private static class DirectoryRecord {
+        final String path;
+        final long lastModified;
+        final Entry[] entries;
+
+        DirectoryRecord(String path, long lastModified, Entry[] entries) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.entries = entries;
+        }
+    }
+
+    private final File root;
+    private final String rootPath;
+    private final File indexFile;
+    private final File journalFile;
+    private final Map<String, DirectoryRecord> directories = new HashMap<>();
+    private final Map<String, DirectoryObserver> observers = new HashMap<>();
+    private long snapshotSize = 0;
+    private boolean watching = false;
+
+    public FileIndex(File root, File indexFile) {
+        this.root = root.getAbsoluteFile();
+        this.rootPath = this.root.getPath();
+        this.indexFile = indexFile.getAbsoluteFile();
+        this.journalFile = new File(indexFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    public static void register(FileIndex index) {
+        if (!sRegistry.contains(index)) {
+            sRegistry.add(index);
+        }
+    }
+
+    public static void unregister(FileIndex index) {
+        sRegistry.remove(index);
+    }
+
+    /**
+     * @return a registered index whose root contains dir, or null
+     */
+    public static FileIndex find(File dir) {
+        if (dir == null) {
+            return null;
+        }
+        String path = dir.getAbsolutePath();
+        for (FileIndex index : sRegistry) {
+            if (isSameOrChild(index.rootPath, path)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public synchronized boolean isWatching() {
+        return watching;
+    }
+
+    public synchronized int size() {
+        int count = 0;
+        for (DirectoryRecord record : directories.values()) {
+            count += record.entries.length;
+        }
+        return count;
+    }
+
+    /**
+     * Loads the snapshot and replays the journal. A missing or unreadable index leaves the
+     * index empty, the next {@link #refresh()} then rebuilds it.
+     */
+    public synchronized boolean load() {
+        directories.clear();
+        if (!indexFile.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !rootPath.equals(in.readUTF())) {
+                Log.w(TAG, "discard incompatible index: " + indexFile);
+                return false;
+            }
+            long length = indexFile.length();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                DirectoryRecord record = readRecord(in, length);
+                directories.put(record.path, record);
+            }
+            snapshotSize = indexFile.length();
+        } catch (IOException e) {
+            Log.w(TAG, "index corrupted: " + indexFile, e);
+            directories.clear();
+            return false;
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        replayJournal();
+        return true;
+    }
+
+    /**
+     * Writes a full snapshot and drops the journal.
+     */
+    public synchronized boolean save() {
+        File temp = new File(indexFile.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(rootPath);
+            out.writeInt(directories.size());
+            for (DirectoryRecord record : directories.values()) {
+                writeRecord(out, record);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(indexFile)) {
+                Log.w(TAG, "failed to replace index: " + indexFile);
+                return false;
+            }
+            snapshotSize = indexFile.length();
+            FileUtils.deleteQuietly(journalFile);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save index: " + indexFile, e);
+            return false;
+        } finally {
+            FileUtils.closeQuietly(out);
+        }
+    }
+
+    public void refresh() {
+        refresh(false);
+    }
+
+    /**
+     * @param full list every directory again, regardless of its mtime
+     */
+    public synchronized void refresh(boolean full) {
+        refreshSubtree(root, full, full);
+        if (watching) {
+            syncObservers();
+        }
+    }
+
+    /**
+     * Refreshes unless the index is already kept live by {@link #startWatching()}.
+     */
+    public synchronized void refreshIfNotWatching() {
+        if (!watching) {
+            refresh();
+        }
+    }
+
+    /**
+     * Regular files with an extension in extensionFilters, directly inside dir or, when recursive,
+     * anywhere below it.
+     */
+    public synchronized void collectFiles(File dir, Set<String> extensionFilters, boolean recursive, List<String> fileList) {
+        String dirPath = dir.getAbsolutePath();
+        if (!recursive) {
+            DirectoryRecord record = directories.get(dirPath);
+            if (record != null) {
+                collectFiles(record, extensionFilters, fileList);
+            }
+            return;
+        }
+        for (DirectoryRecord record : directories.values()) {
+            if (isSameOrChild(dirPath, record.path)) {
+                collectFiles(record, extensionFilters, fileList);
+            }
+        }
+    }
+
+    /**
+     * Files and directories below dir whose name contains searchKey.
+     */
+    public synchronized void findFileByKey(List<File> fileList, File dir, String searchKey) {
+        String dirPath = dir.getAbsolutePath();
+        for (DirectoryRecord record : directories.values()) {
+            if (!isSameOrChild(dirPath, record.path)) {
+                continue;
+            }
+            for (Entry entry : record.entries) {
+                if (entry.name.contains(searchKey)) {
+                    fileList.add(entry.getFile());
+                }
+            }
+        }
+    }
+
+    public synchronized Entry getEntry(String path) {
+        File file = new File(path).getAbsoluteFile();
+        DirectoryRecord record = directories.get(file.getParent());
+        if (record == null) {
+            return null;
+        }
+        for (Entry entry : record.entries) {
+            if (entry.name.equals(file.getName())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the index up to date through one FileObserver per indexed directory.
+     * Each observer costs an inotify watch, which are limited per user (8192 by default).
+     */
+    public synchronized void startWatching() {
+        if (watching) {
+            return;
+        }
+        watching = true;
+        refresh();
+    }
+
+    public synchronized void stopWatching() {
+        watching = false;
+        for (DirectoryObserver observer : observers.values()) {
+            observer.stopWatching();
+        }
+        observers.clear();
+    }
+
+    private void collectFiles(DirectoryRecord record, Set<String> extensionFilters, List<String> fileList) {
+        for (Entry entry : record.entries) {
+            if (!entry.isDirectory && extensionFilters.contains(entry.extension)) {
+                fileList.add(entry.path);
+            }
+        }
+    }
+
+    /**
+     * @param forceStart list start again regardless of its mtime
+     * @param forceAll   list every directory below start again too
+     */
+    private void refreshSubtree(File start, boolean forceStart, boolean forceAll) {
+        final String startPath = start.getAbsolutePath();
+        final List<DirectoryRecord> changed = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+        final Deque<File> stack = new ArrayDeque<>();
+        final long now = System.currentTimeMillis();
+        stack.push(start.getAbsoluteFile());
+        boolean first = true;
+        File dir;
+        while ((dir = stack.poll()) != null) {
+            String path = dir.getPath();
+            long lastModified = dir.lastModified();
+            if (lastModified == 0 && !dir.isDirectory()) {
+                first = false;
+                continue;
+            }
+            DirectoryRecord record = directories.get(path);
+            if (record == null || record.lastModified != lastModified
+                    || record.lastModified == UNTRUSTED_MTIME || forceAll || (first && forceStart)) {
+                long trusted = now - lastModified < MTIME_GRANULARITY_MS ? UNTRUSTED_MTIME : lastModified;
+                record = listDirectory(dir, trusted);
+                if (record == null) {
+                    first = false;
+                    continue;
+                }
+                directories.put(path, record);
+                changed.add(record);
+            }
+            first = false;
+            seen.add(path);
+            for (Entry entry : record.entries) {
+                if (entry.isDirectory) {
+                    stack.push(new File(entry.path));
+                }
+            }
+        }
+
+        final List<String> removed = new ArrayList<>();
+        Iterator<String> iterator = directories.keySet().iterator();
+        while (iterator.hasNext()) {
+            String path = iterator.next();
+            if (isSameOrChild(startPath, path) && !seen.contains(path)) {
+                iterator.remove();
+                removed.add(path);
+            }
+        }
+        appendJournal(changed, removed);
+    }
+
+    private DirectoryRecord listDirectory(File dir, long lastModified) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return null;
+        }
+        String path = dir.getPath();
+        List<Entry> entries = new ArrayList<>(children.length);
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(".") || isOwnFile(path, name)) {
+                continue;
+            }
+            boolean isDirectory = child.isDirectory();
+            if (!isDirectory && !child.isFile()) {
+                continue;
+            }
+            entries.add(new Entry(path, name, isDirectory ? 0 : child.length(), child.lastModified(), isDirectory));
+        }
+        return new DirectoryRecord(path, lastModified, entries.toArray(new Entry[entries.size()]));
+    }
+
+    private void appendJournal(List<DirectoryRecord> changed, List<String> removed) {
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        if (snapshotSize == 0 || journalFile.length() * JOURNAL_COMPACT_RATIO > snapshotSize) {
+            save();
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+            for (DirectoryRecord record : changed) {
+                out.writeByte(OP_PUT);
+                writeRecord(out, record);
+            }
+            for (String path : removed) {
+                out.writeByte(OP_REMOVE);
+                out.writeUTF(path);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to append journal: " + journalFile, e);
+        } finally {
+            FileUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Replays the journal up to its first torn or corrupt record. The journal is then replaced
+     * by a snapshot, so records appended later do not follow a broken one.
+     */
+    private void replayJournal() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        long length = journalFile.length();
+        boolean clean = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            int op;
+            while ((op = in.read()) >= 0) {
+                if (op == OP_PUT) {
+                    DirectoryRecord record = readRecord(in, length);
+                    directories.put(record.path, record);
+                } else if (op == OP_REMOVE) {
+                    directories.remove(in.readUTF());
+                } else {
+                    throw new IOException("unknown journal op " + op);
+                }
+            }
+            clean = true;
+        } catch (IOException e) {
+            // a record cut short by a crash ends in an EOFException
+            Log.w(TAG, "journal corrupted: " + journalFile, e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        if (!clean && !save()) {
+            // the listings it held are found again by the next refresh
+            FileUtils.deleteQuietly(journalFile);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, DirectoryRecord record) throws IOException {
+        out.writeUTF(record.path);
+        out.writeLong(record.lastModified);
+        out.writeInt(record.entries.length);
+        for (Entry entry : record.entries) {
+            out.writeUTF(entry.name);
+            out.writeByte(entry.isDirectory ? FLAG_DIRECTORY : 0);
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+        }
+    }
+
+    /**
+     * @param maxBytes length of the file read, which bounds the entry count
+     */
+    private static DirectoryRecord readRecord(DataInputStream in, long maxBytes) throws IOException {
+        String path = in.readUTF();
+        long lastModified = in.readLong();
+        int count = in.readInt();
+        if (count < 0 || count > maxBytes / MIN_ENTRY_BYTES) {
+            throw new IOException("bad entry count " + count + " in " + path);
+        }
+        Entry[] entries = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            boolean isDirectory = (in.readByte() & FLAG_DIRECTORY) != 0;
+            long size = in.readLong();
+            long entryModified = in.readLong();
+            entries[i] = new Entry(path, name, size, entryModified, isDirectory);
+        }
+        return new DirectoryRecord(path, lastModified, entries);
+    }
+
+    private void syncObservers() {
+        Iterator<Map.Entry<String, DirectoryObserver>> iterator = observers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, DirectoryObserver> entry = iterator.next();
+            if (!directories.containsKey(entry.getKey())) {
+                entry.getValue().stopWatching();
+                iterator.remove();
+            }
+        }
+        for (String path : directories.keySet()) {
+            if (!observers.containsKey(path)) {
+                DirectoryObserver observer = new DirectoryObserver(path);
+                observers.put(path, observer);
+                observer.startWatching();
+            }
+        }
+    }
+
+    private synchronized void onDirectoryChanged(String path) {
+        if (!watching) {
+            return;
+        }
+        refreshSubtree(new File(path), true, false);
+        syncObservers();
+    }
+
+    /**
+     * The snapshot, journal or temporary snapshot, which may live inside the indexed tree.
+     */
+    private boolean isOwnFile(String parent, String name) {
+        return parent.equals(indexFile.getParent()) && (name.equals(indexFile.getName())
+                || name.equals(journalFile.getName()) || name.equals(indexFile.getName() + TEMP_SUFFIX));
+    }
+
+    private static boolean isSameOrChild(String parent, String path) {
+        if (!path.startsWith(parent)) {
+            return false;
+        }
+        // a root such as "/" already ends with the separator
+        return path.length() == parent.length() || parent.endsWith(File.separator)
+                || path.charAt(parent.length()) == File.separatorChar;
+    }
+
+    private class DirectoryObserver extends FileObserver {
+        private final String path;
+
+        DirectoryObserver(String path) {
+            super(path, OBSERVER_MASK);
+            this.path = path;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            if (name != null && isOwnFile(path, name)) {
+                // written by the index itself, reacting would refresh and write again
+                return;
+            }
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                String parent = new File(path).getParent();
+                onDirectoryChanged(parent != null && isSameOrChild(rootPath, parent) ? parent : path);
+            } else {
+                onDirectoryChanged(path);
+            }
+        }
+    }
+}
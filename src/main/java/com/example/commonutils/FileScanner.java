@@ -0,0 +1,430 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Directory scanner used by {@link FileUtils#collectFiles} and {@link FileUtils#findFileByKey}.
+ * <p>
+ * With more than one thread the tree is walked by a set of workers, each owning a deque of
+ * pending directories: a worker pops its own deque depth-first and steals from the head of the
+ * others when it runs dry. With a single thread it falls back to an iterative depth-first walk.
+ * Matches are streamed to a {@link Callback} or an {@link Iterator} instead of filling a list.
+ */
+public class FileScanner {
+    private static final String TAG = FileScanner.class.getSimpleName();
+
+    public static final int UNLIMITED_DEPTH = -1;
+
+    private static final int DEFAULT_MAX_OPEN_DIRECTORIES = 16;
+    private static final int DEFAULT_ITERATOR_CAPACITY = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long OFFER_TIMEOUT_MS = 50;
+
+    public interface Filter {
+        boolean accept(File file, boolean isDirectory);
+    }
+
+    /**
+     * Invoked from the scanning threads. Calls are serialized, so the callback does not need
+     * to be thread safe.
+     */
+    public interface Callback {
+        void onFileFound(File file);
+    }
+
+    private Set<String> extensionFilters;
+    private String nameKey;
+    private Filter filter;
+    private boolean includeDirectories = false;
+    private boolean includeHidden = false;
+    private boolean recursive = true;
+    private int maxDepth = UNLIMITED_DEPTH;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private Semaphore openDirectories = new Semaphore(DEFAULT_MAX_OPEN_DIRECTORIES);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    public FileScanner() {
+    }
+
+    /**
+     * Only regular files whose lower case extension is in the set are reported.
+     * null means no extension filtering.
+     */
+    public FileScanner setExtensionFilters(Set<String> extensionFilters) {
+        this.extensionFilters = extensionFilters;
+        return this;
+    }
+
+    /**
+     * Only entries whose name contains the key are reported. null means no name filtering.
+     */
+    public FileScanner setNameKey(String nameKey) {
+        this.nameKey = nameKey;
+        return this;
+    }
+
+    public FileScanner setFilter(Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public FileScanner setIncludeDirectories(boolean includeDirectories) {
+        this.includeDirectories = includeDirectories;
+        return this;
+    }
+
+    public FileScanner setIncludeHidden(boolean includeHidden) {
+        this.includeHidden = includeHidden;
+        return this;
+    }
+
+    public FileScanner setRecursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    /**
+     * @param maxDepth depth below the root to descend, 0 means only the root's own entries,
+     *                 {@link #UNLIMITED_DEPTH} for no limit.
+     */
+    public FileScanner setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @param threadCount number of worker threads, 1 selects the single threaded depth-first walk.
+     */
+    public FileScanner setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        return this;
+    }
+
+    /**
+     * Caps how many directories are being listed at the same time, across all workers.
+     */
+    public FileScanner setMaxOpenDirectories(int maxOpenDirectories) {
+        this.openDirectories = new Semaphore(Math.max(1, maxOpenDirectories));
+        return this;
+    }
+
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Blocks until the tree under root is scanned or the scan is cancelled.
+     */
+    public void scan(final File root, final Callback callback) {
+        cancelled.set(false);
+        scanInternal(root, callback);
+    }
+
+    private void scanInternal(final File root, final Callback callback) {
+        if (root == null || !root.isDirectory() || !root.canRead()) {
+            return;
+        }
+        final Callback serialized = new Callback() {
+            @Override
+            public synchronized void onFileFound(File file) {
+                callback.onFileFound(file);
+            }
+        };
+        if (threadCount <= 1 || !canDescend(0)) {
+            scanDepthFirst(root, serialized);
+        } else {
+            scanParallel(root, serialized);
+        }
+    }
+
+    public List<File> scan(final File root) {
+        final List<File> result = new ArrayList<>();
+        scan(root, new Callback() {
+            @Override
+            public void onFileFound(File file) {
+                result.add(file);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Scans on a background thread, handing matches over through a bounded queue.
+     * Call {@link #cancel()} if the iterator is abandoned before it is exhausted.
+     */
+    public Iterator<File> iterator(final File root) {
+        final ScanIterator iterator = new ScanIterator(DEFAULT_ITERATOR_CAPACITY);
+        cancelled.set(false);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanInternal(root, new Callback() {
+                        @Override
+                        public void onFileFound(File file) {
+                            iterator.put(file);
+                        }
+                    });
+                } finally {
+                    iterator.put(iterator.end);
+                }
+            }
+        }, TAG + "-iterator");
+        producer.setDaemon(true);
+        producer.start();
+        return iterator;
+    }
+
+    private boolean canDescend(int depth) {
+        return recursive && (maxDepth == UNLIMITED_DEPTH || depth < maxDepth);
+    }
+
+    private void scanDepthFirst(File root, Callback callback) {
+        final Deque<DirectoryTask> stack = new ArrayDeque<>();
+        TaskSink sink = new TaskSink() {
+            @Override
+            public void add(DirectoryTask task) {
+                stack.push(task);
+            }
+        };
+        stack.push(new DirectoryTask(root, 0));
+        DirectoryTask task;
+        while (!cancelled.get() && (task = stack.poll()) != null) {
+            if (!visit(task, sink, callback)) {
+                return;
+            }
+        }
+    }
+
+    private void scanParallel(File root, final Callback callback) {
+        final int count = threadCount;
+        final List<LinkedBlockingDeque<DirectoryTask>> deques = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            deques.add(new LinkedBlockingDeque<DirectoryTask>());
+        }
+        // directories queued or being listed; the scan is over when it drops to zero
+        final AtomicInteger pending = new AtomicInteger(1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        deques.get(0).addLast(new DirectoryTask(root, 0));
+
+        Thread[] workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final LinkedBlockingDeque<DirectoryTask> own = deques.get(index);
+                    // the owner pops the tail, thieves take from the head
+                    TaskSink sink = new TaskSink() {
+                        @Override
+                        public void add(DirectoryTask task) {
+                            pending.incrementAndGet();
+                            own.addLast(task);
+                        }
+                    };
+                    while (!cancelled.get() && pending.get() > 0) {
+                        DirectoryTask task = own.pollLast();
+                        if (task == null) {
+                            task = steal(deques, index);
+                        }
+                        if (task == null) {
+                            LockSupport.parkNanos(IDLE_PARK_NANOS);
+                            continue;
+                        }
+                        try {
+                            visit(task, sink, callback);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                            cancelled.set(true);
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    }
+                }
+            }, TAG + "-" + i);
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static DirectoryTask steal(List<LinkedBlockingDeque<DirectoryTask>> deques, int thief) {
+        final int count = deques.size();
+        for (int i = 1; i < count; i++) {
+            DirectoryTask task = deques.get((thief + i) % count).pollFirst();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the walk was interrupted and should stop
+     */
+    private boolean visit(DirectoryTask task, TaskSink sink, Callback callback) {
+        File[] children;
+        try {
+            openDirectories.acquire();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            children = task.directory.listFiles();
+        } finally {
+            openDirectories.release();
+        }
+        if (children == null) {
+            return true;
+        }
+
+        final boolean descend = canDescend(task.depth);
+        for (File child : children) {
+            if (cancelled.get()) {
+                return false;
+            }
+            final String name = child.getName();
+            // same rule File.isHidden() applies on unix, without going through the file system
+            if (!includeHidden && name.startsWith(".")) {
+                continue;
+            }
+            final boolean keyMatches = nameKey == null || name.contains(nameKey);
+            final boolean extensionMatches = extensionFilters == null
+                    || extensionFilters.contains(FileUtils.getFileExtension(name));
+            if (!descend && !(keyMatches && (extensionMatches || includeDirectories))) {
+                // nothing to report and nothing to walk into, skip the stat calls
+                continue;
+            }
+            if (child.isDirectory()) {
+                if (includeDirectories && keyMatches && accept(child, true)) {
+                    callback.onFileFound(child);
+                }
+                if (descend) {
+                    sink.add(new DirectoryTask(child, task.depth + 1));
+                }
+            } else if (keyMatches && extensionMatches && child.isFile() && accept(child, false)) {
+                callback.onFileFound(child);
+            }
+        }
+        return true;
+    }
+
+    private boolean accept(File file, boolean isDirectory) {
+        return filter == null || filter.accept(file, isDirectory);
+    }
+
+    private static class DirectoryTask {
+        final File directory;
+        final int depth;
+
+        DirectoryTask(File directory, int depth) {
+            this.directory = directory;
+            this.depth = depth;
+        }
+    }
+
+    private interface TaskSink {
+        void add(DirectoryTask task);
+    }
+
+    private class ScanIterator implements Iterator<File> {
+        final File end = new File("");
+
+        private final BlockingQueue<File> queue;
+        private File next;
+        private boolean finished;
+
+        ScanIterator(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void put(File file) {
+            try {
+                while (!queue.offer(file, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (cancelled.get()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                Log.w(TAG, e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                File file;
+                do {
+                    file = queue.poll(OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } while (file == null && !cancelled.get());
+                if (file == null || file == end) {
+                    finished = true;
+                    return false;
+                }
+                next = file;
+                return true;
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                finished = true;
+                return false;
+            }
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File file = next;
+            next = null;
+            return file;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -14,18 +14,28 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.security.MessageDigest;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 public class FileUtils {
     private static final String TAG = FileUtils.class.getSimpleName();
+    static final Charset UTF8 = Charset.forName("utf-8");
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
 
     public static boolean fileExist(final String path) {
         File file = new File(path);
@@ -65,23 +75,22 @@ public class FileUtils {
     }
 
     public static void collectFiles(final String parentPath, final Set<String> extensionFilters, boolean recursive, final List<String> fileList) {
-        File parent = new File(parentPath);
-        File[] files = parent.listFiles();
-        if (files == null) {
+        final File parent = new File(parentPath);
+        final FileIndex index = FileIndex.find(parent);
+        if (index != null) {
+            index.refreshIfNotWatching();
+            index.collectFiles(parent, extensionFilters, recursive, fileList);
             return;
         }
-        for (File file : files) {
-            if (file.isHidden()) {
-                continue;
-            }
-            final String absolutePath = file.getAbsolutePath();
-            final String extension = getFileExtension(absolutePath);
-            if (file.isFile() && extensionFilters.contains(extension)) {
-                fileList.add(absolutePath);
-            } else if (file.isDirectory() && recursive) {
-                collectFiles(absolutePath, extensionFilters, recursive, fileList);
-            }
-        }
+        new FileScanner()
+                .setExtensionFilters(extensionFilters)
+                .setRecursive(recursive)
+                .scan(parent, new FileScanner.Callback() {
+                    @Override
+                    public void onFileFound(File file) {
+                        fileList.add(file.getAbsolutePath());
+                    }
+                });
     }
 
     public static String getParent(final String path) {
@@ -177,33 +186,134 @@ public class FileUtils {
     }
 
     public static boolean saveContentToFile(String content, File fileForSave) {
-        boolean succeed = true;
-        FileOutputStream out = null;
         try {
-            out = new FileOutputStream(fileForSave);
-            out.write(content.getBytes("utf-8"));
+            writeContent(content, fileForSave, false);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
-            succeed = false;
-        } finally {
-            closeQuietly(out);
+            return false;
         }
-        return succeed;
     }
 
     public static boolean appendContentToFile(String content, File fileForSave) {
-        boolean succeed = true;
-        FileOutputStream out = null;
         try {
-            out = new FileOutputStream(fileForSave, true);
-            out.write(content.getBytes("utf-8"));
+            writeContent(content, fileForSave, true);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
-            succeed = false;
+            return false;
+        }
+    }
+
+    /**
+     * Maps the whole file read only. Nothing is copied onto the java heap, pages are faulted in
+     * as the buffer is read.
+     */
+    public static MappedByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Reads the whole file into a buffer taken from pool, flipped and ready to be read.
+     * The caller gives it back with {@link ByteBufferPool#release(ByteBuffer)}.
+     */
+    public static ByteBuffer readToBuffer(File file, ByteBufferPool pool) throws IOException {
+        FileInputStream in = null;
+        ByteBuffer buffer = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + file);
+            }
+            buffer = pool.acquire((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Decodes the whole utf-8 file straight from its mapping, the returned CharBuffer is the
+     * only allocation. Line terminators are kept.
+     */
+    public static CharBuffer readCharSequence(File file) throws IOException {
+        return newUtf8Decoder().decode(mapFile(file));
+    }
+
+    /**
+     * Lazily reads the utf-8 file line by line, each line keeping its "\n", "\r\n" or "\r"
+     * terminator. The iterator must be closed.
+     */
+    public static LineIterator lineIterator(File file) throws IOException {
+        return new LineIterator(new FileInputStream(file));
+    }
+
+    public static void writeBuffer(ByteBuffer buffer, File file, boolean append) throws IOException {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file, append);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
         } finally {
             closeQuietly(out);
         }
-        return succeed;
+    }
+
+    /**
+     * Encodes content as utf-8 through a pooled chunk buffer, without materializing the whole
+     * encoded byte[].
+     */
+    public static void writeContent(CharSequence content, File file, boolean append) throws IOException {
+        ByteBufferPool pool = ByteBufferPool.getDefault();
+        ByteBuffer chunk = pool.acquire(STREAM_CHUNK_SIZE);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file, append);
+            FileChannel channel = out.getChannel();
+            CharsetEncoder encoder = UTF8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.wrap(content);
+            // encode with endOfInput once even for empty content, flush() throws otherwise
+            boolean encoded = false;
+            boolean flushed = false;
+            while (!flushed) {
+                CoderResult result = encoded ? encoder.flush(chunk) : encoder.encode(chars, chunk, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isUnderflow()) {
+                    flushed = encoded;
+                    encoded = true;
+                }
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                chunk.clear();
+            }
+        } finally {
+            closeQuietly(out);
+            pool.release(chunk);
+        }
     }
 
     public static boolean saveContentToFile(final byte[] data, final File fileForSave) {
@@ -262,24 +372,7 @@ public class FileUtils {
         }
 
         byte[] digest_buffer = getDigestBuffer(file);
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        md.update(digest_buffer);
-        byte[] out = md.digest();
-
-        final char hex_digits[] = {
-                '0', '1', '2', '3',
-                '4', '5', '6', '7',
-                '8', '9', 'a', 'b',
-                'c', 'd', 'e', 'f' };
-
-        char str[] = new char[out.length * 2];
-        for (int i = 0; i < out.length; i++) {
-            int j = i << 1;
-            str[j] = hex_digits[(out[i] >> 4) & 0x0F];
-            str[j + 1] = hex_digits[out[i] & 0x0F];
-        }
-
-        return String.valueOf(str);
+        return hexToString(FileHasher.hash(digest_buffer, FileHasher.Algorithm.MD5));
     }
 
     public static byte[] getDigestBuffer(File file) throws IOException {
@@ -316,23 +409,11 @@ public class FileUtils {
     }
 
     public static String computeFullMD5Checksum(File file) throws IOException, NoSuchAlgorithmException {
-        InputStream fis = null;
-        try {
-            fis = new FileInputStream(file);
-            byte[] buffer = new byte[64 * 1024];
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            int numRead;
-            do {
-                numRead = fis.read(buffer);
-                if (numRead > 0) {
-                    md.update(buffer, 0, numRead);
-                }
-            } while (numRead != -1);
-
-            return hexToString(md.digest());
-        } finally {
-            FileUtils.closeQuietly(fis);
+        ChecksumCache cache = ChecksumCache.getDefault();
+        if (cache != null) {
+            return cache.getChecksum(file, FileHasher.Algorithm.MD5);
         }
+        return FileHasher.hashToString(file, FileHasher.Algorithm.MD5);
     }
 
     public static String hexToString(byte[] out) {
@@ -393,26 +474,22 @@ public class FileUtils {
         findFileByKey(fileList, Environment.getExternalStorageDirectory(), searchKey);
     }
 
-    public static void findFileByKey(List<File> fileList, File targetDir, String searchKey) {
-        if (!targetDir.canRead()) {
+    public static void findFileByKey(final List<File> fileList, File targetDir, String searchKey) {
+        final FileIndex index = FileIndex.find(targetDir);
+        if (index != null) {
+            index.refreshIfNotWatching();
+            index.findFileByKey(fileList, targetDir, searchKey);
             return;
         }
-        for (File temp : targetDir.listFiles()) {
-            if (temp.isHidden()) {
-                continue;
-            }
-            if (temp.isDirectory()) {
-                if (temp.getName().contains(searchKey)) {
-                    fileList.add(temp);
-                }
-                findFileByKey(fileList, temp, searchKey);
-            }
-            if (temp.isFile()) {
-                if (temp.getName().contains(searchKey)) {
-                    fileList.add(temp);
-                }
-            }
-        }
+        new FileScanner()
+                .setNameKey(searchKey)
+                .setIncludeDirectories(true)
+                .scan(targetDir, new FileScanner.Callback() {
+                    @Override
+                    public void onFileFound(File file) {
+                        fileList.add(file);
+                    }
+                });
     }
 
     public static String fixNotAllowFileName(String fileName) {
@@ -484,4 +561,132 @@ public class FileUtils {
         outStream.close();
         out.close();
     }
-}
\ No newline at end of file
+
+    private static CharsetDecoder newUtf8Decoder() {
+        return UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public static class LineIterator implements Iterator<String>, Closeable {
+        private final FileInputStream in;
+        private final FileChannel channel;
+        private final CharsetDecoder decoder = newUtf8Decoder();
+        private final ByteBuffer bytes;
+        private final CharBuffer chars = CharBuffer.allocate(STREAM_CHUNK_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private boolean endOfInput = false;
+        private boolean pendingCarriageReturn = false;
+        private boolean closed = false;
+        private String next;
+
+        LineIterator(FileInputStream in) {
+            this.in = in;
+            this.channel = in.getChannel();
+            this.bytes = ByteBufferPool.getDefault().acquire(STREAM_CHUNK_SIZE);
+            chars.limit(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (next == null) {
+                try {
+                    next = readLine();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Releases the buffer to the pool once; the iterator then has no more lines.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            next = null;
+            closeQuietly(in);
+            ByteBufferPool.getDefault().release(bytes);
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            while (true) {
+                if (!chars.hasRemaining() && !fill()) {
+                    return line.length() > 0 ? line.toString() : null;
+                }
+                if (pendingCarriageReturn) {
+                    pendingCarriageReturn = false;
+                    if (chars.get(chars.position()) == '\n') {
+                        chars.get();
+                        line.append('\n');
+                    }
+                    return line.toString();
+                }
+                final char[] array = chars.array();
+                final int start = chars.position();
+                final int end = chars.limit();
+                for (int i = start; i < end; i++) {
+                    char c = array[i];
+                    if (c == '\n' || c == '\r') {
+                        line.append(array, start, i + 1 - start);
+                        chars.position(i + 1);
+                        if (c == '\n') {
+                            return line.toString();
+                        }
+                        // a "\n" may follow in the next chunk
+                        pendingCarriageReturn = true;
+                        break;
+                    }
+                }
+                if (!pendingCarriageReturn) {
+                    line.append(array, start, end - start);
+                    chars.position(end);
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (endOfInput) {
+                return false;
+            }
+            chars.clear();
+            while (chars.position() == 0 && !endOfInput) {
+                endOfInput = channel.read(bytes) < 0;
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                bytes.compact();
+                if (endOfInput) {
+                    decoder.flush(chars);
+                }
+            }
+            chars.flip();
+            return chars.hasRemaining();
+        }
+    }
+}
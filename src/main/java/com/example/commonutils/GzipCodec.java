@@ -0,0 +1,136 @@
+package com.example.commonutils;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * gzip (RFC 1952) framing around raw deflate from {@link DeflateCodec}, for payloads that are
+ * handed to tools or servers expecting gzip. Decompression reads a single member and checks its
+ * CRC32 and size.
+ */
+public class GzipCodec implements CompressionCodec {
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FLAG_HCRC = 0x02;
+    private static final int FLAG_EXTRA = 0x04;
+    private static final int FLAG_NAME = 0x08;
+    private static final int FLAG_COMMENT = 0x10;
+    private static final byte OS_UNKNOWN = (byte) 0xFF;
+    // deflate expands at most about 1032 fold
+    private static final int MAX_EXPANSION = 1032;
+    // larger sizes from the trailer are not trusted with an allocation, the output grows instead
+    private static final int MAX_PREALLOCATED_SIZE = 4 * 1024 * 1024;
+
+    private final DeflateCodec deflate;
+
+    public GzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public GzipCodec(int level) {
+        deflate = new DeflateCodec(level, Deflater.DEFAULT_STRATEGY, true);
+    }
+
+    @Override
+    public byte getId() {
+        return CompressionCodecs.ID_GZIP;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        byte[] body = deflate.compress(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        byte[] output = new byte[HEADER_SIZE + body.length + TRAILER_SIZE];
+        output[0] = 0x1F;
+        output[1] = (byte) 0x8B;
+        output[2] = 8; // deflate
+        output[9] = OS_UNKNOWN;
+        System.arraycopy(body, 0, output, HEADER_SIZE, body.length);
+        int position = HEADER_SIZE + body.length;
+        writeIntLE(output, position, (int) crc.getValue());
+        writeIntLE(output, position + 4, length);
+        return output;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+        int end = offset + length;
+        if (length < HEADER_SIZE + TRAILER_SIZE || data[offset] != 0x1F || data[offset + 1] != (byte) 0x8B
+                || data[offset + 2] != 8) {
+            throw new DataFormatException("not in gzip format");
+        }
+        int flags = data[offset + 3] & 0xFF;
+        int position = offset + HEADER_SIZE;
+        if ((flags & FLAG_EXTRA) != 0) {
+            checkAvailable(position + 2, end);
+            position += 2 + ((data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8);
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            position = skipZeroTerminated(data, position, end);
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            position = skipZeroTerminated(data, position, end);
+        }
+        if ((flags & FLAG_HCRC) != 0) {
+            position += 2;
+        }
+        checkAvailable(position + TRAILER_SIZE, end);
+        int expectedCrc = readIntLE(data, end - 8);
+        int size = readIntLE(data, end - 4);
+        if (size < 0) {
+            throw new DataFormatException("unsupported gzip size " + (size & 0xFFFFFFFFL));
+        }
+        int bodyLength = end - TRAILER_SIZE - position;
+        // reject sizes the body cannot produce before allocating
+        if (size > (long) bodyLength * MAX_EXPANSION) {
+            throw new DataFormatException("corrupt gzip size " + size);
+        }
+        byte[] result;
+        if (size <= MAX_PREALLOCATED_SIZE) {
+            result = new byte[size];
+            int written = deflate.decompress(data, position, bodyLength, result, 0, size);
+            if (written != size) {
+                throw new DataFormatException("decompressed " + written + " bytes, expected " + size);
+            }
+        } else {
+            result = deflate.decompress(data, position, bodyLength);
+            if (result.length != size) {
+                throw new DataFormatException("decompressed " + result.length + " bytes, expected " + size);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new DataFormatException("gzip crc mismatch");
+        }
+        return result;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int position, int end) throws DataFormatException {
+        while (position < end && data[position] != 0) {
+            position++;
+        }
+        checkAvailable(position + 1, end);
+        return position + 1;
+    }
+
+    private static void checkAvailable(int position, int end) throws DataFormatException {
+        if (position > end) {
+            throw new DataFormatException("truncated gzip header");
+        }
+    }
+
+    private static void writeIntLE(byte[] data, int position, int value) {
+        data[position] = (byte) value;
+        data[position + 1] = (byte) (value >>> 8);
+        data[position + 2] = (byte) (value >>> 16);
+        data[position + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readIntLE(byte[] data, int position) {
+        return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8
+                | (data[position + 2] & 0xFF) << 16 | (data[position + 3] & 0xFF) << 24;
+    }
+}
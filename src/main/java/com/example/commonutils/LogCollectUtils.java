@@ -11,10 +11,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class LogCollectUtils {
     public static final SimpleDateFormat DATE_FORMAT_YYYY_MM_DD_HHMMSS = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.getDefault());
@@ -96,6 +98,15 @@ public class LogCollectUtils {
     public static final String OUTPUT_FILE_TXT_EXTENSION = ".txt";
     public static final String OUTPUT_FILE_ZIP_EXTENSION = ".zip";
 
+    public static final int PRIORITY_LOGCAT = 100;
+    public static final int PRIORITY_ANR = 90;
+    public static final int PRIORITY_KERNEL = 80;
+    public static final int PRIORITY_WAKEUP_REASONS = 70;
+    public static final int PRIORITY_KMSG = 60;
+    public static final int PRIORITY_ADDITIONAL = 50;
+    public static final int PRIORITY_DUMPSYS_SPECIFY = 40;
+    public static final int PRIORITY_DUMPSYS = 10;
+
     public static final String[] COMMAND_LOGCAT_SET = new String[]{
             PROGRAM_EXEC_LOGCAT_GET_NOTE,
             PROGRAM_EXEC_CAT_LINUX_VERSION,
@@ -155,62 +166,106 @@ public class LogCollectUtils {
         return logcatFile;
     }
 
-    // must in work workThread
-    public static File generateFeedBackFile(final Context context, List<String> additionalPathList) {
+    /**
+     * @return a collector for the regular command sets, one zip entry per command
+     */
+    public static DiagnosticCollector newRegularCollector() {
+        return new DiagnosticCollector()
+                .addCommandSet(OUTPUT_FILE_LOGCAT_PREFIX, COMMAND_LOGCAT_SET)
+                .addCommandSet(OUTPUT_FILE_KERNEL_PREFIX, COMMAND_KERNEL_SET)
+                .addCommandSet(OUTPUT_FILE_DUMPSYS_PREFIX, COMMAND_DUMPSYS_SET)
+                .addCommandSet(OUTPUT_FILE_DUMPSYS_SPECIFY_PREFIX, COMMAND_DUMPSYS_SPECIFY_SET)
+                .addCommandSet(OUTPUT_FILE_WAKEUP_REASONS_PREFIX, COMMAND_WAKEUP_REASON_SET)
+                .addCommandSet(OUTPUT_FILE_KMSG_PREFIX, COMMAND_KMSG_SET)
+                .addCommandSet(OUTPUT_FILE_ANR_PREFIX, COMMAND_ANR_SET);
+    }
+
+    /**
+     * @return a bundle of the regular command sets, logcat first and the full dumpsys last
+     */
+    public static FeedbackBundleBuilder newRegularBundle(long budgetBytes) {
+        return new FeedbackBundleBuilder()
+                .setBudget(budgetBytes)
+                .addCommandSet(OUTPUT_FILE_LOGCAT_PREFIX, COMMAND_LOGCAT_SET, PRIORITY_LOGCAT)
+                .addCommandSet(OUTPUT_FILE_KERNEL_PREFIX, COMMAND_KERNEL_SET, PRIORITY_KERNEL)
+                .addCommandSet(OUTPUT_FILE_DUMPSYS_PREFIX, COMMAND_DUMPSYS_SET, PRIORITY_DUMPSYS)
+                .addCommandSet(OUTPUT_FILE_DUMPSYS_SPECIFY_PREFIX, COMMAND_DUMPSYS_SPECIFY_SET, PRIORITY_DUMPSYS_SPECIFY)
+                .addCommandSet(OUTPUT_FILE_WAKEUP_REASONS_PREFIX, COMMAND_WAKEUP_REASON_SET, PRIORITY_WAKEUP_REASONS)
+                .addCommandSet(OUTPUT_FILE_KMSG_PREFIX, COMMAND_KMSG_SET, PRIORITY_KMSG)
+                .addCommandSet(OUTPUT_FILE_ANR_PREFIX, COMMAND_ANR_SET, PRIORITY_ANR);
+    }
+
+    /**
+     * Like {@link #generateFeedBackFile(Context, List)}, but the zip stays within budgetBytes,
+     * lower priority output is cut off or left out first. See
+     * {@link FeedbackBundleBuilder#MANIFEST_NAME} in the zip for what was included.
+     * must in work workThread
+     */
+    public static File generateFeedBackFile(final Context context, List<String> additionalPathList, long budgetBytes) {
         File zipFile = null;
-        List<File> compressFilesList = null;
         try {
-            compressFilesList = buildRegularFeedbackFileList(context);
+            FeedbackBundleBuilder builder = newRegularBundle(budgetBytes);
             if (additionalPathList != null && additionalPathList.size() > 0) {
-                compressFilesList.addAll(buildAdditionalFeedbackFileList(context, additionalPathList));
+                for (Map.Entry<String, File> additional : collectAdditionalFiles(additionalPathList).entrySet()) {
+                    builder.addFile(additional.getValue(), additional.getKey(), PRIORITY_ADDITIONAL);
+                }
             }
             String fileName = getFileNameBasedOnDate(OUTPUT_FILE_ZIP_PREFIX, OUTPUT_FILE_ZIP_EXTENSION);
             zipFile = new File(context.getFilesDir(), fileName);
-            boolean isSuccess = ZipUtils.compress(compressFilesList, zipFile);
-            if (!isSuccess) {
-                return null;
-            }
+            builder.build(zipFile);
         } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            deleteFiles(compressFilesList);
+            Log.e("feedback", "fail", e);
+            return null;
         }
         return zipFile;
     }
 
-    private static List<File> buildAdditionalFeedbackFileList(Context context, List<String> pathList) {
-        List<File> resultList = new ArrayList<>();
-        for (String path : pathList) {
-            File file = new File(path);
-            try {
-                for (File subFile : getAllSubFile(file)) {
-                    FileUtils.copyToDestinationDirectory(subFile, context.getFilesDir().getPath(),
-                            File.separator + subFile.getName());
-                    resultList.add(new File(context.getFilesDir() + File.separator + subFile.getName()));
+    // must in work workThread
+    public static File generateFeedBackFile(final Context context, List<String> additionalPathList) {
+        File zipFile = null;
+        try {
+            DiagnosticCollector collector = newRegularCollector();
+            if (additionalPathList != null && additionalPathList.size() > 0) {
+                for (Map.Entry<String, File> additional : collectAdditionalFiles(additionalPathList).entrySet()) {
+                    collector.addFile(additional.getValue(), additional.getKey());
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+            String fileName = getFileNameBasedOnDate(OUTPUT_FILE_ZIP_PREFIX, OUTPUT_FILE_ZIP_EXTENSION);
+            zipFile = new File(context.getFilesDir(), fileName);
+            collector.collect(zipFile);
+        } catch (Exception e) {
+            Log.e("feedback", "fail", e);
+            return null;
         }
-        return resultList;
+        return zipFile;
     }
 
-    private static List<File> getAllSubFile(File file) {
-        List<File> resultList = new ArrayList<>();
-        filePermissionDetect(file, 200, 2);
-        File[] folderSubItems = file.listFiles();
-        if (file.isDirectory() && folderSubItems != null) {
-            for (File subFile : folderSubItems) {
-                if (subFile.isDirectory()) {
-                    resultList.addAll(getAllSubFile(subFile));
-                } else {
-                    resultList.add(subFile);
+    /**
+     * Files under each path, keyed by their entry name: the path relative to the parent of the
+     * listed path, e.g. "logs/2018/app.log" for /sdcard/app/logs. They are zipped where they are,
+     * without a temporary copy.
+     */
+    private static Map<String, File> collectAdditionalFiles(List<String> pathList) {
+        Map<String, File> result = new LinkedHashMap<>();
+        FileScanner scanner = new FileScanner().setIncludeHidden(true).setThreadCount(1);
+        for (String path : pathList) {
+            File root = new File(path);
+            filePermissionDetect(root, 200, 2);
+            String base = root.getAbsoluteFile().getParent();
+            int baseLength = base == null ? 0 : base.length() + (base.endsWith(File.separator) ? 0 : 1);
+            List<File> files = root.isDirectory() ? scanner.scan(root) : Collections.singletonList(root);
+            for (File file : files) {
+                if (!file.isFile() || !file.canRead()) {
+                    Log.w("feedback", "skip unreadable " + file);
+                    continue;
+                }
+                String name = file.getAbsolutePath().substring(baseLength).replace(File.separatorChar, '/');
+                if (!result.containsKey(name)) {
+                    result.put(name, file);
                 }
             }
-        } else if (file.isFile()) {
-            resultList.add(file);
         }
-        return resultList;
+        return result;
     }
 
     /**
@@ -227,34 +282,4 @@ public class LogCollectUtils {
             }
         }
     }
-
-    private static List<File> buildRegularFeedbackFileList(Context context) throws IOException {
-        List<File> resultList = new ArrayList<>();
-        //logcat files
-        resultList.add(generateExceptionFile(context, COMMAND_LOGCAT_SET, OUTPUT_FILE_LOGCAT_PREFIX));
-        //kernel files
-        resultList.add(generateExceptionFile(context, COMMAND_KERNEL_SET, OUTPUT_FILE_KERNEL_PREFIX));
-        //dumpsys files
-        resultList.add(generateExceptionFile(context, COMMAND_DUMPSYS_SET, OUTPUT_FILE_DUMPSYS_PREFIX));
-        //dumpsysSpecify file
-        resultList.add(generateExceptionFile(context, COMMAND_DUMPSYS_SPECIFY_SET, OUTPUT_FILE_DUMPSYS_SPECIFY_PREFIX));
-        //wakeupReasons file
-        resultList.add(generateExceptionFile(context, COMMAND_WAKEUP_REASON_SET, OUTPUT_FILE_WAKEUP_REASONS_PREFIX));
-        //kmsg files
-        resultList.add(generateExceptionFile(context, COMMAND_KMSG_SET, OUTPUT_FILE_KMSG_PREFIX));
-        //anr files
-        resultList.add(generateExceptionFile(context, COMMAND_ANR_SET, OUTPUT_FILE_ANR_PREFIX));
-        return resultList;
-    }
-
-    private static void deleteFiles(List<File> files) {
-        if (files == null || files.size() <= 0) {
-            return;
-        }
-        for (File file : files) {
-            if (file != null && file.exists()) {
-                FileUtils.deleteQuietly(file);
-            }
-        }
-    }
 }
@@ -23,104 +23,150 @@ package com.example.commonutils;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 public class LogUtils {
 
     public final static String LOGTAG = "LogUtils";
     public final static boolean DEBUG = "eng".equals(Build.TYPE) || "userdebug".equals(Build.TYPE);
 
-    public static void v(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.VERBOSE)) {
-            Log.v(LOGTAG, args == null || args.length == 0
-                    ? message : String.format(message, args));
+    private static final int SUPPRESS = Log.ASSERT + 1;
+    private static final String NO_TAG = "";
+
+    /**
+     * Lowest enabled level by tag. Log.isLoggable reads a system property on every call, so it
+     * is asked once per tag until {@link #clearLevelCache()}.
+     */
+    private static final ConcurrentHashMap<String, Integer> sLevels = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> sLevelOverrides = new ConcurrentHashMap<>();
+    private static volatile AsyncLogger sBackend;
+
+    /**
+     * Routes logging through backend, formatting and output then happen on its consumer
+     * thread. Pass null to log synchronously to logcat again.
+     */
+    public static void setBackend(AsyncLogger backend) {
+        sBackend = backend;
+    }
+
+    public static AsyncLogger getBackend() {
+        return sBackend;
+    }
+
+    /**
+     * Enables tag from level up regardless of the log properties, null for untagged calls.
+     */
+    public static void setLevel(String tag, int level) {
+        sLevelOverrides.put(tag == null ? NO_TAG : tag, level);
+        sLevels.remove(tag == null ? NO_TAG : tag);
+    }
+
+    /**
+     * Re-reads the log properties, e.g. after "setprop log.tag.LogUtils".
+     */
+    public static void clearLevelCache() {
+        sLevels.clear();
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        String key = tag == null ? NO_TAG : tag;
+        Integer minLevel = sLevels.get(key);
+        if (minLevel == null) {
+            minLevel = computeLevel(key);
+            sLevels.put(key, minLevel);
         }
+        return level >= minLevel;
     }
 
-    public static void v(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.VERBOSE)) {
-            Log.v(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
+    private static int computeLevel(String key) {
+        Integer override = sLevelOverrides.get(key);
+        if (override != null) {
+            return override;
+        }
+        if (DEBUG) {
+            return Log.VERBOSE;
         }
+        for (int level = Log.VERBOSE; level <= Log.ASSERT; level++) {
+            if (Log.isLoggable(LOGTAG, level)) {
+                return level;
+            }
+        }
+        return SUPPRESS;
     }
 
-    public static void d(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.DEBUG)) {
-            Log.d(LOGTAG, args == null || args.length == 0 ? message
-                    : String.format(message, args));
+    private static void log(int level, String tag, String message, Object[] args, Throwable throwable) {
+        if (!isLoggable(tag, level)) {
+            return;
         }
+        AsyncLogger backend = sBackend;
+        if (backend != null) {
+            backend.log(level, tag, message, args, throwable);
+            return;
+        }
+        String fullTag = tag == null ? LOGTAG : LOGTAG + "/" + tag;
+        String text = args == null || args.length == 0 ? message : String.format(message, args);
+        if (level == Log.ASSERT) {
+            Log.wtf(fullTag, text, throwable);
+        } else if (throwable != null) {
+            Log.println(level, fullTag, text + '\n' + Log.getStackTraceString(throwable));
+        } else {
+            Log.println(level, fullTag, text);
+        }
+    }
+
+    public static void v(String message, Object... args) {
+        log(Log.VERBOSE, null, message, args, null);
+    }
+
+    public static void v(String tag, String message, Object... args) {
+        log(Log.VERBOSE, tag, message, args, null);
+    }
+
+    public static void d(String message, Object... args) {
+        log(Log.DEBUG, null, message, args, null);
     }
 
     public static void d(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.DEBUG)) {
-            Log.d(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.DEBUG, tag, message, args, null);
     }
 
     public static void i(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.INFO)) {
-            Log.i(LOGTAG, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.INFO, null, message, args, null);
     }
 
     public static void i(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.INFO)) {
-            Log.i(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.INFO, tag, message, args, null);
     }
 
     public static void w(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.WARN)) {
-            Log.w(LOGTAG, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.WARN, null, message, args, null);
     }
 
     public static void w(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.WARN)) {
-            Log.w(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.WARN, tag, message, args, null);
     }
 
     public static void e(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ERROR)) {
-            Log.e(LOGTAG, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.ERROR, null, message, args, null);
     }
 
     public static void e(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ERROR)) {
-            Log.e(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.ERROR, tag, message, args, null);
     }
 
     public static void e(String message, Exception e) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ERROR)) {
-            Log.e(LOGTAG, message, e);
-        }
+        log(Log.ERROR, null, message, null, e);
     }
 
     public static void e(String tag, String message, Exception e) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ERROR)) {
-            Log.e(LOGTAG + "/" + tag, message, e);
-        }
+        log(Log.ERROR, tag, message, null, e);
     }
 
     public static void wtf(String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ASSERT)) {
-            Log.wtf(LOGTAG, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.ASSERT, null, message, args, null);
     }
 
     public static void wtf(String tag, String message, Object... args) {
-        if (DEBUG || Log.isLoggable(LOGTAG, Log.ASSERT)) {
-            Log.wtf(LOGTAG + "/" + tag, args == null || args.length == 0 ? message
-                    : String.format(message, args));
-        }
+        log(Log.ASSERT, tag, message, args, null);
     }
 }
@@ -0,0 +1,29 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+/**
+ * Writes {@link AsyncLogger} records to logcat.
+ */
+public class LogcatSink implements AsyncLogger.Sink {
+    @Override
+    public void write(AsyncLogger.Record record) {
+        Throwable throwable = record.getThrowable();
+        if (record.getLevel() >= Log.ASSERT) {
+            Log.wtf(record.getTag(), record.getMessage(), throwable);
+        } else if (throwable == null) {
+            Log.println(record.getLevel(), record.getTag(), record.getMessage());
+        } else {
+            Log.println(record.getLevel(), record.getTag(),
+                    record.getMessage() + '\n' + Log.getStackTraceString(throwable));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.commonutils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Pure Java LZ4 block codec, for payloads where speed matters more than ratio, e.g. logs that
+ * are compressed on the device and read rarely.
+ * <p>
+ * The body is the decompressed length as a varint followed by one block in the LZ4 block
+ * format, without the LZ4 frame header or checksums. Matches are found through a single probe
+ * hash table, which is several times faster than deflate at a lower ratio.
+ */
+public class Lz4Codec implements CompressionCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int MAX_HASH_LOG = 14;
+    private static final int MIN_HASH_LOG = 8;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> sHashTable = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << MAX_HASH_LOG];
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return CompressionCodecs.ID_LZ4;
+    }
+
+    /**
+     * Upper bound of the compressed body size of length bytes.
+     */
+    public static int maxCompressedLength(int length) {
+        return 5 + length + length / 255 + 16;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        byte[] output = new byte[maxCompressedLength(length)];
+        int op = writeVarInt(output, 0, length);
+        op = compressBlock(data, offset, length, output, op);
+        return Arrays.copyOf(output, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+        int end = offset + length;
+        int size = 0;
+        int shift = 0;
+        int ip = offset;
+        while (true) {
+            if (ip >= end || shift > 28) {
+                throw new DataFormatException("corrupt length header");
+            }
+            int b = data[ip++];
+            size |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        // a block expands at most 255 fold, reject lengths it cannot produce before allocating
+        if (size < 0 || size > (long) (end - ip) * 255 + MF_LIMIT) {
+            throw new DataFormatException("corrupt length header");
+        }
+        byte[] dest = new byte[size];
+        int written = decompressBlock(data, ip, end - ip, dest, 0, size);
+        if (written != size) {
+            throw new DataFormatException("decompressed " + written + " bytes, expected " + size);
+        }
+        return dest;
+    }
+
+    /**
+     * Compresses src into dest at destOffset, which needs room for
+     * {@link #maxCompressedLength(int)} bytes.
+     *
+     * @return the position in dest after the block
+     */
+    static int compressBlock(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset) {
+        final int srcEnd = srcOffset + srcLength;
+        int op = destOffset;
+        int anchor = srcOffset;
+        if (srcLength >= MF_LIMIT + 1) {
+            int hashLog = Math.max(MIN_HASH_LOG, Math.min(MAX_HASH_LOG, 32 - Integer.numberOfLeadingZeros(srcLength)));
+            int hashShift = 32 - hashLog;
+            int[] table = sHashTable.get();
+            Arrays.fill(table, 0, 1 << hashLog, -1);
+            final int matchStartLimit = srcEnd - MF_LIMIT;
+            final int matchEndLimit = srcEnd - LAST_LITERALS;
+
+            int ip = srcOffset;
+            int searchMisses = 1 << SKIP_TRIGGER;
+            while (ip < matchStartLimit) {
+                int sequence = readInt(src, ip);
+                int h = (sequence * -1640531535) >>> hashShift;
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // step further ahead the longer nothing matched, as incompressible data does
+                    ip += searchMisses++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchMisses = 1 << SKIP_TRIGGER;
+                while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchEndLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+                ip += matchLength;
+                anchor = ip;
+                if (ip - 2 < matchStartLimit) {
+                    table[(readInt(src, ip - 2) * -1640531535) >>> hashShift] = ip - 2;
+                }
+            }
+        }
+        int literals = srcEnd - anchor;
+        op = writeLength(dest, op, literals, 0);
+        System.arraycopy(src, anchor, dest, op, literals);
+        return op + literals;
+    }
+
+    /**
+     * @return number of bytes written into dest
+     * @throws DataFormatException if the block is corrupt or does not fit into dest
+     */
+    static int decompressBlock(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength)
+            throws DataFormatException {
+        final int srcEnd = srcOffset + srcLength;
+        final int destEnd = destOffset + destLength;
+        int ip = srcOffset;
+        int op = destOffset;
+        while (ip < srcEnd) {
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DataFormatException("unexpected end of compressed data");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > srcEnd - ip || literals > destEnd - op) {
+                throw new DataFormatException("literal run out of bounds");
+            }
+            System.arraycopy(src, ip, dest, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == srcEnd) {
+                // the last sequence has literals only
+                break;
+            }
+            if (srcEnd - ip < 2) {
+                throw new DataFormatException("unexpected end of compressed data");
+            }
+            int matchOffset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (matchOffset == 0 || matchOffset > op - destOffset) {
+                throw new DataFormatException("match offset out of bounds");
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DataFormatException("unexpected end of compressed data");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > destEnd - op) {
+                throw new DataFormatException("match out of bounds");
+            }
+            int ref = op - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(dest, ref, dest, op, matchLength);
+                op += matchLength;
+            } else {
+                // overlapping copy repeats the last matchOffset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dest[op++] = dest[ref++];
+                }
+            }
+        }
+        return op - destOffset;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int matchOffset, int matchLength,
+                                     byte[] dest, int op) {
+        op = writeLength(dest, op, literals, matchLength - MIN_MATCH);
+        System.arraycopy(src, literalStart, dest, op, literals);
+        op += literals;
+        dest[op++] = (byte) matchOffset;
+        dest[op++] = (byte) (matchOffset >>> 8);
+        int extra = matchLength - MIN_MATCH - 15;
+        if (extra >= 0) {
+            while (extra >= 255) {
+                dest[op++] = (byte) 255;
+                extra -= 255;
+            }
+            dest[op++] = (byte) extra;
+        }
+        return op;
+    }
+
+    /**
+     * Writes the token with the literal length and its extension bytes. The match length
+     * extension follows the offset and is written by the caller.
+     */
+    private static int writeLength(byte[] dest, int op, int literals, int matchCode) {
+        int tokenPosition = op++;
+        int token = Math.min(matchCode, 15);
+        if (literals >= 15) {
+            token |= 15 << 4;
+            int extra = literals - 15;
+            while (extra >= 255) {
+                dest[op++] = (byte) 255;
+                extra -= 255;
+            }
+            dest[op++] = (byte) extra;
+        } else {
+            token |= literals << 4;
+        }
+        dest[tokenPosition] = (byte) token;
+        return op;
+    }
+
+    private static int writeVarInt(byte[] dest, int op, int value) {
+        while ((value & ~0x7F) != 0) {
+            dest[op++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[op++] = (byte) value;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int position) {
+        return (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8
+                | (src[position + 2] & 0xFF) << 16 | (src[position + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.commonutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last lines logged through {@link AsyncLogger} in memory, e.g. to attach recent
+ * history to a crash report without reading logcat.
+ */
+public class MemoryRingSink implements AsyncLogger.Sink {
+    private final String[] lines;
+    private final StringBuilder builder = new StringBuilder(256);
+    private int next = 0;
+    private int count = 0;
+
+    public MemoryRingSink(int capacity) {
+        lines = new String[Math.max(1, capacity)];
+    }
+
+    @Override
+    public void write(AsyncLogger.Record record) {
+        builder.setLength(0);
+        record.appendTo(builder);
+        String line = builder.toString();
+        synchronized (this) {
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            count = Math.min(count + 1, lines.length);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return the retained lines, oldest first
+     */
+    public synchronized List<String> getLines() {
+        List<String> result = new ArrayList<>(count);
+        int start = (next - count + lines.length) % lines.length;
+        for (int i = 0; i < count; i++) {
+            result.add(lines[(start + i) % lines.length]);
+        }
+        return result;
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        for (String line : getLines()) {
+            writer.write(line);
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+}
@@ -181,7 +181,7 @@ public class PackageUtils {
          **/
         StringBuilder command = new StringBuilder().append("LD_LIBRARY_PATH=/vendor/lib:/system/lib pm install ")
                 .append(pmParams == null ? "" : pmParams).append(" ").append(filePath.replace(" ", "\\ "));
-        CommandResult commandResult = ShellUtils.execCommand(command.toString(), !isSystemApplication(context), true);
+        CommandResult commandResult = ShellUtils.execCommandInSession(command.toString(), !isSystemApplication(context), true);
         if (commandResult.successMsg != null
                 && (commandResult.successMsg.contains("Success") || commandResult.successMsg.contains("success"))) {
             return INSTALL_SUCCEEDED;
@@ -379,7 +379,7 @@ public class PackageUtils {
          **/
         StringBuilder command = new StringBuilder().append("LD_LIBRARY_PATH=/vendor/lib:/system/lib pm uninstall")
                 .append(isKeepData ? " -k " : " ").append(packageName.replace(" ", "\\ "));
-        CommandResult commandResult = ShellUtils.execCommand(command.toString(), !isSystemApplication(context), true);
+        CommandResult commandResult = ShellUtils.execCommandInSession(command.toString(), !isSystemApplication(context), true);
         if (commandResult.successMsg != null
                 && (commandResult.successMsg.contains("Success") || commandResult.successMsg.contains("success"))) {
             return DELETE_SUCCEEDED;
@@ -499,7 +499,7 @@ public class PackageUtils {
      * @return
      */
     public static int getInstallLocation() {
-        CommandResult commandResult = ShellUtils.execCommand(
+        CommandResult commandResult = ShellUtils.execCommandInSession(
                 "LD_LIBRARY_PATH=/vendor/lib:/system/lib pm get-install-location", false, true);
         if (commandResult.result == 0 && commandResult.successMsg != null && commandResult.successMsg.length() > 0) {
             try {
@@ -0,0 +1,437 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip whose entries are deflated concurrently.
+ * <p>
+ * Each entry is deflated on a worker into memory, or into a spill file beyond
+ * {@link #setSpillThreshold(int)}, together with its CRC. The calling thread then appends the
+ * finished entries in their original order, with sizes and CRC known up front, and closes the
+ * archive with the central directory. Entries with an already compressed extension are STORED
+ * and copied straight from the source by the calling thread.
+ * <p>
+ * Besides files, any {@link Source} of a stream can be compressed, e.g. the output of a command,
+ * which is then deflated while it is being produced.
+ * <p>
+ * Zip64 is not supported, archives and entries are limited to 4 GB and 65535 entries.
+ */
+public class ParallelZipCompressor {
+    private static final String TAG = ParallelZipCompressor.class.getSimpleName();
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    public static final Set<String> DEFAULT_STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "cbz", "gz", "tgz", "bz2", "xz", "7z", "rar", "cbr", "apk", "jar",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "m4a", "aac", "ogg", "mkv", "epub"));
+
+    /**
+     * Content of one entry, opened on a worker thread.
+     */
+    public interface Source {
+        String getName();
+
+        long getLastModified();
+
+        /**
+         * @return bytes open() will yield, -1 if not known before reading
+         */
+        long getSize();
+
+        InputStream open() throws IOException;
+    }
+
+    private static class FileSource implements Source {
+        final File file;
+        final String name;
+
+        FileSource(File file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getLastModified() {
+            return file.lastModified();
+        }
+
+        @Override
+        public long getSize() {
+            return file.length();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    public static Source fileSource(File file, String name) {
+        return new FileSource(file, name);
+    }
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int bufferSize = 64 * 1024;
+    private int spillThreshold = 4 * 1024 * 1024;
+    private File spillDirectory;
+    private Set<String> storedExtensions = DEFAULT_STORED_EXTENSIONS;
+
+    public ParallelZipCompressor() {
+    }
+
+    public ParallelZipCompressor setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        return this;
+    }
+
+    /**
+     * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 - 9
+     */
+    public ParallelZipCompressor setLevel(int level) {
+        this.level = level;
+        return this;
+    }
+
+    public ParallelZipCompressor setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1024, bufferSize);
+        return this;
+    }
+
+    /**
+     * Deflated entries larger than this are buffered in a temporary file instead of memory.
+     */
+    public ParallelZipCompressor setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+        return this;
+    }
+
+    /**
+     * Directory for spill files, defaults to the directory of the zip being written.
+     */
+    public ParallelZipCompressor setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    /**
+     * Files with these lower case extensions are STORED instead of deflated, null or empty to
+     * deflate everything.
+     */
+    public ParallelZipCompressor setStoredExtensions(Set<String> storedExtensions) {
+        this.storedExtensions = storedExtensions;
+        return this;
+    }
+
+    public void compress(List<File> files, File zipFile) throws IOException {
+        List<String> names = new ArrayList<>(files.size());
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        compress(files, names, zipFile);
+    }
+
+    /**
+     * @param names entry name for each file, '/' separated
+     */
+    public void compress(List<File> files, List<String> names, File zipFile) throws IOException {
+        if (files.size() != names.size()) {
+            throw new IllegalArgumentException("files and names differ in size");
+        }
+        List<Source> sources = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            sources.add(new FileSource(files.get(i), names.get(i)));
+        }
+        compressSources(sources, zipFile);
+    }
+
+    /**
+     * @param sources entries in archive order, names '/' separated
+     */
+    public void compressSources(List<? extends Source> sources, File zipFile) throws IOException {
+        if (sources.size() > ZipWriter.MAX_ZIP32_ENTRIES) {
+            throw new ZipException("too many entries: " + sources.size());
+        }
+        Set<String> seen = new HashSet<>();
+        for (Source source : sources) {
+            if (!seen.add(source.getName())) {
+                throw new ZipException("duplicate entry: " + source.getName());
+            }
+        }
+
+        final int count = sources.size();
+        final int window = threadCount * 2;
+        final File spillDir = spillDirectory != null ? spillDirectory : zipFile.getAbsoluteFile().getParentFile();
+        final List<Future<DeflatedEntry>> futures = new ArrayList<>(count);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, count)));
+        FileOutputStream out = null;
+        boolean succeed = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                futures.add(null);
+            }
+            int submitted = 0;
+            out = new FileOutputStream(zipFile);
+            ZipWriter writer = new ZipWriter(out.getChannel());
+            for (int i = 0; i < count; i++) {
+                // keep at most window entries deflated ahead of the writer
+                for (; submitted < count && submitted < i + window; submitted++) {
+                    if (!isStored(sources.get(submitted))) {
+                        futures.set(submitted, executor.submit(newDeflateTask(sources.get(submitted), spillDir)));
+                    }
+                }
+                Source source = sources.get(i);
+                if (futures.get(i) == null) {
+                    writeStored(writer, ((FileSource) source).file, source.getName());
+                } else {
+                    DeflatedEntry entry = await(futures.get(i));
+                    futures.set(i, null);
+                    try {
+                        writeDeflated(writer, entry, source.getName());
+                    } finally {
+                        entry.release();
+                    }
+                }
+            }
+            writer.finish();
+            succeed = true;
+        } finally {
+            executor.shutdownNow();
+            for (Future<DeflatedEntry> future : futures) {
+                discard(future);
+            }
+            FileUtils.closeQuietly(out);
+            if (!succeed) {
+                FileUtils.deleteQuietly(zipFile);
+            }
+        }
+    }
+
+    private boolean isStored(Source source) {
+        return source instanceof FileSource && storedExtensions != null
+                && storedExtensions.contains(FileUtils.getFileExtension(((FileSource) source).file));
+    }
+
+    private Callable<DeflatedEntry> newDeflateTask(final Source source, final File spillDir) {
+        return new Callable<DeflatedEntry>() {
+            @Override
+            public DeflatedEntry call() throws IOException {
+                return deflate(source, spillDir);
+            }
+        };
+    }
+
+    private DeflatedEntry deflate(Source source, File spillDir) throws IOException {
+        final DeflatedEntry entry = new DeflatedEntry(source.getLastModified(), spillThreshold, spillDir);
+        final byte[] input = new byte[bufferSize];
+        final byte[] output = new byte[bufferSize];
+        final Deflater deflater = new Deflater(level, true);
+        final CRC32 crc = new CRC32();
+        InputStream in = null;
+        try {
+            in = source.open();
+            int read;
+            while ((read = in.read(input)) >= 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("interrupted");
+                }
+                crc.update(input, 0, read);
+                entry.size += read;
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    entry.write(output, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                entry.write(output, deflater.deflate(output));
+            }
+            entry.crc = crc.getValue();
+            entry.finish();
+            return entry;
+        } catch (IOException e) {
+            entry.release();
+            throw e;
+        } finally {
+            deflater.end();
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeDeflated(ZipWriter writer, DeflatedEntry deflated, String name) throws IOException {
+        ZipWriter.Entry entry = new ZipWriter.Entry(name, METHOD_DEFLATED, deflated.lastModified);
+        entry.crc = deflated.crc;
+        entry.size = deflated.size;
+        entry.compressedSize = deflated.compressedSize;
+        writer.begin(entry);
+        deflated.transferTo(writer.getChannel());
+        writer.end(entry, false);
+    }
+
+    /**
+     * Copies the source with a placeholder header and patches size and CRC in afterwards, so the
+     * file is read once and a file that is still growing ends up consistent. Each chunk goes from
+     * the file channel to the zip channel through one buffer.
+     */
+    private void writeStored(ZipWriter writer, File file, String name) throws IOException {
+        ZipWriter.Entry entry = new ZipWriter.Entry(name, METHOD_STORED, file.lastModified());
+        writer.begin(entry);
+        CRC32 crc = new CRC32();
+        byte[] array = new byte[bufferSize];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                crc.update(array, 0, read);
+                buffer.flip();
+                writer.write(buffer);
+                buffer.clear();
+                entry.size += read;
+            }
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = entry.size;
+        writer.end(entry, true);
+    }
+
+    private static DeflatedEntry await(Future<DeflatedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void discard(Future<DeflatedEntry> future) {
+        if (future == null) {
+            return;
+        }
+        future.cancel(true);
+        try {
+            future.get().release();
+        } catch (Exception ignored) {
+            // cancelled or failed, nothing was kept
+        }
+    }
+
+    /**
+     * Deflated bytes of one entry, in memory up to the spill threshold and in a temporary file
+     * beyond it.
+     */
+    private static class DeflatedEntry {
+        final long lastModified;
+        final int spillThreshold;
+        final File spillDir;
+        ExposedByteArrayOutputStream memory = new ExposedByteArrayOutputStream();
+        File spillFile;
+        OutputStream spill;
+        long crc;
+        long size;
+        long compressedSize;
+
+        DeflatedEntry(long lastModified, int spillThreshold, File spillDir) {
+            this.lastModified = lastModified;
+            this.spillThreshold = spillThreshold;
+            this.spillDir = spillDir;
+        }
+
+        void write(byte[] data, int length) throws IOException {
+            if (length <= 0) {
+                return;
+            }
+            compressedSize += length;
+            if (spill == null && memory.size() + length > spillThreshold) {
+                spillFile = File.createTempFile("zip", ".part", spillDir);
+                spill = new FileOutputStream(spillFile);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(data, 0, length);
+            } else {
+                memory.write(data, 0, length);
+            }
+        }
+
+        void finish() throws IOException {
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        }
+
+        void transferTo(FileChannel channel) throws IOException {
+            if (spillFile == null) {
+                ZipWriter.writeFully(channel, memory.asBuffer());
+                return;
+            }
+            FileInputStream in = new FileInputStream(spillFile);
+            try {
+                FileChannel source = in.getChannel();
+                long position = 0;
+                long size = source.size();
+                while (position < size) {
+                    position += source.transferTo(position, size - position, channel);
+                }
+            } finally {
+                FileUtils.closeQuietly(in);
+            }
+        }
+
+        void release() {
+            FileUtils.closeQuietly(spill);
+            spill = null;
+            memory = null;
+            if (spillFile != null && !FileUtils.deleteQuietly(spillFile)) {
+                Log.w(TAG, "failed to delete spill file: " + spillFile);
+            }
+            spillFile = null;
+        }
+    }
+
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ByteBuffer asBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -1,20 +1,19 @@
 package com.example.commonutils;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
-import android.media.ThumbnailUtils;
+import android.graphics.Paint;
+import android.graphics.RectF;
 import android.net.Uri;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.MessageDigest;
 
 public class PicUtils {
 
@@ -24,30 +23,76 @@ public class PicUtils {
         return Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
     }
 
+    /**
+     * @param pool the rotated bitmap, sized to the rotated bounds, is taken from
+     */
+    public static Bitmap rotateBmp(Bitmap bmp, int degrees, BitmapPool pool) {
+        Matrix matrix = new Matrix();
+        matrix.setRotate(degrees);
+        RectF bounds = new RectF(0, 0, bmp.getWidth(), bmp.getHeight());
+        matrix.mapRect(bounds);
+        // corners uncovered by a rotation other than by quarter turns need alpha
+        Bitmap.Config config = bmp.getConfig() != null && degrees % 90 == 0
+                ? bmp.getConfig() : Bitmap.Config.ARGB_8888;
+        return rotateBmp(bmp, degrees,
+                BitmapUtil.obtain(pool, Math.round(bounds.width()), Math.round(bounds.height()), config));
+    }
+
+    /**
+     * Draws bmp rotated around its center into the center of destination, which is cleared first.
+     *
+     * @return destination
+     */
+    public static Bitmap rotateBmp(Bitmap bmp, int degrees, Bitmap destination) {
+        int width = destination.getWidth();
+        int height = destination.getHeight();
+        Matrix matrix = new Matrix();
+        matrix.setTranslate((width - bmp.getWidth()) / 2f, (height - bmp.getHeight()) / 2f);
+        matrix.postRotate(degrees, width / 2f, height / 2f);
+        destination.eraseColor(Color.TRANSPARENT);
+        new Canvas(destination).drawBitmap(bmp, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return destination;
+    }
+
     /**
      * @param bmp
      * @return resizeBmp
      */
     public static Bitmap convertToBlackWhite(Bitmap bmp) {
-        int width = bmp.getWidth();
-        int height = bmp.getHeight();
-        int[] pixels = new int[width * height];
-        bmp.getPixels(pixels, 0, width, 0, 0, width, height);
-        int alpha = 0xFF << 24;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int grey = pixels[width * i + j];
-                int red = ((grey & 0x00FF0000) >> 16);
-                int green = ((grey & 0x0000FF00) >> 8);
-                int blue = (grey & 0x000000FF);
-                grey = (int) (red * 0.3 + green * 0.59 + blue * 0.11);
-                grey = alpha | (grey << 16) | (grey << 8) | grey;
-                pixels[width * i + j] = grey;
-            }
-        }
-        Bitmap newBmp = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        newBmp.setPixels(pixels, 0, width, 0, 0, width, height);
-        return ThumbnailUtils.extractThumbnail(newBmp, width, height);
+        return convertToBlackWhite(bmp, Bitmap.createBitmap(bmp.getWidth(), bmp.getHeight(), Bitmap.Config.RGB_565));
+    }
+
+    /**
+     * @param pool the RGB_565 result is taken from
+     */
+    public static Bitmap convertToBlackWhite(Bitmap bmp, BitmapPool pool) {
+        return convertToBlackWhite(bmp, BitmapUtil.obtain(pool, bmp.getWidth(), bmp.getHeight(), Bitmap.Config.RGB_565));
+    }
+
+    /**
+     * Writes the grey version of bmp into destination, which has the same size and may be bmp.
+     *
+     * @return destination
+     */
+    public static Bitmap convertToBlackWhite(Bitmap bmp, Bitmap destination) {
+        return PixelOps.apply(bmp, destination, PixelOps.grayscale());
+    }
+
+    /**
+     * Applies ops, e.g. {@link PixelOps#threshold(int)} for e-ink or {@link PixelOps#gamma(double)},
+     * to bmp, writing destination of the same size, which may be bmp if it is mutable.
+     *
+     * @return destination
+     */
+    public static Bitmap applyPixelOps(Bitmap bmp, Bitmap destination, PixelOps.RowOp... ops) {
+        return PixelOps.apply(bmp, destination, ops);
+    }
+
+    /**
+     * Renders bmp as packed 1, 2 or 4 bit grey for an e-ink panel, see {@link EinkDither}.
+     */
+    public static EinkDither.Frame toEinkFrame(Bitmap bmp, int bitsPerPixel, EinkDither.Method method) {
+        return new EinkDither(bitsPerPixel, method).dither(bmp);
     }
 
     public static boolean savePng(Bitmap bitmap, String dirName, String pngFileName, boolean isNeedOverrideDirPermission) {
@@ -214,23 +259,12 @@ public class PicUtils {
         }
         assert tempFile != null;
         if (!tempFile.isFile()) return null;
-        MessageDigest digest;
-        FileInputStream in;
-        byte buffer[] = new byte[1024];
-        int len;
         try {
-            digest = MessageDigest.getInstance("MD5");
-            in = new FileInputStream(tempFile);
-            while ((len = in.read(buffer, 0, 1024)) != -1) {
-                digest.update(buffer, 0, len);
-            }
-            in.close();
-        } catch (Exception e) {
+            return FileHasher.hashToString(tempFile, FileHasher.Algorithm.MD5);
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
-        BigInteger bigInt = new BigInteger(1, digest.digest());
-        return bigInt.toString(16);
     }
 
 }
@@ -0,0 +1,326 @@
+package com.example.commonutils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per pixel operations on ARGB rows, e.g. grayscale, threshold, ordered dither, gamma, contrast
+ * and invert, applied in place or into a destination.
+ * <p>
+ * Operations use integer math only: weights are fixed point out of 256 and gamma and contrast
+ * are lookup tables built once per operation. Several operations are applied row by row, so
+ * each row is transformed by all of them while it is in the cache. Images of more than
+ * {@link #MIN_ROWS_PER_TASK} rows are split into bands of rows run on a shared pool of daemon
+ * threads, one per core, the calling thread taking the last band.
+ */
+public class PixelOps {
+    private static final String TAG = PixelOps.class.getSimpleName();
+
+    public static final int MIN_ROWS_PER_TASK = 32;
+
+    static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    // 8x8 Bayer matrix, thresholds 0..63
+    static final int[] BAYER_8X8 = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21,
+    };
+
+    private static ThreadPoolExecutor sExecutor;
+
+    /**
+     * Transforms one row of ARGB pixels.
+     */
+    public interface RowOp {
+        /**
+         * @param src may be dst with the same offset, for in place
+         * @param y   index of the row in the image, for operations depending on position
+         */
+        void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y);
+    }
+
+    /**
+     * Grey from the luma weights 0.30, 0.59 and 0.11 as 77, 151 and 28 out of 256; alpha is kept.
+     */
+    public static RowOp grayscale() {
+        return new RowOp() {
+            @Override
+            public void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y) {
+                for (int i = 0; i < width; i++) {
+                    int pixel = src[srcOffset + i];
+                    int grey = luma(pixel);
+                    dst[dstOffset + i] = (pixel & 0xFF000000) | grey << 16 | grey << 8 | grey;
+                }
+            }
+        };
+    }
+
+    /**
+     * Black where the grey of a pixel is below level, white elsewhere; alpha is kept.
+     */
+    public static RowOp threshold(final int level) {
+        return new RowOp() {
+            @Override
+            public void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y) {
+                for (int i = 0; i < width; i++) {
+                    int pixel = src[srcOffset + i];
+                    dst[dstOffset + i] = (pixel & 0xFF000000) | (luma(pixel) < level ? 0 : 0xFFFFFF);
+                }
+            }
+        };
+    }
+
+    /**
+     * Black and white by comparing grey with an 8x8 Bayer matrix, which keeps grey levels as
+     * patterns on 1-bit displays such as e-ink. Rows are independent, unlike error diffusion, so
+     * it splits across threads.
+     */
+    public static RowOp orderedDither() {
+        return new RowOp() {
+            @Override
+            public void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y) {
+                int row = (y & 7) << 3;
+                for (int i = 0; i < width; i++) {
+                    int pixel = src[srcOffset + i];
+                    // threshold spread over 0..255 in steps of 4, centered in each step
+                    int threshold = (BAYER_8X8[row + (i & 7)] << 2) + 2;
+                    dst[dstOffset + i] = (pixel & 0xFF000000) | (luma(pixel) < threshold ? 0 : 0xFFFFFF);
+                }
+            }
+        };
+    }
+
+    /**
+     * Raises each color channel, as a fraction of 255, to gamma: below 1 brightens, above 1
+     * darkens.
+     */
+    public static RowOp gamma(double gamma) {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = (int) Math.round(255 * Math.pow(i / 255.0, gamma));
+        }
+        return lookup(table);
+    }
+
+    /**
+     * Scales each color channel's distance from mid grey by factor, clamped: 0 gives flat grey,
+     * 1 leaves the image unchanged.
+     */
+    public static RowOp contrast(double factor) {
+        int scale = (int) Math.round(factor * 256);
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = clamp((((i - 128) * scale) >> 8) + 128);
+        }
+        return lookup(table);
+    }
+
+    public static RowOp invert() {
+        return new RowOp() {
+            @Override
+            public void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y) {
+                for (int i = 0; i < width; i++) {
+                    dst[dstOffset + i] = src[srcOffset + i] ^ 0x00FFFFFF;
+                }
+            }
+        };
+    }
+
+    /**
+     * Maps each color channel through table of 256 values; alpha is kept.
+     */
+    public static RowOp lookup(final int[] table) {
+        return new RowOp() {
+            @Override
+            public void apply(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y) {
+                for (int i = 0; i < width; i++) {
+                    int pixel = src[srcOffset + i];
+                    dst[dstOffset + i] = (pixel & 0xFF000000)
+                            | table[pixel >> 16 & 0xFF] << 16 | table[pixel >> 8 & 0xFF] << 8 | table[pixel & 0xFF];
+                }
+            }
+        };
+    }
+
+    /**
+     * Applies ops in place to width x height pixels, rows stride apart from offset.
+     */
+    public static void apply(int[] pixels, int offset, int stride, int width, int height, RowOp... ops) {
+        apply(pixels, offset, stride, pixels, offset, stride, width, height, ops);
+    }
+
+    /**
+     * Applies ops to the pixels of src, writing dst, which may be src.
+     */
+    public static void apply(final int[] src, final int srcOffset, final int srcStride,
+                             final int[] dst, final int dstOffset, final int dstStride,
+                             final int width, int height, final RowOp... ops) {
+        forEachBand(height, new Band() {
+            @Override
+            public void run(int start, int end) {
+                for (int y = start; y < end; y++) {
+                    applyRow(src, srcOffset + y * srcStride, dst, dstOffset + y * dstStride, width, y, ops);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies ops in place to width x height pixels from the position of buffer, rows stride
+     * apart. A direct buffer is copied through a row array per thread.
+     */
+    public static void apply(final IntBuffer pixels, final int stride, final int width, int height, final RowOp... ops) {
+        if (pixels.hasArray()) {
+            int offset = pixels.arrayOffset() + pixels.position();
+            apply(pixels.array(), offset, stride, width, height, ops);
+            return;
+        }
+        final int position = pixels.position();
+        forEachBand(height, new Band() {
+            @Override
+            public void run(int start, int end) {
+                IntBuffer view = pixels.duplicate();
+                int[] row = new int[width];
+                for (int y = start; y < end; y++) {
+                    view.position(position + y * stride);
+                    view.get(row);
+                    applyRow(row, 0, row, 0, width, y, ops);
+                    view.position(position + y * stride);
+                    view.put(row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies ops to the pixels of src, writing them into destination of the same size, which
+     * may be src if it is mutable. Each band of rows is read, transformed and written through a
+     * buffer of its own, so no copy of the whole image is made.
+     *
+     * @return destination
+     */
+    public static Bitmap apply(final Bitmap src, final Bitmap destination, final RowOp... ops) {
+        final int width = src.getWidth();
+        forEachBand(src.getHeight(), new Band() {
+            @Override
+            public void run(int start, int end) {
+                int rows = end - start;
+                int[] band = new int[width * rows];
+                src.getPixels(band, 0, width, 0, start, width, rows);
+                for (int y = start; y < end; y++) {
+                    int offset = (y - start) * width;
+                    applyRow(band, offset, band, offset, width, y, ops);
+                }
+                destination.setPixels(band, 0, width, 0, start, width, rows);
+            }
+        });
+        return destination;
+    }
+
+    static int luma(int pixel) {
+        return ((pixel >> 16 & 0xFF) * 77 + (pixel >> 8 & 0xFF) * 151 + (pixel & 0xFF) * 28) >> 8;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static void applyRow(int[] src, int srcOffset, int[] dst, int dstOffset, int width, int y, RowOp[] ops) {
+        if (ops.length == 0) {
+            if (src != dst || srcOffset != dstOffset) {
+                System.arraycopy(src, srcOffset, dst, dstOffset, width);
+            }
+            return;
+        }
+        ops[0].apply(src, srcOffset, dst, dstOffset, width, y);
+        for (int i = 1; i < ops.length; i++) {
+            ops[i].apply(dst, dstOffset, dst, dstOffset, width, y);
+        }
+    }
+
+    /**
+     * Rows start inclusive to end exclusive.
+     */
+    interface Band {
+        void run(int start, int end);
+    }
+
+    /**
+     * Splits height rows into bands, one per thread and at least {@link #MIN_ROWS_PER_TASK} rows
+     * each, and returns once all of them ran.
+     */
+    static void forEachBand(int height, final Band band) {
+        int tasks = Math.min(THREAD_COUNT, height / MIN_ROWS_PER_TASK);
+        if (tasks <= 1) {
+            band.run(0, height);
+            return;
+        }
+        int rowsPerTask = (height + tasks - 1) / tasks;
+        List<Future<?>> futures = new ArrayList<>(tasks - 1);
+        int start = 0;
+        for (; start + rowsPerTask < height; start += rowsPerTask) {
+            final int from = start;
+            final int to = start + rowsPerTask;
+            futures.add(getExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    band.run(from, to);
+                }
+            }));
+        }
+        band.run(start, height);
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the bands write into the caller's pixels, so they are waited for anyway
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "band failed", e.getCause());
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+}
@@ -4,89 +4,184 @@ import android.support.v4.BuildConfig;
 import android.util.Log;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Reflection helpers that return null or false instead of throwing.
+ * <p>
+ * Classes, methods, constructors and fields are looked up once and cached by class, name and
+ * parameter types, lookups that failed included, so repeated calls neither walk the class nor
+ * log the failure again. Field values are still read on every call.
+ */
 public class ReflectUtil {
     private static final String TAG = "ReflectUtil";
 
     private static Object sDummyObject = new Object();
 
-    public static boolean getConstructorSafely(RefValue<Constructor<?>> result, Class<?> cls, Class<?>... parameterTypes) {
-        try {
-            if (cls == null) {
+    private static final int KIND_METHOD = 0;
+    private static final int KIND_DECLARED_METHOD = 1;
+    private static final int KIND_CONSTRUCTOR = 2;
+    private static final int KIND_FIELD = 3;
+    private static final int KIND_INVOKER = 4;
+
+    // cached result of a failed lookup
+    private static final Object MISSING = new Object();
+
+    private static final ConcurrentHashMap<MemberKey, Object> sMembers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Object> sClasses = new ConcurrentHashMap<>();
+
+    private static final class MemberKey {
+        final int kind;
+        final Class<?> cls;
+        final String name;
+        final Class<?>[] parameterTypes;
+        final int hash;
+
+        MemberKey(int kind, Class<?> cls, String name, Class<?>[] parameterTypes) {
+            this.kind = kind;
+            this.cls = cls;
+            this.name = name;
+            this.parameterTypes = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+            this.hash = ((kind * 31 + cls.hashCode()) * 31 + (name == null ? 0 : name.hashCode())) * 31
+                    + Arrays.hashCode(this.parameterTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MemberKey)) {
                 return false;
             }
-            result.setValue(cls.getConstructor(parameterTypes));
-            return true;
-        } catch (SecurityException e) {
-            Log.w(TAG, e);
-        } catch (NoSuchMethodException e) {
-            Log.w(TAG, e);
+            MemberKey other = (MemberKey) o;
+            return kind == other.kind && cls == other.cls && hash == other.hash
+                    && (name == null ? other.name == null : name.equals(other.name))
+                    && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        return false;
     }
 
-    public static Constructor<?> getConstructorSafely(Class<?> cls, Class<?>... parameterTypes) {
-        RefValue<Constructor<?>> result = new RefValue<Constructor<?>>();
-        if (getConstructorSafely(result, cls, parameterTypes)) {
-            return result.getValue();
+    /**
+     * A method looked up once with access checks turned off, for calling it repeatedly. Obtain
+     * with {@link #getInvoker(Class, String, Class[])}.
+     */
+    public static final class Invoker {
+        private final Method method;
+
+        Invoker(Method method) {
+            this.method = method;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * If this method is static, the receiver argument is ignored.
+         *
+         * @throws InvocationTargetException if the method threw
+         */
+        public Object invoke(Object receiver, Object... args) throws InvocationTargetException {
+            try {
+                return method.invoke(receiver, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Same as {@link ReflectUtil#invokeMethodSafely(Method, Object, Object...)}.
+         */
+        public Object invokeSafely(Object receiver, Object... args) {
+            try {
+                Object result = method.invoke(receiver, args);
+                return result != null ? result : sDummyObject;
+            } catch (Throwable tr) {
+                Log.w(TAG, tr);
+            }
+            return null;
         }
-        return null;
+    }
+
+    /**
+     * Forgets every cached lookup, e.g. after classes became available through a new loader.
+     */
+    public static void clearCache() {
+        sMembers.clear();
+        sClasses.clear();
+    }
+
+    /**
+     * @return a public method of cls or one declared by cls itself, null if there is none
+     */
+    public static Invoker getInvoker(Class<?> cls, String name, Class<?>... parameterTypes) {
+        return (Invoker) lookup(KIND_INVOKER, cls, name, parameterTypes);
+    }
+
+    public static boolean getConstructorSafely(RefValue<Constructor<?>> result, Class<?> cls, Class<?>... parameterTypes) {
+        Constructor<?> constructor = getConstructorSafely(cls, parameterTypes);
+        if (constructor == null) {
+            return false;
+        }
+        result.setValue(constructor);
+        return true;
+    }
+
+    public static Constructor<?> getConstructorSafely(Class<?> cls, Class<?>... parameterTypes) {
+        return (Constructor<?>) lookup(KIND_CONSTRUCTOR, cls, null, parameterTypes);
     }
 
     public static Class<?> classForName(final String name) {
-        Class<?> cls = null;
-        try {
-            cls = Class.forName(name);
-        } catch (Exception exception) {
-            Log.e(TAG, "", exception);
+        Object cls = sClasses.get(name);
+        if (cls == null) {
+            try {
+                cls = Class.forName(name);
+            } catch (Exception exception) {
+                Log.e(TAG, "", exception);
+                cls = MISSING;
+            } catch (LinkageError error) {
+                Log.e(TAG, "", error);
+                cls = MISSING;
+            }
+            sClasses.put(name, cls);
         }
-        return cls;
+        return cls == MISSING ? null : (Class<?>) cls;
     }
 
     public static boolean getMethodSafely(RefValue<Method> result, Class<?> cls, String name, Class<?>... parameterTypes) {
-        try {
-            if (cls == null) {
-                return false;
-            }
-            result.setValue(cls.getMethod(name, parameterTypes));
-            return true;
-        } catch (SecurityException e) {
-            if (BuildConfig.DEBUG) {
-                Log.w(TAG, e);
-            }
-        } catch (NoSuchMethodException e) {
-            if (BuildConfig.DEBUG) {
-                Log.w(TAG, e);
-            }
+        Method method = getMethodSafely(cls, name, parameterTypes);
+        if (method == null) {
+            return false;
         }
-        return false;
+        result.setValue(method);
+        return true;
     }
 
     public static Method getMethodSafely(Class<?> cls, String name, Class<?>... parameterTypes) {
-        RefValue<Method> result = new RefValue<Method>();
-        if (getMethodSafely(result, cls, name, parameterTypes)) {
-            return result.getValue();
-        }
-        return null;
+        return (Method) lookup(KIND_METHOD, cls, name, parameterTypes);
     }
 
     public static boolean getStaticIntFieldSafely(RefValue<Integer> result, Class<?> cls, String name) {
+        Field field = (Field) lookup(KIND_FIELD, cls, name, null);
+        if (field == null) {
+            return false;
+        }
         try {
-            if (cls == null) {
-                return false;
-            }
-            int n = cls.getField(name).getInt(null);
-            result.setValue(Integer.valueOf(n));
+            result.setValue(Integer.valueOf(field.getInt(null)));
             return true;
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
-        } catch (SecurityException e) {
-            Log.w(TAG, e);
         } catch (IllegalAccessException e) {
             Log.w(TAG, e);
-        } catch (NoSuchFieldException e) {
-            Log.w(TAG, e);
         }
         return false;
     }
@@ -101,30 +196,33 @@ public class ReflectUtil {
     }
 
     public static boolean getStaticFieldSafely(RefValue<Object> result, Class<?> cls, String name) {
+        Field field = (Field) lookup(KIND_FIELD, cls, name, null);
+        if (field == null) {
+            return false;
+        }
         try {
-            if (cls == null) {
-                return false;
-            }
-            result.setValue(cls.getField(name).get(null));
+            result.setValue(field.get(null));
             return true;
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
-        } catch (SecurityException e) {
-            Log.w(TAG, e);
         } catch (IllegalAccessException e) {
             Log.w(TAG, e);
-        } catch (NoSuchFieldException e) {
-            Log.w(TAG, e);
         }
         return false;
     }
 
     public static Object getStaticFieldSafely(Class<?> cls, String name) {
-        RefValue<Object> result = new RefValue<Object>();
-        if (getStaticFieldSafely(result, cls, name)) {
-            return result.getValue();
+        Field field = (Field) lookup(KIND_FIELD, cls, name, null);
+        if (field == null) {
+            return null;
+        }
+        try {
+            return field.get(null);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, e);
+        } catch (IllegalAccessException e) {
+            Log.w(TAG, e);
         }
-
         return null;
     }
 
@@ -196,25 +294,101 @@ public class ReflectUtil {
     }
 
     public static Method getDeclaredMethodSafely(Class<?> cls, String name, Class<?>... parameterTypes) {
-        RefValue<Method> result = new RefValue<Method>();
-        if (getDeclaredMethod(result, cls, name, parameterTypes)) {
-            return result.getValue();
-        }
-        return null;
+        return (Method) lookup(KIND_DECLARED_METHOD, cls, name, parameterTypes);
     }
 
     public static boolean getDeclaredMethod(RefValue<Method> result, Class<?> cls, String name, Class<?>... parameterTypes) {
+        Method method = getDeclaredMethodSafely(cls, name, parameterTypes);
+        if (method == null) {
+            return false;
+        }
+        result.setValue(method);
+        return true;
+    }
+
+    /**
+     * @return the cached member, or null if cls is null or the lookup failed now or before
+     */
+    private static Object lookup(int kind, Class<?> cls, String name, Class<?>[] parameterTypes) {
+        if (cls == null) {
+            return null;
+        }
+        MemberKey key = new MemberKey(kind, cls, name, parameterTypes);
+        Object member = sMembers.get(key);
+        if (member == null) {
+            if (parameterTypes != null) {
+                // the caller may reuse its array
+                key = new MemberKey(kind, cls, name, parameterTypes.clone());
+            }
+            member = resolve(key);
+            Object raced = sMembers.putIfAbsent(key, member);
+            if (raced != null) {
+                member = raced;
+            }
+        }
+        return member == MISSING ? null : member;
+    }
+
+    private static Object resolve(MemberKey key) {
         try {
-            if (cls == null) {
-                return false;
+            switch (key.kind) {
+                case KIND_METHOD:
+                    return key.cls.getMethod(key.name, key.parameterTypes);
+                case KIND_DECLARED_METHOD:
+                    return accessible(key.cls.getDeclaredMethod(key.name, key.parameterTypes));
+                case KIND_CONSTRUCTOR:
+                    return key.cls.getConstructor(key.parameterTypes);
+                case KIND_FIELD:
+                    return key.cls.getField(key.name);
+                case KIND_INVOKER:
+                    Method method;
+                    try {
+                        method = key.cls.getMethod(key.name, key.parameterTypes);
+                    } catch (NoSuchMethodException e) {
+                        method = key.cls.getDeclaredMethod(key.name, key.parameterTypes);
+                    }
+                    return new Invoker(accessible(method));
+                default:
+                    throw new IllegalArgumentException("unknown kind " + key.kind);
             }
-            Method method = cls.getDeclaredMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            logMissing(key, e);
+        } catch (NoSuchFieldException e) {
+            logMissing(key, e);
+        } catch (SecurityException e) {
+            logMissing(key, e);
+        } catch (LinkageError e) {
+            // a parameter or return type is missing on this platform version
+            logMissing(key, e);
+        }
+        return MISSING;
+    }
+
+    private static Method accessible(Method method) {
+        try {
+            // skips the access check on every call, public methods included
             method.setAccessible(true);
-            result.setValue(method);
-            return true;
         } catch (SecurityException e) {
-        } catch (NoSuchMethodException e) {
+            Log.w(TAG, e);
+        }
+        return method;
+    }
+
+    /**
+     * Logged once per lookup, as the failure is cached; at the levels the uncached lookups used.
+     */
+    private static void logMissing(MemberKey key, Throwable tr) {
+        switch (key.kind) {
+            case KIND_METHOD:
+                if (BuildConfig.DEBUG) {
+                    Log.w(TAG, tr);
+                }
+                break;
+            case KIND_DECLARED_METHOD:
+                break;
+            default:
+                Log.w(TAG, tr);
+                break;
         }
-        return false;
     }
 }
@@ -0,0 +1,438 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent log files for {@link AsyncLogger}, written as segments named
+ * name-yyyyMMdd-HHmmss-SSS.log in a directory. A batch of records is never split across
+ * segments, one larger than a segment gets a segment of its own.
+ * <p>
+ * The active segment is memory mapped at its full size, so a batch is appended with a memcpy
+ * and survives a crash of the process without a write call. A segment is rotated when it is
+ * full or older than the maximum age, then truncated to its content, gzipped to .log.gz on a
+ * background thread and the oldest segments deleted until the directory fits the disk quota.
+ * Segments left mapped by a process that died are trimmed and compressed on the next start.
+ * <p>
+ * All sink methods run on the consumer thread of the logger, logging calls never wait for
+ * disk I/O.
+ */
+public class RollingFileSink implements AsyncLogger.Sink {
+    private static final String TAG = RollingFileSink.class.getSimpleName();
+
+    public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_AGE = 60 * 60 * 1000;
+    public static final long DEFAULT_DISK_QUOTA = 16 * 1024 * 1024;
+
+    private static final String SUFFIX = ".log";
+    private static final int TRIM_BLOCK_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final String name;
+    private final StringBuilder pending = new StringBuilder(8 * 1024);
+    private final CharsetEncoder encoder = FileUtils.UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final SimpleDateFormat segmentFormat = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US);
+    // the full name, a prefix match would also take the segments of a sink named name-net
+    private final Pattern segmentPattern;
+    // closed segments the background thread has yet to compress, kept from quota deletion
+    private final Set<File> compressing = Collections.synchronizedSet(new HashSet<File>());
+
+    private long maxSegmentSize = DEFAULT_SEGMENT_SIZE;
+    private long maxSegmentAge = DEFAULT_SEGMENT_AGE;
+    private long diskQuota = DEFAULT_DISK_QUOTA;
+    private boolean compressRotated = true;
+
+    private ExecutorService background;
+    private volatile File segment;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer mapped;
+    private volatile long mappedSize;
+    private long segmentStart;
+    private boolean started = false;
+    private volatile boolean rotationRequested = false;
+
+    public RollingFileSink(File directory, String name) {
+        this.directory = directory;
+        this.name = name;
+        this.segmentPattern = Pattern.compile(Pattern.quote(name) + "-(\\d{8}-\\d{6}-\\d{3})(?:-(\\d{1,9}))?\\.log(?:\\.gz)?");
+    }
+
+    public RollingFileSink setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = Math.max(4096, Math.min(maxSegmentSize, Integer.MAX_VALUE));
+        return this;
+    }
+
+    public RollingFileSink setMaxSegmentAge(long maxSegmentAgeMillis) {
+        this.maxSegmentAge = maxSegmentAgeMillis;
+        return this;
+    }
+
+    /**
+     * @param diskQuota bytes all segments of this sink may use together, the active one counted
+     *                  at its full mapped size; segments waiting to be compressed are kept
+     */
+    public RollingFileSink setDiskQuota(long diskQuota) {
+        this.diskQuota = diskQuota;
+        return this;
+    }
+
+    public RollingFileSink setCompressRotated(boolean compressRotated) {
+        this.compressRotated = compressRotated;
+        return this;
+    }
+
+    /**
+     * Makes the next flush close the active segment, e.g. before collecting the files with
+     * {@link #getLogFiles()}.
+     */
+    public void requestRotation() {
+        rotationRequested = true;
+    }
+
+    /**
+     * @return the closed segments, compressed or not, oldest first
+     */
+    public List<File> getLogFiles() {
+        File[] files = listSegments();
+        List<File> result = new ArrayList<>(files.length);
+        File active = segment;
+        for (File file : files) {
+            if (!file.equals(active)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void write(AsyncLogger.Record record) {
+        record.appendTo(pending);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            if (!started) {
+                started = true;
+                recoverSegments();
+            }
+            if (pending.length() > 0) {
+                append();
+            }
+            if (segment != null && (rotationRequested
+                    || System.currentTimeMillis() - segmentStart >= maxSegmentAge)) {
+                closeSegment();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write log segment", e);
+            pending.setLength(0);
+            closeSegment();
+        }
+        rotationRequested = false;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        closeSegment();
+        if (background != null) {
+            background.shutdown();
+        }
+    }
+
+    private void append() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(pending);
+        while (true) {
+            if (mapped == null) {
+                openSegment();
+            }
+            int batchStart = mapped.position();
+            int charStart = chars.position();
+            encoder.reset();
+            CoderResult result = encoder.encode(chars, mapped, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(mapped);
+            }
+            if (!result.isOverflow()) {
+                break;
+            }
+            chars.position(charStart);
+            if (batchStart == 0) {
+                // larger than a whole segment: map this one to fit, encoding again from the start
+                long size = (long) Math.ceil(chars.remaining() * (double) encoder.maxBytesPerChar());
+                mapped = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        Math.min(Integer.MAX_VALUE, Math.max(size, maxSegmentSize)));
+                mappedSize = mapped.capacity();
+                continue;
+            }
+            // keep lines whole: move the batch to the next segment
+            for (int i = batchStart; i < mapped.position(); i++) {
+                mapped.put(i, (byte) 0);
+            }
+            mapped.position(batchStart);
+            closeSegment();
+        }
+        pending.setLength(0);
+        if (mapped.capacity() > maxSegmentSize) {
+            closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        segmentStart = System.currentTimeMillis();
+        File file = new File(directory, name + "-" + segmentFormat.format(new Date(segmentStart)) + SUFFIX);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, name + "-" + segmentFormat.format(new Date(segmentStart)) + "-" + i + SUFFIX);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxSegmentSize);
+        } catch (IOException e) {
+            FileUtils.closeQuietly(raf);
+            FileUtils.deleteQuietly(file);
+            throw e;
+        }
+        segmentFile = raf;
+        mappedSize = maxSegmentSize;
+        segment = file;
+    }
+
+    /**
+     * Truncates the active segment to its content and hands it to the background thread.
+     */
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        final File closed = segment;
+        try {
+            if (mapped != null) {
+                long length = mapped.position();
+                mapped = null;
+                segmentFile.setLength(length);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to truncate " + closed, e);
+        } finally {
+            FileUtils.closeQuietly(segmentFile);
+            segmentFile = null;
+            segment = null;
+            mapped = null;
+        }
+        compressing.add(closed);
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                if (closed.length() == 0) {
+                    FileUtils.deleteQuietly(closed);
+                } else if (compressRotated) {
+                    compress(closed);
+                }
+                compressing.remove(closed);
+                enforceQuota();
+            }
+        });
+    }
+
+    /**
+     * Segments of a previous process may still have their mapped size, padded with zeros.
+     */
+    private void recoverSegments() {
+        final File[] leftovers = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return isSegment(file) && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (leftovers == null || leftovers.length == 0) {
+            return;
+        }
+        compressing.addAll(Arrays.asList(leftovers));
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                for (File file : leftovers) {
+                    try {
+                        trimZeros(file);
+                        if (file.length() == 0) {
+                            FileUtils.deleteQuietly(file);
+                        } else if (compressRotated) {
+                            compress(file);
+                        }
+                    } catch (IOException e) {
+                        Log.w(TAG, "failed to trim " + file, e);
+                    } finally {
+                        compressing.remove(file);
+                    }
+                }
+                enforceQuota();
+            }
+        });
+    }
+
+    private synchronized void submit(Runnable task) {
+        if (background == null || background.isShutdown()) {
+            background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        background.execute(task);
+    }
+
+    private static void trimZeros(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer block = ByteBuffer.allocate(TRIM_BLOCK_SIZE);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - TRIM_BLOCK_SIZE);
+                block.clear();
+                block.limit((int) (end - start));
+                channel.read(block, start);
+                int i = block.position() - 1;
+                while (i >= 0 && block.get(i) == 0) {
+                    i--;
+                }
+                if (i >= 0) {
+                    end = start + i + 1;
+                    break;
+                }
+                end = start;
+            }
+            if (end < channel.size()) {
+                raf.setLength(end);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void compress(File file) {
+        File target = new File(file.getPath() + ".gz");
+        File temp = new File(target.getPath() + ".tmp");
+        FileInputStream in = null;
+        GZIPOutputStream out = null;
+        boolean success = false;
+        try {
+            in = new FileInputStream(file);
+            out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            success = temp.renameTo(target);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to compress " + file, e);
+        } finally {
+            FileUtils.closeQuietly(in);
+            FileUtils.closeQuietly(out);
+        }
+        if (success) {
+            FileUtils.deleteQuietly(file);
+        } else {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    private void enforceQuota() {
+        File[] files = listSegments();
+        File active = segment;
+        long total = active == null ? 0 : mappedSize;
+        for (File file : files) {
+            if (!file.equals(active)) {
+                total += file.length();
+            }
+        }
+        for (File file : files) {
+            if (total <= diskQuota) {
+                break;
+            }
+            if (file.equals(active) || compressing.contains(file)) {
+                continue;
+            }
+            total -= file.length();
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * @return all segments of this sink, oldest first
+     */
+    private File[] listSegments() {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return isSegment(file);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                // by timestamp, then by the counter of segments opened within the same millisecond
+                Matcher left = segmentPattern.matcher(lhs.getName());
+                Matcher right = segmentPattern.matcher(rhs.getName());
+                left.matches();
+                right.matches();
+                int result = left.group(1).compareTo(right.group(1));
+                return result != 0 ? result : counter(left) - counter(right);
+            }
+        });
+        return files;
+    }
+
+    private static int counter(Matcher matcher) {
+        String counter = matcher.group(2);
+        return counter == null ? 0 : Integer.parseInt(counter);
+    }
+
+    private boolean isSegment(File file) {
+        return segmentPattern.matcher(file.getName()).matches();
+    }
+}
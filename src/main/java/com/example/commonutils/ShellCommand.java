@@ -0,0 +1,274 @@
+package com.example.commonutils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs commands in a new sh or su process and hands its output over line by line while it runs.
+ * <p>
+ * stdout and stderr are read by a thread each at the same time, so a command writing a lot to
+ * one of them never blocks on the other; or both are merged into stdout. Nothing is
+ * accumulated, which allows following e.g. logcat or dmesg for as long as needed: the process
+ * is killed on timeout or {@link #cancel()}. A callback that blocks, e.g.
+ * {@link #toQueue(BlockingQueue)} on a full queue, stops reading and so holds the command back.
+ * <p>
+ * Killing only reaches the shell. A command it started may keep running and writing until it
+ * ends by itself, though its output is no longer delivered; start a single long running command
+ * with exec, e.g. "exec logcat -v time", so that it is the process being killed.
+ */
+public class ShellCommand {
+    private static final String TAG = ShellCommand.class.getSimpleName();
+
+    public static final int RESULT_KILLED = -1;
+
+    // output still arriving this long after a kill comes from children of the shell
+    private static final long KILL_GRACE_MILLIS = 200;
+    private static final long JOIN_SLICE_MILLIS = 50;
+
+    private static ScheduledThreadPoolExecutor sWatchdog;
+
+    /**
+     * Receives output lines without the line break, from one thread at a time.
+     */
+    public interface OutputCallback {
+        void onLine(String line, boolean isError);
+    }
+
+    private final String[] commands;
+    private boolean isRoot = false;
+    private boolean mergeErrorStream = false;
+    private long timeout = 0;
+    private Process process;
+    private volatile boolean killed = false;
+    private volatile boolean timedOut = false;
+
+    public ShellCommand(String... commands) {
+        this.commands = commands;
+    }
+
+    public ShellCommand setRoot(boolean isRoot) {
+        this.isRoot = isRoot;
+        return this;
+    }
+
+    /**
+     * Delivers stderr as part of stdout, in the order written.
+     */
+    public ShellCommand setMergeErrorStream(boolean mergeErrorStream) {
+        this.mergeErrorStream = mergeErrorStream;
+        return this;
+    }
+
+    /**
+     * @param timeoutMillis 0 or less to let the commands run however long they take
+     */
+    public ShellCommand setTimeout(long timeoutMillis) {
+        this.timeout = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Runs the commands, one per line of the shell's input, passing their output to callback
+     * until the shell exits and its output ends.
+     *
+     * @return exit status of the shell, {@link #RESULT_KILLED} after a timeout or {@link #cancel()}
+     * @throws IOException if the shell cannot be started, or callback threw
+     */
+    public int run(final OutputCallback callback) throws IOException {
+        final Process started = new ProcessBuilder(isRoot ? ShellUtils.COMMAND_SU : ShellUtils.COMMAND_SH)
+                .redirectErrorStream(mergeErrorStream)
+                .start();
+        synchronized (this) {
+            process = started;
+            if (killed) {
+                started.destroy();
+            }
+        }
+        ScheduledFuture<?> timeoutFuture = null;
+        if (timeout > 0) {
+            timeoutFuture = getWatchdog().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    kill();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        Output output = new Output(callback);
+        Thread[] readers = mergeErrorStream
+                ? new Thread[]{output.read(started.getInputStream(), false)}
+                : new Thread[]{output.read(started.getInputStream(), false), output.read(started.getErrorStream(), true)};
+        try {
+            writeCommands(started.getOutputStream());
+            int result = started.waitFor();
+            long killDeadline = 0;
+            for (Thread reader : readers) {
+                while (reader.isAlive()) {
+                    if (killed && killDeadline == 0) {
+                        killDeadline = System.currentTimeMillis() + KILL_GRACE_MILLIS;
+                    }
+                    if (killDeadline != 0 && System.currentTimeMillis() >= killDeadline) {
+                        // a child of the shell still holds the pipe, leave it behind
+                        break;
+                    }
+                    reader.join(JOIN_SLICE_MILLIS);
+                }
+            }
+            output.close();
+            if (output.failure != null) {
+                throw new IOException("output callback failed", output.failure);
+            }
+            return killed ? RESULT_KILLED : result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            kill();
+            output.close();
+            throw new InterruptedIOException("interrupted running " + commands.length + " commands");
+        } finally {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            started.destroy();
+        }
+    }
+
+    /**
+     * Kills the process, from any thread; {@link #run(OutputCallback)} then returns
+     * {@link #RESULT_KILLED} once the output read so far is delivered.
+     */
+    public void cancel() {
+        kill();
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return a callback putting stdout and stderr lines into queue, waiting while it is full
+     */
+    public static OutputCallback toQueue(final BlockingQueue<String> queue) {
+        return new OutputCallback() {
+            @Override
+            public void onLine(String line, boolean isError) {
+                try {
+                    queue.put(line);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted waiting for queue space", e);
+                }
+            }
+        };
+    }
+
+    private void kill() {
+        synchronized (this) {
+            killed = true;
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+
+    private void writeCommands(OutputStream stdin) {
+        try {
+            for (String command : commands) {
+                if (command == null) {
+                    continue;
+                }
+                stdin.write(command.getBytes(FileUtils.UTF8));
+                stdin.write(ShellUtils.COMMAND_LINE_END.getBytes(FileUtils.UTF8));
+            }
+            stdin.write(ShellUtils.COMMAND_EXIT.getBytes(FileUtils.UTF8));
+            stdin.flush();
+        } catch (IOException e) {
+            // the shell exited early, e.g. su denied; its output tells why
+        } finally {
+            FileUtils.closeQuietly(stdin);
+        }
+    }
+
+    /**
+     * Delivers the lines of both streams to the callback one at a time, until closed.
+     */
+    private class Output {
+        private final OutputCallback callback;
+        private final Object lock = new Object();
+        private volatile boolean closed = false;
+        private volatile RuntimeException failure;
+
+        Output(OutputCallback callback) {
+            this.callback = callback;
+        }
+
+        Thread read(final InputStream in, final boolean isError) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, FileUtils.UTF8));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (!deliver(line, isError)) {
+                                break;
+                            }
+                        }
+                    } catch (IOException e) {
+                        // killed
+                    } catch (RuntimeException e) {
+                        failure = e;
+                        kill();
+                    } finally {
+                        FileUtils.closeQuietly(reader);
+                    }
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+
+        private boolean deliver(String line, boolean isError) {
+            synchronized (lock) {
+                if (closed) {
+                    return false;
+                }
+                callback.onLine(line, isError);
+                return true;
+            }
+        }
+
+        /**
+         * Without waiting for a callback in progress, which may be blocked.
+         */
+        void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Single daemon thread shared by every timeout of commands run by this library.
+     */
+    static synchronized ScheduledThreadPoolExecutor getWatchdog() {
+        if (sWatchdog == null) {
+            sWatchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWatchdog;
+    }
+}
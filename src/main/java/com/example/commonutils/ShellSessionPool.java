@@ -0,0 +1,271 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived interactive shells, sh or su, shared by concurrent callers.
+ * <p>
+ * A command is written to an idle session instead of starting a process, and su is only
+ * authorized once per session. Each command runs as <code>{ eval '...'; } &lt;/dev/null</code>
+ * in the session's shell, followed by a marker line unique to the call on stdout and stderr; the
+ * marker on stdout carries the exit status. Both streams are drained by reader threads of the
+ * session, so a command filling one of them does not block on the other.
+ * <p>
+ * Commands share the shell of their session, e.g. cd and exported variables persist, so they
+ * should not rely on or change shell state. A session whose shell exits, e.g. on "exit" or a
+ * syntax error, or which times out is destroyed and replaced by a new one on the next call.
+ */
+public class ShellSessionPool {
+    private static final String TAG = ShellSessionPool.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_SESSIONS = 2;
+
+    private static final Object END_OF_STREAM = new Object();
+    private static final Random RANDOM = new Random();
+
+    private final String shell;
+    private final Semaphore permits;
+    private final Deque<Session> idle = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**
+     * @param shell       e.g. {@link ShellUtils#COMMAND_SH} or {@link ShellUtils#COMMAND_SU}
+     * @param maxSessions sessions running commands at the same time, further callers wait
+     */
+    public ShellSessionPool(String shell, int maxSessions) {
+        this.shell = shell;
+        this.permits = new Semaphore(Math.max(1, maxSessions), true);
+    }
+
+    public String getShell() {
+        return shell;
+    }
+
+    /**
+     * Runs commands one after the other in a session, like
+     * {@link ShellUtils#execCommand(String[], boolean, boolean, boolean)} does in a new process.
+     *
+     * @param timeoutMillis 0 or less to wait however long the commands run; on timeout the
+     *                      session is destroyed and the result is -1 with the output so far
+     * @return exit status of the last command, -1 if the session failed
+     */
+    public ShellUtils.CommandResult exec(String[] commands, boolean isNeedResultMsg, long timeoutMillis) {
+        if (commands == null || commands.length == 0) {
+            return new ShellUtils.CommandResult(-1, null, null);
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ShellUtils.CommandResult(-1, null, null);
+        }
+        try {
+            Session session = takeIdle();
+            if (session != null) {
+                try {
+                    return release(session, session.exec(commands, isNeedResultMsg, timeoutMillis));
+                } catch (IOException e) {
+                    // the shell went away while idle, nothing was run
+                    session.destroy();
+                }
+            }
+            session = new Session(shell);
+            try {
+                return release(session, session.exec(commands, isNeedResultMsg, timeoutMillis));
+            } catch (IOException e) {
+                session.destroy();
+                throw e;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to run commands in " + shell, e);
+            return new ShellUtils.CommandResult(-1, null, null);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Destroys the idle sessions, and the busy ones once they finish.
+     */
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+            for (Session session : idle) {
+                session.destroy();
+            }
+            idle.clear();
+        }
+    }
+
+    private Session takeIdle() {
+        synchronized (idle) {
+            Session session;
+            while ((session = idle.pollFirst()) != null) {
+                if (session.isAlive()) {
+                    return session;
+                }
+                session.destroy();
+            }
+            return null;
+        }
+    }
+
+    private ShellUtils.CommandResult release(Session session, ShellUtils.CommandResult result) {
+        synchronized (idle) {
+            if (!closed && session.isAlive()) {
+                idle.addFirst(session);
+                return result;
+            }
+        }
+        session.destroy();
+        return result;
+    }
+
+    private static class Session {
+        private final Process process;
+        private final OutputStream stdin;
+        private final BlockingQueue<Object> stdout = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Object> stderr = new LinkedBlockingQueue<>();
+        private final String token;
+        private int calls = 0;
+        private volatile boolean dead = false;
+
+        Session(String shell) throws IOException {
+            process = new ProcessBuilder(shell).start();
+            stdin = process.getOutputStream();
+            token = "__cu_" + Long.toHexString(RANDOM.nextLong()) + "_";
+            startReader(process.getInputStream(), stdout);
+            startReader(process.getErrorStream(), stderr);
+        }
+
+        boolean isAlive() {
+            if (dead) {
+                return false;
+            }
+            try {
+                process.exitValue();
+                dead = true;
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        /**
+         * @throws IOException if the commands could not be written, i.e. none of them ran
+         */
+        ShellUtils.CommandResult exec(String[] commands, boolean isNeedResultMsg, long timeoutMillis)
+                throws IOException {
+            String marker = token + (++calls);
+            StringBuilder script = new StringBuilder("{ ");
+            int count = 0;
+            for (String command : commands) {
+                if (command != null) {
+                    script.append("eval '").append(command.replace("'", "'\\''")).append("'; ");
+                    count++;
+                }
+            }
+            script.append(count == 0 ? ":; " : "").append("} </dev/null\n")
+                    .append("echo \"").append(marker).append(" $?\"\n")
+                    .append("echo ").append(marker).append(" >&2\n");
+            stdin.write(script.toString().getBytes(FileUtils.UTF8));
+            stdin.flush();
+
+            long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+            StringBuilder successMsg = isNeedResultMsg ? new StringBuilder() : null;
+            StringBuilder errorMsg = isNeedResultMsg ? new StringBuilder() : null;
+            int result = -1;
+            try {
+                String status = readUntil(stdout, marker, successMsg, deadline);
+                String errorEnd = readUntil(stderr, marker, errorMsg, deadline);
+                if (status != null && errorEnd != null) {
+                    result = Integer.parseInt(status.trim());
+                } else if (System.currentTimeMillis() >= deadline) {
+                    Log.w(TAG, "timed out after " + timeoutMillis + " ms: " + Arrays.toString(commands));
+                    destroy();
+                } else {
+                    // the shell exited within the commands
+                    result = process.waitFor();
+                    dead = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                destroy();
+            } catch (NumberFormatException e) {
+                destroy();
+            }
+            return new ShellUtils.CommandResult(result, successMsg == null ? null : successMsg.toString(),
+                    errorMsg == null ? null : errorMsg.toString());
+        }
+
+        void destroy() {
+            dead = true;
+            FileUtils.closeQuietly(stdin);
+            process.destroy();
+        }
+
+        /**
+         * Appends the lines before marker to msg.
+         *
+         * @return the rest of the marker line, null if the stream ended or the deadline passed
+         */
+        private static String readUntil(BlockingQueue<Object> lines, String marker, StringBuilder msg, long deadline)
+                throws InterruptedException {
+            while (true) {
+                long wait = deadline - System.currentTimeMillis();
+                Object next = deadline == Long.MAX_VALUE ? lines.take() : lines.poll(wait, TimeUnit.MILLISECONDS);
+                if (next == null || next == END_OF_STREAM) {
+                    return null;
+                }
+                String line = (String) next;
+                int index = line.indexOf(marker);
+                if (index >= 0) {
+                    // output without a final line break ends on the marker line
+                    if (index > 0 && msg != null) {
+                        msg.append(line, 0, index).append(ShellUtils.COMMAND_NEW_LINE);
+                    }
+                    return line.substring(index + marker.length());
+                }
+                if (msg != null) {
+                    msg.append(line).append(ShellUtils.COMMAND_NEW_LINE);
+                }
+            }
+        }
+
+        private static void startReader(final InputStream in, final BlockingQueue<Object> lines) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, FileUtils.UTF8));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            lines.add(line);
+                        }
+                    } catch (IOException e) {
+                        // destroyed
+                    } finally {
+                        FileUtils.closeQuietly(reader);
+                        lines.add(END_OF_STREAM);
+                    }
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
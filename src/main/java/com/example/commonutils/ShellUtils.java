@@ -1,10 +1,17 @@
 package com.example.commonutils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by zhuzeng on 9/25/14.
@@ -12,6 +19,8 @@ import java.util.List;
  * <ul>
  * <strong>Check root</strong>
  * <li>{@link ShellUtils#checkRootPermission()}</li>
+ * <li>{@link ShellUtils#checkRootPermission(long)}</li>
+ * <li>{@link ShellUtils#checkRootPermissionAsync(ResultCallback)}</li>
  * </ul>
  * <ul>
  * <strong>Execte command</strong>
@@ -21,6 +30,20 @@ import java.util.List;
  * <li>{@link ShellUtils#execCommand(List, boolean, boolean)}</li>
  * <li>{@link ShellUtils#execCommand(String[], boolean)}</li>
  * <li>{@link ShellUtils#execCommand(String[], boolean, boolean, boolean)}</li>
+ * <li>{@link ShellUtils#execCommand(String[], boolean, long, ShellCommand.OutputCallback)}</li>
+ * </ul>
+ * <ul>
+ * <strong>Execute command in a reused shell</strong>
+ * <li>{@link ShellUtils#execCommandInSession(String, boolean)}</li>
+ * <li>{@link ShellUtils#execCommandInSession(String, boolean, boolean)}</li>
+ * <li>{@link ShellUtils#execCommandInSession(String[], boolean, boolean, long)}</li>
+ * </ul>
+ * <ul>
+ * <strong>Execute command without blocking</strong>
+ * <li>{@link ShellUtils#execCommandAsync(String, boolean, ResultCallback)}</li>
+ * <li>{@link ShellUtils#execCommandAsync(String[], boolean, boolean, long, ResultCallback)}</li>
+ * <li>{@link ShellUtils#submitBatch(List, boolean, long)}</li>
+ * <li>{@link ShellUtils#execCommandBatch(List, boolean, long)}</li>
  * </ul>
  *
  * @author <a href="http://www.trinea.cn" target="_blank">Trinea</a> 2013-5-16
@@ -35,13 +58,233 @@ public class ShellUtils {
     public static final String COMMAND_LINE_END = "\n";
     public static final String COMMAND_NEW_LINE = "\r\n";
 
+    /** how long {@link #checkRootPermission()} trusts its last probe **/
+    public static final long ROOT_PERMISSION_TTL = 60 * 1000;
+
+    private static final int ASYNC_THREAD_COUNT = Math.max(ShellSessionPool.DEFAULT_MAX_SESSIONS,
+            Runtime.getRuntime().availableProcessors());
+
+    private static ShellSessionPool sShSessionPool;
+    private static ShellSessionPool sSuSessionPool;
+    private static ExecutorService sExecutor;
+
+    private static final Object sRootProbeLock = new Object();
+    private static volatile boolean sRootPermission;
+    private static volatile long sRootProbeTime = 0;
+
     /**
-     * check whether has root permission
+     * Receives the result of a command run by the async methods, on a background thread.
+     */
+    public interface ResultCallback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * check whether has root permission, the answer is cached for {@link #ROOT_PERMISSION_TTL}
      *
      * @return
      */
     public static boolean checkRootPermission() {
-        return execCommand("echo root", true, false).result == 0;
+        return checkRootPermission(ROOT_PERMISSION_TTL);
+    }
+
+    /**
+     * check whether has root permission, probing su only if the last probe is older than maxAgeMillis
+     *
+     * @param maxAgeMillis 0 to probe now
+     * @return
+     */
+    public static boolean checkRootPermission(long maxAgeMillis) {
+        synchronized (sRootProbeLock) {
+            // concurrent callers wait for one probe instead of each starting su
+            long probeTime = sRootProbeTime;
+            if (probeTime != 0 && System.currentTimeMillis() - probeTime < maxAgeMillis) {
+                return sRootPermission;
+            }
+            // a new su process, the pooled su sessions were authorized once and stay root
+            sRootPermission = execCommand(new String[] {"echo root"}, true, false, true).result == 0;
+            if (!sRootPermission) {
+                closeSuSessionPool();
+            }
+            sRootProbeTime = System.currentTimeMillis();
+            return sRootPermission;
+        }
+    }
+
+    /**
+     * @see ShellUtils#checkRootPermission()
+     */
+    public static Future<Boolean> checkRootPermissionAsync(final ResultCallback<Boolean> callback) {
+        return getExecutor().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean result = checkRootPermission();
+                if (callback != null) {
+                    callback.onResult(result);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Forgets the cached root probe, e.g. after the user changed su permissions, and closes the
+     * pooled su sessions, which would keep running as root after it was revoked.
+     */
+    public static void invalidateRootPermission() {
+        sRootProbeTime = 0;
+        closeSuSessionPool();
+    }
+
+    /**
+     * @return the pool {@link #execCommandInSession(String[], boolean, boolean, long)} runs in
+     */
+    public static synchronized ShellSessionPool getSessionPool(boolean isRoot) {
+        if (isRoot) {
+            if (sSuSessionPool == null) {
+                sSuSessionPool = new ShellSessionPool(COMMAND_SU, ShellSessionPool.DEFAULT_MAX_SESSIONS);
+            }
+            return sSuSessionPool;
+        }
+        if (sShSessionPool == null) {
+            sShSessionPool = new ShellSessionPool(COMMAND_SH, ASYNC_THREAD_COUNT);
+        }
+        return sShSessionPool;
+    }
+
+    /**
+     * Closes the su pool, the next root command starts a new session and so asks su again.
+     */
+    private static synchronized void closeSuSessionPool() {
+        if (sSuSessionPool != null) {
+            sSuSessionPool.close();
+            sSuSessionPool = null;
+        }
+    }
+
+    /**
+     * execute shell command in a reused shell, default return result msg
+     *
+     * @see ShellUtils#execCommandInSession(String[], boolean, boolean, long)
+     */
+    public static CommandResult execCommandInSession(String command, boolean isRoot) {
+        return execCommandInSession(new String[] {command}, isRoot, true, 0);
+    }
+
+    /**
+     * execute shell command in a reused shell
+     *
+     * @see ShellUtils#execCommandInSession(String[], boolean, boolean, long)
+     */
+    public static CommandResult execCommandInSession(String command, boolean isRoot, boolean isNeedResultMsg) {
+        return execCommandInSession(new String[] {command}, isRoot, isNeedResultMsg, 0);
+    }
+
+    /**
+     * execute shell commands in a long lived sh or su session instead of a new process, see
+     * {@link ShellSessionPool}. Commands should not change shell state, e.g. cd or export.
+     *
+     * @param timeoutMillis 0 or less to wait however long the commands run
+     * @return same as {@link ShellUtils#execCommand(String[], boolean, boolean, boolean)}
+     */
+    public static CommandResult execCommandInSession(String[] commands, boolean isRoot, boolean isNeedResultMsg,
+                                                     long timeoutMillis) {
+        return getSessionPool(isRoot).exec(commands, isNeedResultMsg, timeoutMillis);
+    }
+
+    /**
+     * execute shell command in a reused shell on a background thread, default return result msg
+     *
+     * @param callback may be null
+     * @see ShellUtils#execCommandAsync(String[], boolean, boolean, long, ResultCallback)
+     */
+    public static Future<CommandResult> execCommandAsync(String command, boolean isRoot,
+                                                         ResultCallback<CommandResult> callback) {
+        return execCommandAsync(new String[] {command}, isRoot, true, 0, callback);
+    }
+
+    /**
+     * execute shell commands like {@link #execCommandInSession(String[], boolean, boolean, long)}
+     * on a background thread
+     *
+     * @param callback called with the result on the background thread, may be null
+     * @return completes with the result, cancelling it with interruption kills a running command
+     */
+    public static Future<CommandResult> execCommandAsync(final String[] commands, final boolean isRoot,
+                                                         final boolean isNeedResultMsg, final long timeoutMillis,
+                                                         final ResultCallback<CommandResult> callback) {
+        return getExecutor().submit(new Callable<CommandResult>() {
+            @Override
+            public CommandResult call() {
+                CommandResult result = execCommandInSession(commands, isRoot, isNeedResultMsg, timeoutMillis);
+                if (callback != null) {
+                    callback.onResult(result);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * submit independent commands to run in parallel, each in its own session
+     *
+     * @return one future per command, in the same order
+     */
+    public static List<Future<CommandResult>> submitBatch(List<String> commands, boolean isRoot, long timeoutMillis) {
+        List<Future<CommandResult>> futures = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            futures.add(execCommandAsync(new String[] {command}, isRoot, true, timeoutMillis, null));
+        }
+        return futures;
+    }
+
+    /**
+     * execute independent commands in parallel and wait for all of them
+     *
+     * @param timeoutMillis per command, 0 or less for none
+     * @return one result per command, in the same order; -1 for a command that failed to run
+     */
+    public static List<CommandResult> execCommandBatch(List<String> commands, boolean isRoot, long timeoutMillis) {
+        List<Future<CommandResult>> futures = submitBatch(commands, isRoot, timeoutMillis);
+        List<CommandResult> results = new ArrayList<>(futures.size());
+        boolean interrupted = false;
+        for (Future<CommandResult> future : futures) {
+            CommandResult result = null;
+            while (result == null) {
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    // let the batch finish, the commands are already running
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    result = new CommandResult(-1, null, String.valueOf(e.getCause()));
+                }
+            }
+            results.add(result);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREAD_COUNT, ASYNC_THREAD_COUNT,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ShellUtils-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
     }
 
     /**
@@ -128,76 +371,42 @@ public class ShellUtils {
             return new CommandResult(result, null, null);
         }
 
-        Process process = null;
-        BufferedReader successResult = null;
-        BufferedReader errorResult = null;
-        StringBuilder successMsg = null;
-        StringBuilder errorMsg = null;
-
-        DataOutputStream os = null;
+        final StringBuilder successMsg = isNeedResultMsg ? new StringBuilder() : null;
+        final StringBuilder errorMsg = isNeedResultMsg ? new StringBuilder() : null;
         try {
-            process = Runtime.getRuntime().exec(isRoot ? COMMAND_SU : COMMAND_SH);
-            os = new DataOutputStream(process.getOutputStream());
-            for (String command : commands) {
-                if (command == null) {
-                    continue;
-                }
-
-                // donnot use os.writeBytes(commmand), avoid chinese charset error
-                os.write(command.getBytes());
-                os.writeBytes(COMMAND_LINE_END);
-                os.flush();
-            }
-            os.writeBytes(COMMAND_EXIT);
-            os.flush();
-
-            // get command result
-            if (isNeedResultMsg) {
-                successMsg = new StringBuilder();
-                errorMsg = new StringBuilder();
-                successResult = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                errorResult = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-                String s;
-                while ((s = successResult.readLine()) != null) {
-                    successMsg.append(s).append(COMMAND_NEW_LINE);
-                }
-                while ((s = errorResult.readLine()) != null) {
-                    errorMsg.append(s).append(COMMAND_NEW_LINE);
+            // both streams are drained at the same time, a command filling stderr cannot block
+            result = new ShellCommand(commands).setRoot(isRoot).run(new ShellCommand.OutputCallback() {
+                @Override
+                public void onLine(String line, boolean isError) {
+                    if (successMsg != null) {
+                        (isError ? errorMsg : successMsg).append(line).append(COMMAND_NEW_LINE);
+                    }
                 }
-            }
-            result = process.waitFor();
+            });
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (os != null) {
-                    os.close();
-                }
-                if (successResult != null) {
-                    successResult.close();
-                }
-                if (errorResult != null) {
-                    errorResult.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-            if (process != null && destroy) {
-                destroyProcess(process);
-            }
         }
         return new CommandResult(result, successMsg == null ? null : successMsg.toString(), errorMsg == null ? null
                 : errorMsg.toString());
     }
 
-    private static void destroyProcess(Process process) {
+    /**
+     * execute shell commands, streaming their output instead of collecting it
+     *
+     * @param timeoutMillis 0 or less to wait however long the commands run, else the shell is
+     *                      killed after it
+     * @param callback      receives every line of stdout and stderr as it is written
+     * @return exit status, {@link ShellCommand#RESULT_KILLED} on timeout or -1 if the shell could
+     *         not be started
+     * @see ShellCommand
+     */
+    public static int execCommand(String[] commands, boolean isRoot, long timeoutMillis,
+                                  ShellCommand.OutputCallback callback) {
         try {
-            process.exitValue();
-        } catch (IllegalThreadStateException e) {
-            process.destroy();
+            return new ShellCommand(commands).setRoot(isRoot).setTimeout(timeoutMillis).run(callback);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
         }
     }
 
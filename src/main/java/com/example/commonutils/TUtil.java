@@ -1,26 +1,123 @@
 package com.example.commonutils;
 
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 类转换初始化
  *
  * 基于反射+泛型的类转换类，拿到最外层的<>里的参数数组然后根据索引获取实例的工具类
+ *
+ * The type argument is resolved once per class and index and its no-arg constructor cached, so
+ * later calls only invoke the constructor. Non-generic classes between o's class and its nearest
+ * generic superclass are skipped.
  */
 public class TUtil {
-  public static <T> T getT(Object o, int i) {
-    try {
-      return ((Class<T>) ((ParameterizedType) (o.getClass()
-                    .getGenericSuperclass())).getActualTypeArguments()[i])
-                    .newInstance();
+    private static final String TAG = TUtil.class.getSimpleName();
+
+    // cached result of a type argument that is not an instantiable class
+    private static final Object MISSING = new Object();
+
+    private static final ConcurrentHashMap<TypeKey, Object> sConstructors = new ConcurrentHashMap<>();
+
+    private static final class TypeKey {
+        final Class<?> cls;
+        final int index;
+
+        TypeKey(Class<?> cls, int index) {
+            this.cls = cls;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TypeKey)) {
+                return false;
+            }
+            TypeKey other = (TypeKey) o;
+            return cls == other.cls && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return cls.hashCode() * 31 + index;
+        }
+    }
+
+    public static <T> T getT(Object o, int i) {
+        Constructor<T> constructor = getConstructor(o.getClass(), i);
+        if (constructor == null) {
+            return null;
+        }
+        try {
+            return constructor.newInstance();
         } catch (InstantiationException e) {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
             e.printStackTrace();
-        } catch (ClassCastException e) {
+        } catch (InvocationTargetException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * @return the i-th type argument of the nearest generic superclass of cls, null if it has
+     * fewer arguments or no class there
+     */
+    public static Class<?> getTClass(Class<?> cls, int i) {
+        for (Class<?> current = cls; current != null && current != Object.class; current = current.getSuperclass()) {
+            Type superclass = current.getGenericSuperclass();
+            if (superclass instanceof ParameterizedType) {
+                // the arguments of its own ancestors are unrelated to index i
+                Type[] arguments = ((ParameterizedType) superclass).getActualTypeArguments();
+                return i < arguments.length ? toClass(arguments[i]) : null;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Constructor<T> getConstructor(Class<?> cls, int i) {
+        TypeKey key = new TypeKey(cls, i);
+        Object constructor = sConstructors.get(key);
+        if (constructor == null) {
+            constructor = MISSING;
+            Class<?> argument = getTClass(cls, i);
+            if (argument == null) {
+                Log.w(TAG, "no class type argument " + i + " for " + cls);
+            } else if (argument.isInterface() || Modifier.isAbstract(argument.getModifiers())) {
+                Log.w(TAG, "cannot instantiate " + argument);
+            } else {
+                try {
+                    Constructor<?> found = argument.getDeclaredConstructor();
+                    found.setAccessible(true);
+                    constructor = found;
+                } catch (NoSuchMethodException e) {
+                    e.printStackTrace();
+                } catch (SecurityException e) {
+                    e.printStackTrace();
+                }
+            }
+            sConstructors.put(key, constructor);
+        }
+        return constructor == MISSING ? null : (Constructor<T>) constructor;
+    }
+
+    private static Class<?> toClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return null;
+    }
+
 }
\ No newline at end of file
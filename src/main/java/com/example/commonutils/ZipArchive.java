@@ -0,0 +1,506 @@
+package com.example.commonutils;
+
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Random access zip reader for .zip/.cbz archives.
+ * <p>
+ * The central directory is parsed once per (path, length, mtime) and the entry index cached
+ * across instances, so reopening an archive does not read it again. Entries are opened lazily
+ * with positional reads on a shared FileChannel, which makes showing a single page cheap and
+ * lets several entries be read or extracted concurrently.
+ */
+public class ZipArchive implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+    private static final int INDEX_CACHE_SIZE = 16;
+    // sizes come from the archive, larger entries grow their buffer as data arrives
+    private static final int MAX_PREALLOCATED_SIZE = 1024 * 1024;
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final LruCache<String, Entry[]> sIndexCache = new LruCache<>(INDEX_CACHE_SIZE);
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final int dosTime;
+        private final long localHeaderOffset;
+        private volatile long dataOffset = -1;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, int dosTime, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getDosTime() {
+            return dosTime;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Entry[] entries;
+    private final Map<String, Entry> entriesByName;
+
+    public ZipArchive(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        try {
+            String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+            Entry[] index = sIndexCache.get(key);
+            if (index == null) {
+                index = readCentralDirectory();
+                sIndexCache.put(key, index);
+            }
+            entries = index;
+        } catch (IOException e) {
+            FileUtils.closeQuietly(raf);
+            throw e;
+        }
+        entriesByName = new HashMap<>(entries.length * 2);
+        for (Entry entry : entries) {
+            entriesByName.put(entry.name, entry);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Entries in central directory order.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(entries));
+    }
+
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Image entries sorted by name, i.e. the pages of a comic archive.
+     */
+    public List<Entry> getImageEntries() {
+        List<Entry> images = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!entry.isDirectory() && FileUtils.isImageFile(entry.name)) {
+                images.add(entry);
+            }
+        }
+        Collections.sort(images, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.name.compareTo(rhs.name);
+            }
+        });
+        return images;
+    }
+
+    /**
+     * The stream may be used from any thread, independently of other open entries. It fails
+     * with a {@link ZipException} if the data does not match the size or CRC32 of the entry.
+     */
+    public InputStream openStream(Entry entry) throws IOException {
+        return new VerifyingInputStream(openRawStream(entry), entry);
+    }
+
+    private InputStream openRawStream(Entry entry) throws IOException {
+        InputStream raw = new ChannelInputStream(channel, getDataOffset(entry), entry.compressedSize,
+                entry.method == METHOD_DEFLATED);
+        if (entry.method == METHOD_STORED) {
+            return raw;
+        }
+        if (entry.method != METHOD_DEFLATED) {
+            raw.close();
+            throw new ZipException("unsupported compression method " + entry.method + ": " + entry.name);
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater, STREAM_BUFFER_SIZE) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    public byte[] readEntry(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("entry too large: " + entry.name);
+        }
+        InputStream in = openStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(entry.size, MAX_PREALLOCATED_SIZE));
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return the file entry name would be extracted to below directory
+     * @throws ZipException if the name points outside of directory
+     */
+    public static File resolveEntryFile(File directory, String name) throws IOException {
+        String root = directory.getCanonicalPath();
+        File target = new File(directory, name);
+        String path = target.getCanonicalPath();
+        if (!path.equals(root) && !path.startsWith(root + File.separator)) {
+            throw new ZipException("entry outside of target directory: " + name);
+        }
+        return target;
+    }
+
+    public File extract(Entry entry, File directory) throws IOException {
+        File target = resolveEntryFile(directory, entry.name);
+        if (entry.isDirectory()) {
+            if (!target.isDirectory() && !target.mkdirs() && !target.isDirectory()) {
+                throw new IOException("failed to create " + target);
+            }
+            return target;
+        }
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("failed to create " + parent);
+        }
+        InputStream in = openStream(entry);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(target);
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            FileUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(target);
+            throw e;
+        } finally {
+            FileUtils.closeQuietly(out);
+            FileUtils.closeQuietly(in);
+        }
+        return target;
+    }
+
+    public void extractAll(File directory, int threadCount) throws IOException {
+        extract(getEntries(), directory, threadCount);
+    }
+
+    /**
+     * Extracts the entries on threadCount threads. Every entry name is checked against path
+     * traversal before anything is written.
+     */
+    public void extract(List<Entry> selected, final File directory, int threadCount) throws IOException {
+        for (Entry entry : selected) {
+            resolveEntryFile(directory, entry.name);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, selected.size())));
+        try {
+            List<Future<File>> futures = new ArrayList<>(selected.size());
+            for (final Entry entry : selected) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return extract(entry, directory);
+                    }
+                }));
+            }
+            for (Future<File> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        FileUtils.closeQuietly(raf);
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        long offset = entry.dataOffset;
+        if (offset >= 0) {
+            return offset;
+        }
+        ByteBuffer header = readFully(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("bad local header: " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        offset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        entry.dataOffset = offset;
+        return offset;
+    }
+
+    private Entry[] readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("not a zip file: " + file);
+        }
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("end of central directory not found: " + file);
+        }
+        int count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (directorySize == ZIP64_MARKER || directoryOffset == ZIP64_MARKER || count == 0xFFFF) {
+            throw new ZipException("zip64 archives are not supported: " + file);
+        }
+        if (directoryOffset + directorySize > fileSize) {
+            throw new ZipException("bad central directory: " + file);
+        }
+
+        ByteBuffer directory = readFully(directoryOffset, (int) directorySize);
+        Entry[] result = new Entry[count];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directorySize
+                    || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("bad central directory entry " + i + ": " + file);
+            }
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            int dosTime = directory.getInt(position + 12);
+            long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+            if (compressedSize == ZIP64_MARKER || size == ZIP64_MARKER || localHeaderOffset == ZIP64_MARKER) {
+                throw new ZipException("zip64 entries are not supported: " + file);
+            }
+            byte[] name = new byte[nameLength];
+            directory.position(position + CENTRAL_HEADER_SIZE);
+            directory.get(name);
+            result[i] = new Entry(new String(name, UTF8), method, crc, compressedSize, size, dosTime, localHeaderOffset);
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private ByteBuffer readFully(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("unexpected end of file: " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Checks the data of an entry against its size and CRC32 from the central directory, failing
+     * as soon as it runs past the size so that a bogus entry cannot fill memory or disk.
+     */
+    private static class VerifyingInputStream extends InputStream {
+        private final InputStream in;
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long count = 0;
+        private boolean verified = false;
+
+        VerifyingInputStream(InputStream in, Entry entry) {
+            this.in = in;
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                crc.update(buffer, offset, read);
+                count += read;
+                if (count > entry.size) {
+                    throw new ZipException("entry larger than " + entry.size + " bytes: " + entry.name);
+                }
+            } else if (read < 0 && !verified) {
+                verified = true;
+                if (count != entry.size) {
+                    throw new ZipException("entry has " + count + " of " + entry.size + " bytes: " + entry.name);
+                }
+                if (crc.getValue() != entry.crc) {
+                    throw new ZipException("crc mismatch: " + entry.name);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a range of the channel with positional reads, so streams of different entries do not
+     * disturb each other. Deflated data gets one trailing dummy byte, which a nowrap Inflater
+     * may need to finish.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean dummyByte;
+
+        ChannelInputStream(FileChannel channel, long start, long length, boolean dummyByte) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+            this.dummyByte = dummyByte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long remaining = end - position;
+            if (remaining <= 0) {
+                if (dummyByte) {
+                    dummyByte = false;
+                    buffer[offset] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining));
+            int read = channel.read(target, position);
+            if (read < 0) {
+                throw new ZipException("unexpected end of file");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - position));
+        }
+    }
+}
@@ -2,82 +2,45 @@ package com.example.commonutils;
 
 import android.util.Log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.util.Arrays;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 public class ZipUtils {
-    private static final int BUFFER = 2048;
-
     public static boolean compress(List<File> fileList, File zipFile) {
-        return compress(fileList.toArray(new File[fileList.size()]), zipFile);
+        return compress(fileList, zipFile, Deflater.DEFAULT_COMPRESSION);
     }
 
     public static boolean compress(File[] files, File zipFile) {
-        boolean isSuccess = true;
+        return compress(Arrays.asList(files), zipFile, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Zip entries can only be stored or deflated, so the speed of a bundle is traded against its
+     * size through the deflate level, e.g. {@link Deflater#BEST_SPEED} for log bundles.
+     */
+    public static boolean compress(List<File> fileList, File zipFile, int level) {
         try {
-            BufferedInputStream origin;
-            FileOutputStream dest = new FileOutputStream(zipFile);
-            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(dest));
-            byte data[] = new byte[BUFFER];
-            for (int i = 0; i < files.length; i++) {
-                Log.v("Zip-Compress", "Adding: " + files[i]);
-                FileInputStream fi = new FileInputStream(files[i]);
-                origin = new BufferedInputStream(fi, BUFFER);
-                ZipEntry entry = new ZipEntry(files[i].getName());
-                out.putNextEntry(entry);
-                int count;
-                while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                    out.write(data, 0, count);
-                }
-                origin.close();
-            }
-            out.close();
+            new ParallelZipCompressor().setLevel(level).compress(fileList, zipFile);
+            return true;
         } catch (Exception e) {
             Log.e("zip Compress", "fail", e);
-            isSuccess = false;
+            return false;
         }
-        return isSuccess;
     }
 
     public static boolean decompress(String zipFile, String dirLocation) {
-        boolean isSuccess = true;
+        ZipArchive archive = null;
         try {
-            ZipInputStream zin = new ZipInputStream(new FileInputStream(zipFile));
-            ZipEntry ze;
-            byte data[] = new byte[BUFFER];
-            while ((ze = zin.getNextEntry()) != null) {
-                Log.v("Decompress", "Unzipping:" + ze.getName());
-                if (ze.isDirectory()) {
-                    dirChecker(dirLocation, ze.getName());
-                } else {
-                    FileOutputStream fout = new FileOutputStream(dirLocation + ze.getName());
-                    int count;
-                    while ((count = zin.read(data, 0, BUFFER)) != -1) {
-                        fout.write(data, 0, count);
-                    }
-                    zin.closeEntry();
-                    fout.close();
-                }
-            }
-            zin.close();
+            archive = new ZipArchive(new File(zipFile));
+            archive.extractAll(new File(dirLocation), Runtime.getRuntime().availableProcessors());
+            return true;
         } catch (Exception e) {
             Log.e("zip Decompress", "fail", e);
-            isSuccess = false;
-        }
-        return isSuccess;
-    }
-
-    private static void dirChecker(String location, String dirName) {
-        File f = new File(location + dirName);
-        if (!f.isDirectory()) {
-            f.mkdirs();
+            return false;
+        } finally {
+            FileUtils.closeQuietly(archive);
         }
     }
-}
\ No newline at end of file
+}
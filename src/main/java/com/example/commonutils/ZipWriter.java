@@ -0,0 +1,212 @@
+package com.example.commonutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Low level zip32 writer on a FileChannel: local headers, entry data written by the caller,
+ * and the central directory on {@link #finish()}. Sizes and CRC may be patched into the local
+ * header after the data, so an entry can be streamed without knowing them up front.
+ */
+class ZipWriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final long MAX_ZIP32_VALUE = 0xFFFFFFFFL;
+    static final int MAX_ZIP32_ENTRIES = 0xFFFF;
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    static class Entry {
+        final String name;
+        final byte[] nameBytes;
+        final int method;
+        final int dosTime;
+        long localHeaderOffset;
+        long crc;
+        long size;
+        long compressedSize;
+
+        Entry(String name, int method, long lastModified) {
+            this.name = name;
+            this.nameBytes = name.getBytes(UTF8);
+            this.method = method;
+            this.dosTime = toDosTime(lastModified);
+        }
+
+        int versionNeeded() {
+            return method == ParallelZipCompressor.METHOD_STORED ? VERSION_STORED : VERSION_DEFLATED;
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+
+    ZipWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    long getPosition() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Writes the local header with the sizes and CRC entry has now, the data follows at the
+     * current position.
+     */
+    void begin(Entry entry) throws IOException {
+        if (entries.size() >= MAX_ZIP32_ENTRIES) {
+            throw new ZipException("too many entries");
+        }
+        entry.localHeaderOffset = channel.position();
+        checkZip32(entry);
+        writeFully(channel, localHeader(entry));
+    }
+
+    void write(ByteBuffer data) throws IOException {
+        writeFully(channel, data);
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        writeFully(channel, ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Completes entry after its data, rewriting the local header if the values changed since
+     * {@link #begin(Entry)}.
+     */
+    void end(Entry entry, boolean patchHeader) throws IOException {
+        checkZip32(entry);
+        if (patchHeader) {
+            long end = channel.position();
+            channel.position(entry.localHeaderOffset);
+            writeFully(channel, localHeader(entry));
+            channel.position(end);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Drops entry and everything written after its local header.
+     */
+    void discard(Entry entry) throws IOException {
+        channel.truncate(entry.localHeaderOffset);
+        channel.position(entry.localHeaderOffset);
+    }
+
+    void finish() throws IOException {
+        long start = channel.position();
+        for (Entry entry : entries) {
+            writeFully(channel, centralHeader(entry));
+        }
+        long size = channel.position() - start;
+        if (start > MAX_ZIP32_VALUE || size > MAX_ZIP32_VALUE) {
+            throw new ZipException("archive too large for zip32");
+        }
+        ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) entries.size());
+        end.putShort((short) entries.size());
+        end.putInt((int) size);
+        end.putInt((int) start);
+        end.putShort((short) 0);
+        end.flip();
+        writeFully(channel, end);
+    }
+
+    /**
+     * Bytes of headers an entry named name adds to the archive, local and central.
+     */
+    static int headerOverhead(String name) {
+        return LOCAL_HEADER_SIZE + CENTRAL_HEADER_SIZE + 2 * name.getBytes(UTF8).length;
+    }
+
+    private static ByteBuffer localHeader(Entry entry) {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + entry.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) entry.versionNeeded());
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) 0);
+        header.put(entry.nameBytes);
+        header.flip();
+        return header;
+    }
+
+    private static ByteBuffer centralHeader(Entry entry) {
+        ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION_DEFLATED);
+        header.putShort((short) entry.versionNeeded());
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) entry.localHeaderOffset);
+        header.put(entry.nameBytes);
+        header.flip();
+        return header;
+    }
+
+    private static void checkZip32(Entry entry) throws ZipException {
+        if (entry.size > MAX_ZIP32_VALUE || entry.compressedSize > MAX_ZIP32_VALUE
+                || entry.localHeaderOffset > MAX_ZIP32_VALUE) {
+            throw new ZipException("entry too large for zip32: " + entry.name);
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * MS-DOS date in the high half, time in the low half, as zip headers store them.
+     */
+    static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
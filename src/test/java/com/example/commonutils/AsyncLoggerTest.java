@@ -0,0 +1,151 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncLoggerTest {
+    private AsyncLogger logger;
+
+    @After
+    public void tearDown() {
+        if (logger != null) {
+            logger.shutdown(1000);
+        }
+    }
+
+    private static class CollectingSink implements AsyncLogger.Sink {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final boolean format;
+        volatile int flushes;
+        volatile boolean closed;
+
+        CollectingSink(boolean format) {
+            this.format = format;
+        }
+
+        @Override
+        public void write(AsyncLogger.Record record) {
+            lines.add(record.getTag() + ": " + (format ? record.getMessage() : record.getFormat()));
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class CountingArg {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            count.incrementAndGet();
+            return "arg";
+        }
+    }
+
+    @Test
+    public void recordsReachSinksInOrder() {
+        CollectingSink sink = new CollectingSink(true);
+        logger = new AsyncLogger("App").addSink(sink).start();
+        final int threads = 4;
+        final int perThread = 1000;
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        while (!logger.log(Log.INFO, "T" + id, "line %d", new Object[]{i}, null)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : producers) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                fail();
+            }
+        }
+        assertTrue(logger.flush(5000));
+        assertTrue(sink.flushes > 0);
+
+        List<String> lines = new ArrayList<>(sink.lines);
+        assertEquals(threads * perThread, lines.size());
+        int[] next = new int[threads];
+        for (String line : lines) {
+            int id = line.charAt("App/T".length()) - '0';
+            assertEquals(line, "App/T" + id + ": line " + next[id], line);
+            next[id]++;
+        }
+
+        logger.shutdown(1000);
+        assertTrue(sink.closed);
+        assertTrue(logger.log(Log.INFO, "Tag", "after shutdown", null, null));
+        assertFalse(logger.flush(100));
+    }
+
+    @Test
+    public void messagesAreFormattedOnceAndOnlyWhenRead() {
+        CollectingSink raw = new CollectingSink(false);
+        logger = new AsyncLogger("App").addSink(raw).start();
+        CountingArg arg = new CountingArg();
+        logger.log(Log.DEBUG, null, "value %s", new Object[]{arg}, null);
+        assertTrue(logger.flush(1000));
+        assertEquals("App: value %s", raw.lines.get(0));
+        assertEquals(0, arg.count.get());
+
+        CollectingSink first = new CollectingSink(true);
+        CollectingSink second = new CollectingSink(true);
+        logger.addSink(first).addSink(second);
+        logger.log(Log.DEBUG, "Tag", "value %s", new Object[]{arg}, null);
+        logger.log(Log.DEBUG, "Tag", "bad %d", new Object[]{"text"}, null);
+        assertTrue(logger.flush(1000));
+        assertEquals("App/Tag: value arg", first.lines.get(0));
+        assertEquals(first.lines, second.lines);
+        assertEquals(1, arg.count.get());
+        assertTrue(first.lines.get(1).startsWith("App/Tag: bad %d (format failed: "));
+    }
+
+    @Test
+    public void fullRingDropsAndReports() {
+        CollectingSink sink = new CollectingSink(true);
+        logger = new AsyncLogger("App", 4).addSink(sink);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(logger.log(Log.INFO, "Tag", "kept " + i, null, null));
+        }
+        assertFalse(logger.log(Log.INFO, "Tag", "dropped", null, null));
+        assertFalse(logger.log(Log.ERROR, "Tag", "dropped", null, null));
+        assertEquals(2, logger.getDroppedCount());
+
+        logger.start();
+        assertTrue(logger.flush(1000));
+        assertEquals(0, logger.getDroppedCount());
+        List<String> lines = new ArrayList<>(sink.lines);
+        assertEquals(5, lines.size());
+        assertEquals("App: 2 log records dropped, ring buffer full", lines.get(0));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("App/Tag: kept " + i, lines.get(i + 1));
+        }
+    }
+}
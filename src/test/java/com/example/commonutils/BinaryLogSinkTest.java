@@ -0,0 +1,125 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.*;
+
+public class BinaryLogSinkTest {
+    private File file;
+    private BinaryLogSink sink;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("log", ".blog");
+        sink = new BinaryLogSink(file);
+    }
+
+    @After
+    public void tearDown() {
+        sink.close();
+        FileUtils.deleteQuietly(file);
+    }
+
+    private static AsyncLogger.Record record(int level, String tag, String format, Object... args) {
+        AsyncLogger.Record record = new AsyncLogger.Record();
+        record.level = level;
+        record.fullTag = tag;
+        record.message = format;
+        record.args = args;
+        record.timeMillis = System.currentTimeMillis();
+        record.threadId = 7;
+        return record;
+    }
+
+    private String[] decode(int expectedEvents) throws IOException {
+        StringWriter out = new StringWriter();
+        InputStream in = new FileInputStream(file);
+        try {
+            assertEquals(expectedEvents, BinaryLogDecoder.decode(in, out));
+        } finally {
+            in.close();
+        }
+        return out.toString().split("\n");
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        sink.write(record(Log.DEBUG, "App/Net", "plain message"));
+        sink.write(record(Log.INFO, "App/Net", "%d %d %.1f %.2f %b %s %c %d %d %s",
+                -5, 1L << 40, 1.5f, 2.25, true, "text", 'x', (byte) -3, (short) 300, null));
+        sink.write(record(Log.WARN, "App/Db", "plain message"));
+        sink.close();
+
+        String[] lines = decode(3);
+        assertTrue(lines[0], lines[0].endsWith(" 7 D App/Net: plain message"));
+        assertTrue(lines[1], lines[1].endsWith(
+                " 7 I App/Net: -5 1099511627776 1.5 2.25 true text x -3 300 null"));
+        assertTrue(lines[2], lines[2].endsWith(" 7 W App/Db: plain message"));
+    }
+
+    @Test
+    public void stringIdsResetBetweenEvents() throws IOException {
+        int count = BinaryLogSink.MAX_STRING_IDS + 100;
+        for (int i = 0; i < count; i++) {
+            // every event defines a new format, and a new tag now and then
+            String tag = i % 1000 == 999 ? "Tag" + i : "Tag";
+            sink.write(record(Log.DEBUG, tag, "message " + i + " %d", i));
+        }
+        sink.close();
+
+        String[] lines = decode(count);
+        for (int i = 0; i < count; i++) {
+            String tag = i % 1000 == 999 ? "Tag" + i : "Tag";
+            assertTrue(lines[i], lines[i].endsWith(" D " + tag + ": message " + i + " " + i));
+        }
+    }
+
+    @Test
+    public void failedWriteKeepsEarlierBatches() throws Exception {
+        long time = System.currentTimeMillis();
+        AsyncLogger.Record kept = record(Log.INFO, "Tag", "kept %d", 1);
+        kept.timeMillis = time + 1000;
+        sink.write(kept);
+        sink.flush();
+
+        // the disk fills up: the batch fails, leaving part of it in the file
+        Field field = BinaryLogSink.class.getDeclaredField("out");
+        field.setAccessible(true);
+        ((FileOutputStream) field.get(sink)).close();
+        AsyncLogger.Record lost = record(Log.INFO, "Lost", "lost %d", 2);
+        lost.timeMillis = time + 5000;
+        sink.write(lost);
+        sink.flush();
+        FileOutputStream torn = new FileOutputStream(file, true);
+        try {
+            torn.write(new byte[]{BinaryLogSink.RECORD_DEFINE, 0, 4, 'L'});
+        } finally {
+            torn.close();
+        }
+
+        AsyncLogger.Record after = record(Log.WARN, "Other", "after %s", "failure");
+        after.timeMillis = time + 2000;
+        sink.write(after);
+        sink.write(kept);
+        sink.close();
+
+        String[] lines = decode(3);
+        StringBuilder expected = new StringBuilder();
+        kept.appendTo(expected);
+        after.appendTo(expected);
+        kept.appendTo(expected);
+        assertEquals(expected.toString(), lines[0] + "\n" + lines[1] + "\n" + lines[2] + "\n");
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ChecksumCacheTest {
+    private File dir;
+    private File logFile;
+    private File[] files;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("checksums", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        logFile = new File(dir, "checksums.log");
+        files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dir, "file" + i);
+            write(files[i], ("content " + i).getBytes(FileUtils.UTF8), false);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                FileUtils.deleteQuietly(child);
+            }
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static void write(File file, byte[] bytes, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private ChecksumCache open() throws IOException {
+        ChecksumCache cache = new ChecksumCache(logFile);
+        cache.open();
+        return cache;
+    }
+
+    /**
+     * Checksums every file through a new cache and checks they all came from the log.
+     */
+    private void assertAllOnDisk() throws IOException {
+        ChecksumCache cache = open();
+        try {
+            assertEquals(files.length, cache.getDiskEntryCount());
+            for (File file : files) {
+                assertEquals(FileHasher.hashToString(file, FileHasher.Algorithm.MD5),
+                        cache.getChecksum(file, FileHasher.Algorithm.MD5));
+            }
+            assertEquals(files.length, cache.getDiskHits());
+            assertEquals(0, cache.getMisses());
+        } finally {
+            cache.close();
+        }
+    }
+
+    private long fill() throws IOException {
+        ChecksumCache cache = open();
+        try {
+            for (File file : files) {
+                cache.getChecksum(file, FileHasher.Algorithm.MD5);
+            }
+            assertEquals(files.length, cache.getMisses());
+        } finally {
+            cache.close();
+        }
+        return logFile.length();
+    }
+
+    @Test
+    public void reopensFromLog() throws IOException {
+        fill();
+        assertAllOnDisk();
+    }
+
+    @Test
+    public void garbageTailIsTruncated() throws IOException {
+        long length = fill();
+        byte[][] tails = {
+                {0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF},
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE},
+                {0, 0},
+                // unknown algorithm
+                {0, 0, 0, 3, 99, 0, 0},
+                // path of invalid modified UTF-8
+                {0, 0, 0, 4, 0, 0, 1, (byte) 0xFF},
+                // fields missing from the payload
+                {0, 0, 0, 3, 0, 0, 0},
+        };
+        for (byte[] tail : tails) {
+            write(logFile, tail, true);
+            assertAllOnDisk();
+            assertEquals(length, logFile.length());
+        }
+    }
+
+    @Test
+    public void tornRecordIsDroppedAndLogStaysAppendable() throws IOException {
+        long length = fill();
+        RandomAccessFile log = new RandomAccessFile(logFile, "rw");
+        try {
+            log.setLength(length - 5);
+        } finally {
+            log.close();
+        }
+
+        ChecksumCache cache = open();
+        try {
+            assertEquals(files.length - 1, cache.getDiskEntryCount());
+            for (File file : files) {
+                cache.getChecksum(file, FileHasher.Algorithm.MD5);
+            }
+            assertEquals(1, cache.getMisses());
+        } finally {
+            cache.close();
+        }
+        assertEquals(length, logFile.length());
+        assertAllOnDisk();
+    }
+}
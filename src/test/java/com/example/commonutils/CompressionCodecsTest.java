@@ -0,0 +1,156 @@
+package com.example.commonutils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionCodecsTest {
+    private static final int[] LENGTHS = {0, 1, 12, 13, 100, 65536, 300000};
+
+    private static byte[] text(Random random, int length) {
+        String[] words = {"alpha ", "beta ", "gamma ", "delta ", "{\"id\":", "\"name\":", "0123 ", "\n"};
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        while (out.size() < length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            out.write(word, 0, Math.min(word.length, length - out.size()));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] noise(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void framedRoundTrip() throws DataFormatException {
+        Random random = new Random(1);
+        CompressionCodec[] codecs = {new DeflateCodec(), new GzipCodec(), new Lz4Codec(),
+                new DeflateCodec(9, Deflater.DEFAULT_STRATEGY, true)};
+        for (CompressionCodec codec : codecs) {
+            for (int length : LENGTHS) {
+                for (byte[] data : new byte[][]{text(random, length), noise(random, length)}) {
+                    byte[] framed = CompressionCodecs.compress(data, codec);
+                    assertEquals(codec.getId(), framed[0]);
+                    assertArrayEquals(codec.getClass().getSimpleName() + " " + length, data,
+                            CompressionCodecs.decompress(framed));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lz4CompressesRepetitiveData() throws DataFormatException {
+        byte[] data = text(new Random(2), 100000);
+        Lz4Codec codec = new Lz4Codec();
+        byte[] compressed = codec.compress(data, 0, data.length);
+        assertTrue(compressed.length < data.length / 2);
+        assertArrayEquals(data, codec.decompress(compressed, 0, compressed.length));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void lz4RejectsImpossibleLength() throws DataFormatException {
+        // varint length of 2^28 followed by a single literal
+        new Lz4Codec().decompress(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01, 0x10, 'a'},
+                0, 7);
+    }
+
+    @Test
+    public void gzipInteroperatesWithJavaUtilZip() throws IOException, DataFormatException {
+        byte[] data = text(new Random(3), 50000);
+        GzipCodec codec = new GzipCodec();
+
+        byte[] ours = codec.compress(data, 0, data.length);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(ours));
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            inflated.write(buffer, 0, read);
+        }
+        assertArrayEquals(data, inflated.toByteArray());
+
+        ByteArrayOutputStream theirs = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(theirs);
+        out.write(data);
+        out.close();
+        assertArrayEquals(data, codec.decompress(theirs.toByteArray(), 0, theirs.size()));
+    }
+
+    @Test
+    public void gzipLargerThanPreallocation() throws DataFormatException {
+        byte[] data = text(new Random(4), 5 * 1024 * 1024);
+        GzipCodec codec = new GzipCodec();
+        byte[] compressed = codec.compress(data, 0, data.length);
+        assertArrayEquals(data, codec.decompress(compressed, 0, compressed.length));
+    }
+
+    @Test
+    public void gzipRejectsBogusSize() {
+        GzipCodec codec = new GzipCodec();
+        byte[] compressed = codec.compress(new byte[100], 0, 100);
+        int[] sizes = {Integer.MAX_VALUE, 50 * 1024 * 1024, 99, 101};
+        for (int size : sizes) {
+            byte[] corrupt = compressed.clone();
+            int position = corrupt.length - 4;
+            for (int i = 0; i < 4; i++) {
+                corrupt[position + i] = (byte) (size >>> (8 * i));
+            }
+            try {
+                codec.decompress(corrupt, 0, corrupt.length);
+                fail("size " + size);
+            } catch (DataFormatException expected) {
+            }
+        }
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void gzipRejectsCrcMismatch() throws DataFormatException {
+        GzipCodec codec = new GzipCodec();
+        byte[] compressed = codec.compress(new byte[100], 0, 100);
+        compressed[compressed.length - 8] ^= 1;
+        codec.decompress(compressed, 0, compressed.length);
+    }
+
+    @Test
+    public void dictionaryRoundTrip() throws DataFormatException {
+        Random random = new Random(5);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(text(random, 500));
+        }
+        byte[] dictionary = DictionaryDeflateCodec.train(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+
+        DictionaryDeflateCodec codec = new DictionaryDeflateCodec(dictionary);
+        byte[] data = text(random, 500);
+        byte[] framed = CompressionCodecs.compress(data, codec);
+        assertArrayEquals(data, CompressionCodecs.decompress(framed));
+        byte[] plain = new DeflateCodec().compress(data);
+        assertTrue(framed.length < plain.length);
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void unknownCodecFails() throws DataFormatException {
+        CompressionCodecs.decompress(new byte[]{(byte) 200, 1, 2, 3});
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void truncatedPayloadFails() throws DataFormatException {
+        byte[] framed = CompressionCodecs.compress(text(new Random(6), 10000), new GzipCodec());
+        CompressionCodecs.decompress(Arrays.copyOf(framed, framed.length / 2));
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.commonutils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.*;
+
+public class DeflateCodecTest {
+    private final DeflateCodec codec = new DeflateCodec();
+
+    static byte[] sample(Random random, int length) {
+        // compressible but not trivially so
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(16) + 'a');
+        }
+        return data;
+    }
+
+    @Test
+    public void roundTripArrays() throws Exception {
+        Random random = new Random(1);
+        for (int length : new int[]{0, 1, 100, 70000}) {
+            byte[] data = sample(random, length);
+            assertArrayEquals(data, codec.decompress(codec.compress(data)));
+        }
+    }
+
+    @Test
+    public void roundTripStreams() throws Exception {
+        byte[] data = sample(new Random(2), 100000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        codec.compress(new ByteArrayInputStream(data), compressed);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        codec.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+
+    @Test
+    public void decompressIntoExactDestination() throws Exception {
+        Random random = new Random(3);
+        for (int length : new int[]{0, 1, 32758, 100000}) {
+            byte[] data = sample(random, length);
+            byte[] compressed = codec.compress(data);
+            byte[] dest = new byte[length];
+            assertEquals(length, codec.decompress(compressed, 0, compressed.length, dest, 0, length));
+            assertArrayEquals(data, dest);
+        }
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void decompressIntoSmallDestinationFails() throws Exception {
+        byte[] compressed = codec.compress(new byte[100]);
+        codec.decompress(compressed, 0, compressed.length, new byte[99], 0, 99);
+    }
+
+    @Test
+    public void emptyBuffers() throws Exception {
+        byte[] compressed = codec.compress(new byte[0]);
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer src = allocate(compressed.length, direct);
+            src.put(compressed).flip();
+            assertEquals(0, codec.decompress(src, allocate(0, direct)));
+            assertFalse(src.hasRemaining());
+        }
+    }
+
+    @Test
+    public void buffersWithExactDestination() throws Exception {
+        Random random = new Random(4);
+        for (int i = 0; i < 100; i++) {
+            int length = i == 0 ? 32758 : random.nextInt(200000);
+            byte[] data = i % 2 == 0 ? sample(random, length) : random(random, length);
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer src = allocate(length + 100, direct);
+                src.put(data).flip();
+                ByteBuffer compressed = allocate(DeflateCodec.maxCompressedLength(length), direct);
+                codec.compress(src, compressed);
+                compressed.flip();
+                ByteBuffer dst = allocate(length, direct);
+                assertEquals("length " + length, length, codec.decompress(compressed, dst));
+                assertFalse(compressed.hasRemaining());
+                dst.flip();
+                byte[] result = new byte[length];
+                dst.get(result);
+                assertArrayEquals("length " + length, data, result);
+            }
+        }
+    }
+
+    @Test
+    public void buffersWithSmallDestinationFail() throws Exception {
+        byte[] compressed = codec.compress(random(new Random(5), 50000));
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer src = allocate(compressed.length, direct);
+            src.put(compressed).flip();
+            try {
+                codec.decompress(src, allocate(49999, direct));
+                fail();
+            } catch (DataFormatException expected) {
+            }
+        }
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void truncatedInputFails() throws Exception {
+        byte[] compressed = codec.compress(sample(new Random(6), 10000));
+        codec.decompress(compressed, 0, compressed.length / 2);
+    }
+
+    private static byte[] random(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.commonutils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EinkDitherTest {
+    private static final int[] BITS = {1, 2, 4};
+
+    private static int[] gradient(int width, int height, int seed) {
+        int[] argb = new int[width * height];
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grey = Math.min(255, Math.max(0, x * 255 / width + random.nextInt(21) - 10));
+                int alpha = random.nextInt(8) == 0 ? random.nextInt(256) : 0xFF;
+                argb[y * width + x] = alpha << 24 | grey << 16 | (255 - grey) << 8 | grey;
+            }
+        }
+        return argb;
+    }
+
+    private static int paperGrey(int pixel) {
+        int grey = PixelOps.luma(pixel);
+        int alpha = pixel >>> 24;
+        return alpha == 0xFF ? grey : 255 - ((255 - grey) * alpha + 127) / 255;
+    }
+
+    /**
+     * Error diffusion over the whole image on one thread, with the same integer math.
+     */
+    private static int[][] diffuse(int[] argb, int width, int height, int bits, boolean atkinson) {
+        int maxLevel = (1 << bits) - 1;
+        int step = 255 / maxLevel;
+        int[][] errors = new int[height + 2][width + 4];
+        int[][] levels = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            int carry = 0;
+            int carryNext = 0;
+            for (int x = 0; x < width; x++) {
+                int value = atkinson
+                        ? paperGrey(argb[y * width + x]) + ((errors[y][x + 2] + carry + 4) >> 3)
+                        : paperGrey(argb[y * width + x]) + ((errors[y][x + 2] + carry + 8) >> 4);
+                value = Math.min(255, Math.max(0, value));
+                int level = (value * maxLevel + 127) / 255;
+                int error = value - level * step;
+                if (atkinson) {
+                    carry = carryNext + error;
+                    carryNext = error;
+                    errors[y + 1][x + 1] += error;
+                    errors[y + 1][x + 2] += error;
+                    errors[y + 1][x + 3] += error;
+                    errors[y + 2][x + 2] += error;
+                } else {
+                    carry = error * 7;
+                    errors[y + 1][x + 1] += error * 3;
+                    errors[y + 1][x + 2] += error * 5;
+                    errors[y + 1][x + 3] += error;
+                }
+                levels[y][x] = level;
+            }
+        }
+        return levels;
+    }
+
+    private static void assertLevels(int[][] expected, EinkDither.Frame frame) {
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                assertEquals("(" + x + ", " + y + ")", expected[y][x], frame.getLevel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void packsLevelsMostSignificantFirst() {
+        // one row of white, then black, 10 pixels wide
+        int[] argb = new int[20];
+        Arrays.fill(argb, 0, 10, 0xFFFFFFFF);
+        Arrays.fill(argb, 10, 20, 0xFF000000);
+        byte[][] expected = {
+                {(byte) 0xFF, (byte) 0xC0, 0, 0},
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0, 0, 0},
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0, 0, 0, 0, 0},
+        };
+        for (int i = 0; i < BITS.length; i++) {
+            for (EinkDither.Method method : EinkDither.Method.values()) {
+                EinkDither.Frame frame = new EinkDither(BITS[i], method).dither(argb, 0, 10, 10, 2, null);
+                assertEquals((10 * BITS[i] + 7) / 8, frame.getStride());
+                assertArrayEquals(method + " " + BITS[i], expected[i], frame.getData());
+                assertEquals((1 << BITS[i]) - 1, frame.getLevel(9, 0));
+                assertEquals(0, frame.getLevel(9, 1));
+            }
+        }
+    }
+
+    @Test
+    public void transparentIsPaper() {
+        int[] argb = new int[64];
+        Arrays.fill(argb, 0x00000000);
+        EinkDither.Frame frame = new EinkDither(4, EinkDither.Method.FLOYD_STEINBERG).dither(argb, 0, 8, 8, 8, null);
+        int[] preview = new int[64];
+        frame.toArgb(preview, 0, 8);
+        for (int pixel : preview) {
+            assertEquals(0xFFFFFFFF, pixel);
+        }
+    }
+
+    @Test
+    public void keepsGreyLevel() {
+        int width = 64;
+        int[] argb = new int[width * width];
+        Arrays.fill(argb, 0xFF808080);
+        for (EinkDither.Method method : EinkDither.Method.values()) {
+            EinkDither.Frame frame = new EinkDither(1, method).dither(argb, 0, width, width, width, null);
+            int white = 0;
+            for (int y = 0; y < width; y++) {
+                for (int x = 0; x < width; x++) {
+                    white += frame.getLevel(x, y);
+                }
+            }
+            assertEquals(method.toString(), argb.length / 2, white, argb.length / 32);
+        }
+    }
+
+    @Test
+    public void diffusionAcrossThreadsMatchesOneThread() {
+        // wider than a chunk of a row, and tall enough for a row per thread
+        int width = 301;
+        int height = PixelOps.MIN_ROWS_PER_TASK * 4 + 5;
+        int[] argb = gradient(width, height, 1);
+        for (int bits : BITS) {
+            for (EinkDither.Method method : new EinkDither.Method[]{EinkDither.Method.FLOYD_STEINBERG,
+                    EinkDither.Method.ATKINSON}) {
+                int[][] expected = diffuse(argb, width, height, bits, method == EinkDither.Method.ATKINSON);
+                EinkDither dither = new EinkDither(bits, method);
+                EinkDither.Frame frame = null;
+                for (int run = 0; run < 5; run++) {
+                    EinkDither.Frame reused = dither.dither(argb, 0, width, width, height, frame);
+                    assertTrue(frame == null || reused == frame);
+                    frame = reused;
+                    assertLevels(expected, frame);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void orderedAcrossThreadsMatchesRows() {
+        int width = 77;
+        int height = PixelOps.MIN_ROWS_PER_TASK * 4 + 3;
+        int[] argb = gradient(width, height, 2);
+        for (int bits : BITS) {
+            EinkDither dither = new EinkDither(bits, EinkDither.Method.ORDERED);
+            EinkDither.Frame frame = dither.dither(argb, 0, width, width, height, null);
+            // rows are independent, so blocks as high as the matrix dither the same on their own
+            for (int top = 0; top < height; top += 8) {
+                int rows = Math.min(8, height - top);
+                EinkDither.Frame block = dither.dither(argb, top * width, width, width, rows, null);
+                for (int y = 0; y < rows; y++) {
+                    for (int x = 0; x < width; x++) {
+                        assertEquals(block.getLevel(x, y), frame.getLevel(x, top + y));
+                    }
+                }
+            }
+            assertFalse(frame == dither.dither(argb, 0, width, width, height - 1, frame));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedDepth() {
+        new EinkDither(3, EinkDither.Method.ORDERED);
+    }
+}
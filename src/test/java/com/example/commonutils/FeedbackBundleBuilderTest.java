@@ -0,0 +1,119 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeedbackBundleBuilderTest {
+    private File dir;
+    private File zipFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bundle", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        zipFile = new File(dir, "feedback.zip");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private File file(String name, byte[] content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(File zipFile, String name) throws IOException {
+        ZipArchive archive = new ZipArchive(zipFile);
+        try {
+            return new String(archive.readEntry(archive.getEntry(name)), FileUtils.UTF8);
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void prioritiesAndBudget() throws IOException {
+        byte[] noise = new byte[200 * 1024];
+        new Random(1).nextBytes(noise);
+        File large = file("large.bin", noise);
+        File small = file("small.txt", "important".getBytes(FileUtils.UTF8));
+        long budget = 64 * 1024;
+        List<FeedbackBundleBuilder.Entry> entries = new FeedbackBundleBuilder()
+                .setBudget(budget)
+                .addFile(large, "large.bin", 1)
+                .addFile(small, "small.txt", 2)
+                .build(zipFile);
+
+        assertEquals("small.txt", entries.get(0).getName());
+        assertEquals(FeedbackBundleBuilder.Status.COMPLETE, entries.get(0).getStatus());
+        assertEquals(FeedbackBundleBuilder.Status.TRUNCATED, entries.get(1).getStatus());
+        assertTrue(zipFile.length() <= budget);
+        assertEquals("important", read(zipFile, "small.txt"));
+        assertTrue(read(zipFile, "large.bin").endsWith("]\n"));
+        assertTrue(read(zipFile, FeedbackBundleBuilder.MANIFEST_NAME).contains("\"status\":\"truncated\""));
+    }
+
+    @Test
+    public void tinySourceFitsLittleRoom() throws IOException {
+        File small = file("small.txt", "tiny".getBytes(FileUtils.UTF8));
+        // smallest budget that holds the manifest of one entry
+        long low = 0;
+        long high = 64 * 1024;
+        while (low < high) {
+            long middle = (low + high) / 2;
+            try {
+                new FeedbackBundleBuilder().setBudget(middle).addFile(small, "small.txt", 1).build(zipFile);
+                high = middle;
+            } catch (IOException e) {
+                low = middle + 1;
+            }
+        }
+        long budget = low + ZipWriter.headerOverhead("small.txt") + 1100;
+        List<FeedbackBundleBuilder.Entry> entries = new FeedbackBundleBuilder()
+                .setBudget(budget)
+                .addFile(small, "small.txt", 1)
+                .build(zipFile);
+
+        assertEquals(FeedbackBundleBuilder.Status.COMPLETE, entries.get(0).getStatus());
+        assertTrue(zipFile.length() <= budget);
+        assertEquals("tiny", read(zipFile, "small.txt"));
+    }
+
+    @Test
+    public void commandsAndTimeouts() throws IOException {
+        List<FeedbackBundleBuilder.Entry> entries = new FeedbackBundleBuilder()
+                .addCommand("echo.txt", "echo hello", 2)
+                .setCommandTimeout(300)
+                .addCommand("sleep.txt", "sleep 10", 1)
+                .build(zipFile);
+
+        assertEquals(FeedbackBundleBuilder.Status.COMPLETE, entries.get(0).getStatus());
+        assertEquals("hello\n", read(zipFile, "echo.txt"));
+        assertEquals(FeedbackBundleBuilder.Status.TIMED_OUT, entries.get(1).getStatus());
+        assertTrue(read(zipFile, "sleep.txt").contains("[killed after 300 ms]"));
+        assertTrue(read(zipFile, FeedbackBundleBuilder.MANIFEST_NAME).contains("\"status\":\"timed_out\""));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileHasherTest {
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private File file(byte[] content) throws IOException {
+        File file = File.createTempFile("hash", ".bin");
+        files.add(file);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String hex(byte[] data, FileHasher.Algorithm algorithm) {
+        return FileUtils.hexToString(FileHasher.hash(data, algorithm));
+    }
+
+    @Test
+    public void knownDigests() {
+        byte[] abc = "abc".getBytes(FileUtils.UTF8);
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hex(abc, FileHasher.Algorithm.MD5));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                hex(abc, FileHasher.Algorithm.SHA_256));
+        assertEquals("ef46db3751d8e999", hex(new byte[0], FileHasher.Algorithm.XXHASH64));
+        assertEquals("44bc2cf5ad770999", hex(abc, FileHasher.Algorithm.XXHASH64));
+        assertEquals("fbcea83c8a378bf1", hex("Nobody inspects the spammish repetition".getBytes(FileUtils.UTF8),
+                FileHasher.Algorithm.XXHASH64));
+        assertEquals("e3069283", hex("123456789".getBytes(FileUtils.UTF8), FileHasher.Algorithm.CRC32C));
+    }
+
+    @Test
+    public void filesMatchBuffers() throws IOException {
+        Random random = new Random(1);
+        // below and above the size files are memory mapped from
+        for (int length : new int[]{0, 7, 31, 33, 100000, 300001}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            File file = file(data);
+            for (FileHasher.Algorithm algorithm : FileHasher.Algorithm.values()) {
+                String expected = hex(data, algorithm);
+                assertEquals(algorithm + " " + length, expected, FileHasher.hashToString(file, algorithm));
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length);
+                direct.put(data).flip();
+                assertEquals(algorithm + " " + length, expected,
+                        FileUtils.hexToString(FileHasher.hash(direct, algorithm)));
+                assertFalse(direct.hasRemaining());
+            }
+        }
+    }
+
+    @Test
+    public void hashFilesInParallel() throws IOException {
+        Random random = new Random(2);
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] data = new byte[random.nextInt(400000)];
+            random.nextBytes(data);
+            inputs.add(file(data));
+        }
+        inputs.add(new File(inputs.get(0).getPath() + ".missing"));
+
+        Map<String, String> hashes = FileHasher.hashToString(inputs, FileHasher.Algorithm.XXHASH64, 4);
+        assertEquals(8, hashes.size());
+        for (int i = 0; i < 8; i++) {
+            File file = inputs.get(i);
+            assertEquals(FileHasher.hashToString(file, FileHasher.Algorithm.XXHASH64),
+                    hashes.get(file.getAbsolutePath()));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FileIndexTest {
+    private File dir;
+    private File root;
+    private File indexFile;
+    private File journalFile;
+    private long mtime;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("index", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        root = new File(dir, "root");
+        indexFile = new File(dir, "index");
+        journalFile = new File(dir, "index.journal");
+        // old enough for the index to trust directory mtimes
+        mtime = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+        for (int d = 0; d < 10; d++) {
+            File sub = new File(root, "dir" + d);
+            assertTrue(sub.mkdirs());
+            for (int f = 0; f < 10; f++) {
+                assertTrue(new File(sub, "file" + f + ".txt").createNewFile());
+            }
+            assertTrue(sub.setLastModified(mtime));
+        }
+        assertTrue(root.setLastModified(mtime));
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * Adds a file to a directory and moves its mtime on, as a change between two refreshes.
+     */
+    private File addFile(String dirName, String name) throws IOException {
+        File sub = new File(root, dirName);
+        File file = new File(sub, name);
+        assertTrue(file.createNewFile());
+        mtime += 1000;
+        assertTrue(sub.setLastModified(mtime));
+        return file;
+    }
+
+    private FileIndex load() {
+        FileIndex index = new FileIndex(root, indexFile);
+        assertTrue(index.load());
+        return index;
+    }
+
+    @Test
+    public void journalIsReplayed() throws IOException {
+        FileIndex index = new FileIndex(root, indexFile);
+        index.refresh();
+        assertTrue(indexFile.exists());
+        assertEquals(110, index.size());
+
+        File added = addFile("dir3", "added.txt");
+        index.refresh();
+        assertTrue(journalFile.length() > 0);
+
+        index = load();
+        assertEquals(111, index.size());
+        assertNotNull(index.getEntry(added.getPath()));
+    }
+
+    @Test
+    public void tornJournalIsRecovered() throws IOException {
+        FileIndex index = new FileIndex(root, indexFile);
+        index.refresh();
+        File first = addFile("dir3", "first.txt");
+        index.refresh();
+
+        // crash while appending the record of dir3
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+        try {
+            journal.setLength(journal.length() - 7);
+        } finally {
+            journal.close();
+        }
+        index = load();
+        assertNull(index.getEntry(first.getPath()));
+
+        File second = addFile("dir5", "second.txt");
+        index.refresh();
+        assertNotNull(index.getEntry(first.getPath()));
+
+        index = load();
+        assertEquals(112, index.size());
+        assertNotNull(index.getEntry(first.getPath()));
+        assertNotNull(index.getEntry(second.getPath()));
+    }
+
+    @Test
+    public void badEntryCountIsCorruption() throws IOException {
+        FileIndex index = new FileIndex(root, indexFile);
+        index.refresh();
+        for (int count : new int[]{-1, Integer.MAX_VALUE}) {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile));
+            try {
+                out.writeByte(1);
+                out.writeUTF(new File(root, "dir0").getPath());
+                out.writeLong(mtime);
+                out.writeInt(count);
+            } finally {
+                out.close();
+            }
+            index = load();
+            assertEquals(110, index.size());
+            assertFalse(journalFile.exists());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class FileUtilsTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("content", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void saveAndAppendEmptyContent() throws IOException {
+        assertTrue(FileUtils.saveContentToFile("", file));
+        assertEquals(0, file.length());
+        assertTrue(FileUtils.appendContentToFile("", file));
+        assertEquals(0, file.length());
+        assertEquals("", FileUtils.readContentOfFile(file));
+    }
+
+    @Test
+    public void saveAndAppendContent() throws IOException {
+        assertTrue(FileUtils.saveContentToFile("héllo", file));
+        assertTrue(FileUtils.appendContentToFile(" wörld 世界", file));
+        assertEquals("héllo wörld 世界", FileUtils.readContentOfFile(file));
+        assertTrue(FileUtils.saveContentToFile("again", file));
+        assertEquals("again", FileUtils.readContentOfFile(file));
+    }
+
+    @Test
+    public void writeContentLargerThanChunk() throws IOException {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 300000) {
+            content.append("é世").append(content.length());
+        }
+        FileUtils.writeContent(content, file, false);
+        assertArrayEquals(content.toString().getBytes(FileUtils.UTF8), read(file));
+    }
+
+    @Test
+    public void lineIteratorClosesOnce() throws IOException {
+        assertTrue(FileUtils.saveContentToFile("one\r\ntwo\nthree", file));
+        FileUtils.LineIterator lines = FileUtils.lineIterator(file);
+        assertEquals("one\r\n", lines.next());
+        assertTrue(lines.hasNext());
+        lines.close();
+        lines.close();
+        assertFalse(lines.hasNext());
+
+        // the buffer went back to the pool once, so two iterators do not share it
+        FileUtils.LineIterator first = FileUtils.lineIterator(file);
+        FileUtils.LineIterator second = FileUtils.lineIterator(file);
+        try {
+            assertEquals("one\r\n", first.next());
+            assertEquals("one\r\n", second.next());
+            assertEquals("two\n", first.next());
+            assertEquals("two\n", second.next());
+            assertEquals("three", first.next());
+            assertEquals("three", second.next());
+            assertFalse(first.hasNext());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
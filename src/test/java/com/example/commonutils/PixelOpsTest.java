@@ -0,0 +1,136 @@
+package com.example.commonutils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PixelOpsTest {
+
+    private static int[] pixels(int count, int seed) {
+        int[] pixels = new int[count];
+        Random random = new Random(seed);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * The ops applied row by row on the calling thread, the way every band should end up.
+     */
+    private static int[] reference(int[] src, int stride, int width, int height, PixelOps.RowOp... ops) {
+        int[] dst = src.clone();
+        for (int y = 0; y < height; y++) {
+            int offset = y * stride;
+            ops[0].apply(src, offset, dst, offset, width, y);
+            for (int i = 1; i < ops.length; i++) {
+                ops[i].apply(dst, offset, dst, offset, width, y);
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void grayscaleMatchesLuma() {
+        int[] src = pixels(10000, 1);
+        int[] dst = new int[src.length];
+        PixelOps.grayscale().apply(src, 0, dst, 0, src.length, 0);
+        for (int i = 0; i < src.length; i++) {
+            int pixel = src[i];
+            double luma = 0.30 * (pixel >> 16 & 0xFF) + 0.59 * (pixel >> 8 & 0xFF) + 0.11 * (pixel & 0xFF);
+            int grey = dst[i] & 0xFF;
+            // truncated to an integer, from weights off by up to 0.0016 each
+            assertEquals(luma, grey, 1.5);
+            assertTrue(grey <= luma + 0.5);
+            assertEquals(pixel & 0xFF000000, dst[i] & 0xFF000000);
+            assertEquals(grey, dst[i] >> 8 & 0xFF);
+            assertEquals(grey, dst[i] >> 16 & 0xFF);
+        }
+    }
+
+    @Test
+    public void thresholdAndInvert() {
+        int[] src = pixels(1000, 2);
+        int[] pixels = src.clone();
+        PixelOps.apply(pixels, 0, pixels.length, pixels.length, 1, PixelOps.threshold(128));
+        for (int i = 0; i < src.length; i++) {
+            int expected = PixelOps.luma(src[i]) < 128 ? 0 : 0xFFFFFF;
+            assertEquals((src[i] & 0xFF000000) | expected, pixels[i]);
+        }
+
+        pixels = src.clone();
+        PixelOps.apply(pixels, 0, pixels.length, pixels.length, 1, PixelOps.invert(), PixelOps.invert());
+        assertArrayEquals(src, pixels);
+        PixelOps.apply(pixels, 0, pixels.length, pixels.length, 1, PixelOps.gamma(1), PixelOps.contrast(1));
+        assertArrayEquals(src, pixels);
+    }
+
+    @Test
+    public void orderedDitherKeepsGreyLevel() {
+        int width = 64;
+        int[] pixels = new int[width * width];
+        Arrays.fill(pixels, 0xFF808080);
+        PixelOps.apply(pixels, 0, width, width, width, PixelOps.orderedDither());
+        int white = 0;
+        for (int pixel : pixels) {
+            assertTrue(pixel == 0xFF000000 || pixel == 0xFFFFFFFF);
+            if (pixel == 0xFFFFFFFF) {
+                white++;
+            }
+        }
+        assertEquals(pixels.length / 2, white, pixels.length / 32);
+    }
+
+    @Test
+    public void bandsMatchSingleThread() {
+        // enough rows for several bands, with padding at the end of each row
+        int width = 37;
+        int stride = 40;
+        int height = PixelOps.MIN_ROWS_PER_TASK * 4 + 7;
+        int[] src = pixels(stride * height, 3);
+        PixelOps.RowOp[] ops = {PixelOps.contrast(1.4), PixelOps.gamma(0.8), PixelOps.grayscale(),
+                PixelOps.orderedDither()};
+        int[] expected = reference(src, stride, width, height, ops);
+
+        int[] pixels = src.clone();
+        PixelOps.apply(pixels, 0, stride, width, height, ops);
+        assertArrayEquals(expected, pixels);
+
+        int[] dst = new int[src.length];
+        PixelOps.apply(src, 0, stride, dst, 0, stride, width, height, ops);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < stride; x++) {
+                assertEquals(x < width ? expected[y * stride + x] : 0, dst[y * stride + x]);
+            }
+        }
+    }
+
+    @Test
+    public void directBufferMatchesArray() {
+        int width = 50;
+        int height = PixelOps.MIN_ROWS_PER_TASK * 3;
+        int[] src = pixels(width * height + 5, 4);
+        int[] expected = src.clone();
+        PixelOps.apply(expected, 5, width, width, height, PixelOps.grayscale(), PixelOps.invert());
+
+        IntBuffer direct = ByteBuffer.allocateDirect(src.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        direct.put(src).position(5);
+        PixelOps.apply(direct, width, width, height, PixelOps.grayscale(), PixelOps.invert());
+        assertEquals(5, direct.position());
+        int[] actual = new int[src.length];
+        direct.position(0);
+        direct.get(actual);
+        assertArrayEquals(expected, actual);
+
+        IntBuffer heap = IntBuffer.wrap(src.clone());
+        heap.position(5);
+        PixelOps.apply(heap, width, width, height, PixelOps.grayscale(), PixelOps.invert());
+        assertArrayEquals(expected, heap.array());
+    }
+}
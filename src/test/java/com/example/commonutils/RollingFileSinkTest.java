@@ -0,0 +1,155 @@
+package com.example.commonutils;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class RollingFileSinkTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("logs", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static AsyncLogger.Record record(String message) {
+        AsyncLogger.Record record = new AsyncLogger.Record();
+        record.level = Log.INFO;
+        record.fullTag = "Test";
+        record.message = message;
+        record.timeMillis = System.currentTimeMillis();
+        record.threadId = 1;
+        return record;
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), FileUtils.UTF8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param count segments expected, -1 for any number
+     */
+    private static List<File> awaitClosedSegments(RollingFileSink sink, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<File> files = sink.getLogFiles();
+        while (!allCompressed(files, count) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            files = sink.getLogFiles();
+        }
+        return files;
+    }
+
+    private static boolean allCompressed(List<File> files, int count) {
+        if (count >= 0 && files.size() != count) {
+            return false;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(".log.gz")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void batchesAreNeverSplit() throws Exception {
+        RollingFileSink sink = new RollingFileSink(dir, "app").setMaxSegmentSize(4096);
+        StringBuilder first = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            AsyncLogger.Record record = record("large batch line " + i);
+            sink.write(record);
+            record.appendTo(first);
+        }
+        sink.flush();
+        StringBuilder second = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            AsyncLogger.Record record = record("small batch line " + i);
+            sink.write(record);
+            record.appendTo(second);
+        }
+        sink.close();
+
+        List<File> files = awaitClosedSegments(sink, 2);
+        assertEquals(2, files.size());
+        assertEquals(first.toString(), read(files.get(0)));
+        assertEquals(second.toString(), read(files.get(1)));
+    }
+
+    @Test
+    public void siblingSinksKeepTheirSegments() throws Exception {
+        RollingFileSink app = new RollingFileSink(dir, "app");
+        RollingFileSink net = new RollingFileSink(dir, "app-net");
+        app.write(record("app"));
+        app.close();
+        net.write(record("net"));
+        net.close();
+
+        List<File> appFiles = awaitClosedSegments(app, 1);
+        List<File> netFiles = awaitClosedSegments(net, 1);
+        assertEquals(1, appFiles.size());
+        assertTrue(read(appFiles.get(0)).endsWith("Test: app\n"));
+        assertEquals(1, netFiles.size());
+        assertTrue(read(netFiles.get(0)).endsWith("Test: net\n"));
+    }
+
+    @Test
+    public void quotaDeletesOldestSegments() throws Exception {
+        RollingFileSink sink = new RollingFileSink(dir, "app").setMaxSegmentSize(4096).setDiskQuota(400);
+        for (int segment = 0; segment < 5; segment++) {
+            for (int i = 0; i < 20; i++) {
+                sink.write(record("segment " + segment + " line " + i));
+            }
+            sink.requestRotation();
+            sink.flush();
+        }
+        sink.close();
+
+        List<File> files = awaitClosedSegments(sink, -1);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        assertTrue(total <= 400);
+        assertTrue(files.size() < 5);
+        assertFalse(files.isEmpty());
+        assertTrue(read(files.get(files.size() - 1)).contains("segment 4 line 19"));
+    }
+}
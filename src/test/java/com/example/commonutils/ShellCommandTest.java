@@ -0,0 +1,106 @@
+package com.example.commonutils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShellCommandTest {
+
+    private static class Lines implements ShellCommand.OutputCallback {
+        final List<String> out = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> err = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onLine(String line, boolean isError) {
+            (isError ? err : out).add(line);
+        }
+    }
+
+    @Test
+    public void separatesStreams() throws IOException {
+        Lines lines = new Lines();
+        int result = new ShellCommand("echo out1", "echo err1 >&2", "echo out2", "exit 4").run(lines);
+        assertEquals(4, result);
+        assertEquals(2, lines.out.size());
+        assertEquals("out1", lines.out.get(0));
+        assertEquals("out2", lines.out.get(1));
+        assertEquals(Collections.singletonList("err1"), lines.err);
+    }
+
+    @Test
+    public void mergesErrorStream() throws IOException {
+        Lines lines = new Lines();
+        int result = new ShellCommand("echo a", "echo b >&2", "echo c").setMergeErrorStream(true).run(lines);
+        assertEquals(0, result);
+        assertEquals(3, lines.out.size());
+        assertEquals("b", lines.out.get(1));
+        assertTrue(lines.err.isEmpty());
+    }
+
+    @Test
+    public void fullStderrDoesNotBlock() {
+        // far more than a pipe buffer on stderr before anything on stdout
+        String[] commands = {"i=0; while [ $i -lt 5000 ]; do echo \"error line $i\" >&2; i=$((i+1)); done",
+                "echo done"};
+        ShellUtils.CommandResult result = ShellUtils.execCommand(commands, false, true, true);
+        assertEquals(0, result.result);
+        assertEquals("done" + ShellUtils.COMMAND_NEW_LINE, result.successMsg);
+        assertTrue(result.errorMsg.endsWith("error line 4999" + ShellUtils.COMMAND_NEW_LINE));
+    }
+
+    @Test
+    public void timeoutKills() throws IOException {
+        Lines lines = new Lines();
+        ShellCommand command = new ShellCommand("echo started", "exec sleep 10").setTimeout(300);
+        long start = System.currentTimeMillis();
+        assertEquals(ShellCommand.RESULT_KILLED, command.run(lines));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(command.isTimedOut());
+        assertEquals(Collections.singletonList("started"), lines.out);
+
+        assertEquals(ShellCommand.RESULT_KILLED,
+                ShellUtils.execCommand(new String[]{"exec sleep 10"}, false, 300, new Lines()));
+    }
+
+    @Test
+    public void cancelFromAnotherThread() throws Exception {
+        final ShellCommand command = new ShellCommand("echo ready", "exec sleep 10");
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<>(10);
+        final int[] result = {0};
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = command.run(ShellCommand.toQueue(queue));
+                } catch (IOException e) {
+                    result[0] = Integer.MIN_VALUE;
+                }
+            }
+        });
+        runner.start();
+        assertEquals("ready", queue.poll(5, TimeUnit.SECONDS));
+        command.cancel();
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+        assertEquals(ShellCommand.RESULT_KILLED, result[0]);
+        assertFalse(command.isTimedOut());
+    }
+
+    @Test(expected = IOException.class)
+    public void failingCallbackFailsRun() throws IOException {
+        new ShellCommand("echo boom").run(new ShellCommand.OutputCallback() {
+            @Override
+            public void onLine(String line, boolean isError) {
+                throw new IllegalStateException(line);
+            }
+        });
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ShellSessionPoolTest {
+    private static final String NL = ShellUtils.COMMAND_NEW_LINE;
+
+    private ShellSessionPool pool = new ShellSessionPool(ShellUtils.COMMAND_SH, 1);
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    private ShellUtils.CommandResult exec(String... commands) {
+        return pool.exec(commands, true, 5000);
+    }
+
+    @Test
+    public void outputAndExitStatus() {
+        ShellUtils.CommandResult result = exec("echo one", "echo \"it's\" '\"two\"'", "echo three >&2");
+        assertEquals(0, result.result);
+        assertEquals("one" + NL + "it's \"two\"" + NL, result.successMsg);
+        assertEquals("three" + NL, result.errorMsg);
+
+        result = exec("printf partial");
+        assertEquals(0, result.result);
+        assertEquals("partial" + NL, result.successMsg);
+
+        result = exec("echo before", "false");
+        assertEquals(1, result.result);
+        assertEquals("before" + NL, result.successMsg);
+
+        result = pool.exec(new String[]{"echo quiet"}, false, 0);
+        assertEquals(0, result.result);
+        assertNull(result.successMsg);
+        assertNull(result.errorMsg);
+    }
+
+    @Test
+    public void sessionIsReused() {
+        String pid = exec("echo $$").successMsg;
+        assertEquals(pid, exec("echo $$").successMsg);
+        // commands read /dev/null, not the script of the session
+        assertEquals("", exec("cat").successMsg);
+        assertEquals(pid, exec("echo $$").successMsg);
+    }
+
+    @Test
+    public void exitingShellIsReplaced() {
+        String pid = exec("echo $$").successMsg;
+        ShellUtils.CommandResult result = exec("echo bye", "exit 3");
+        assertEquals(3, result.result);
+        assertEquals("bye" + NL, result.successMsg);
+
+        result = exec("echo $$");
+        assertEquals(0, result.result);
+        assertNotEquals(pid, result.successMsg);
+    }
+
+    @Test
+    public void timeoutDestroysSession() {
+        String pid = exec("echo $$").successMsg;
+        long start = System.currentTimeMillis();
+        ShellUtils.CommandResult result = pool.exec(new String[]{"echo started", "sleep 10"}, true, 300);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(-1, result.result);
+        assertEquals("started" + NL, result.successMsg);
+
+        result = exec("echo $$");
+        assertEquals(0, result.result);
+        assertNotEquals(pid, result.successMsg);
+    }
+
+    @Test
+    public void concurrentCallersShareSessions() throws InterruptedException {
+        pool = new ShellSessionPool(ShellUtils.COMMAND_SH, 2);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10; i++) {
+                        String expected = id + "-" + i + NL;
+                        ShellUtils.CommandResult result = exec("echo " + id + "-" + i);
+                        if (result.result != 0 || !expected.equals(result.successMsg)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void batchKeepsOrder() {
+        List<ShellUtils.CommandResult> results = ShellUtils.execCommandBatch(
+                Arrays.asList("echo a", "sleep 0.2; echo b", "exit 2"), false, 5000);
+        assertEquals(3, results.size());
+        assertEquals("a" + NL, results.get(0).successMsg);
+        assertEquals("b" + NL, results.get(1).successMsg);
+        assertEquals(2, results.get(2).result);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.commonutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ZipArchiveTest {
+    private File dir;
+    private File zipFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("zip", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+        zipFile = new File(dir, "test.zip");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(dir);
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    /**
+     * Writes entries alternately stored and deflated, with crc as given or computed when null.
+     */
+    private void writeZip(String[] names, byte[][] contents, Long crc) throws IOException {
+        FileOutputStream out = new FileOutputStream(zipFile);
+        try {
+            ZipWriter writer = new ZipWriter(out.getChannel());
+            for (int i = 0; i < names.length; i++) {
+                boolean stored = i % 2 == 0;
+                byte[] content = contents[i];
+                ZipWriter.Entry entry = new ZipWriter.Entry(names[i],
+                        stored ? ParallelZipCompressor.METHOD_STORED : ParallelZipCompressor.METHOD_DEFLATED,
+                        System.currentTimeMillis());
+                CRC32 checksum = new CRC32();
+                checksum.update(content);
+                entry.crc = crc != null ? crc : checksum.getValue();
+                entry.size = content.length;
+                byte[] body = stored ? content : deflate(content);
+                entry.compressedSize = body.length;
+                writer.begin(entry);
+                writer.write(body, 0, body.length);
+                writer.end(entry, false);
+            }
+            writer.finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[content.length + 1024];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        String[] names = {"a.txt", "b/c.txt", "b/empty.txt", "d.jpg", "page10.png", "page02.png"};
+        byte[][] contents = {data(1000, 1), data(100000, 2), new byte[0], data(5, 3), data(70000, 4), data(1, 5)};
+        writeZip(names, contents, null);
+
+        ZipArchive archive = new ZipArchive(zipFile);
+        try {
+            assertEquals(names.length, archive.size());
+            for (int i = 0; i < names.length; i++) {
+                ZipArchive.Entry entry = archive.getEntry(names[i]);
+                assertEquals(contents[i].length, entry.getSize());
+                assertArrayEquals(names[i], contents[i], archive.readEntry(entry));
+            }
+            assertEquals("page02.png", archive.getImageEntries().get(1).getName());
+            assertEquals("page10.png", archive.getImageEntries().get(2).getName());
+
+            File target = new File(dir, "out");
+            archive.extractAll(target, 4);
+            for (int i = 0; i < names.length; i++) {
+                assertArrayEquals(names[i], contents[i], read(new File(target, names[i])));
+            }
+        } finally {
+            archive.close();
+        }
+
+        // readable by java.util.zip as well
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            for (int i = 0; i < names.length; i++) {
+                assertArrayEquals(contents[i], readFully(zip.getInputStream(zip.getEntry(names[i]))));
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void crcMismatchFails() throws IOException {
+        writeZip(new String[]{"stored.txt", "deflated.txt"}, new byte[][]{data(100, 6), data(100, 7)}, 12345L);
+        ZipArchive archive = new ZipArchive(zipFile);
+        try {
+            for (ZipArchive.Entry entry : archive.getEntries()) {
+                try {
+                    archive.readEntry(entry);
+                    fail(entry.getName());
+                } catch (ZipException expected) {
+                }
+                File target = new File(dir, "out");
+                try {
+                    archive.extract(entry, target);
+                    fail(entry.getName());
+                } catch (ZipException expected) {
+                }
+                assertFalse(new File(target, entry.getName()).exists());
+            }
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void entryOutsideOfDirectoryFails() throws IOException {
+        writeZip(new String[]{"../evil.txt"}, new byte[][]{data(10, 8)}, null);
+        ZipArchive archive = new ZipArchive(zipFile);
+        try {
+            archive.extractAll(new File(dir, "out"), 1);
+        } finally {
+            archive.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return readFully(new FileInputStream(file));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[1024];
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        FileUtils.deleteQuietly(file);
+    }
+}